@@ -0,0 +1,120 @@
+package net.intelie.challenges;
+
+import java.util.OptionalLong;
+
+/*
+ * Aggregations computed by walking an EventIterator, behind the default
+ * aggregation methods of EventStore, for stores that cannot compute them
+ * from their indexes. Only moveNext is called on the events counted, so
+ * no Event is requested per event except by lastTimestamp, which has to
+ * read the timestamp of every event to know the last one.
+ * Every method closes the iterator it is given.
+ */
+final class Aggregations
+{
+    private Aggregations()
+    {
+    }
+
+    /* Number of bins of the given interval covering [startTime, endTime) */
+    static int binCount(long startTime, long endTime, long interval)
+    {
+        if (interval <= 0)
+        {
+            throw new IllegalArgumentException("The interval must be positive, got " + interval);
+        }
+        if (startTime >= endTime)
+        {
+            return 0;
+        }
+        long span = endTime - startTime;
+        long bins = Long.divideUnsigned(span, interval) + (Long.remainderUnsigned(span, interval) == 0 ? 0 : 1);
+        if (bins > Integer.MAX_VALUE || bins < 0)
+        {
+            throw new IllegalArgumentException("Too many bins of " + interval + " in [" + startTime + ", " + endTime + ")");
+        }
+        return (int) bins;
+    }
+
+    static long count(EventIterator iterator)
+    {
+        try
+        {
+            long count = 0;
+            while (iterator.moveNext())
+            {
+                count++;
+            }
+            return count;
+        }
+        finally
+        {
+            close(iterator);
+        }
+    }
+
+    static OptionalLong firstTimestamp(EventIterator iterator)
+    {
+        try
+        {
+            return iterator.moveNext() ? OptionalLong.of(iterator.current().timestamp()) : OptionalLong.empty();
+        }
+        finally
+        {
+            close(iterator);
+        }
+    }
+
+    static OptionalLong lastTimestamp(EventIterator iterator)
+    {
+        try
+        {
+            if (!iterator.moveNext())
+            {
+                return OptionalLong.empty();
+            }
+            long last = iterator.current().timestamp();
+            while (iterator.moveNext())
+            {
+                last = iterator.current().timestamp();
+            }
+            return OptionalLong.of(last);
+        }
+        finally
+        {
+            close(iterator);
+        }
+    }
+
+    static long[] histogram(EventIterator iterator, long startTime, long endTime, long interval)
+    {
+        try
+        {
+            long[] counts = new long[binCount(startTime, endTime, interval)];
+            while (iterator.moveNext())
+            {
+                counts[(int) Long.divideUnsigned(iterator.current().timestamp() - startTime, interval)]++;
+            }
+            return counts;
+        }
+        finally
+        {
+            close(iterator);
+        }
+    }
+
+    /* Iterators of this package never fail to close, anything else is
+     * reported unchecked since aggregations return plain values.
+     */
+    private static void close(EventIterator iterator)
+    {
+        try
+        {
+            iterator.close();
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Could not close the iterator", e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package net.intelie.challenges;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+
+public class BucketedEventIteratorClass implements EventIterator
+{
+    /* Iterator over the [startTime, endTime) range of a type split in
+     * time buckets. Every bucket is walked by an EventIteratorClass of its
+     * own, so events are still fetched lazily in windows under the store
+     * lock, and removal goes through it. Once a bucket is exhausted, the
+     * next one is looked up by start time under the store lock, which
+     * skips the buckets dropped since the query and finds the ones
+     * created meanwhile, and iteration ends at the first bucket starting
+     * at or after endTime. A removal emptying its bucket drops the bucket
+     * from the type, unless it was already replaced by a new one.
+     */
+    private final Lock lock;
+    private final EventStoreMetrics metrics;
+    private TreeMap<Long, EventPartition> buckets;
+    private final long startTime;
+    private final long endTime;
+    private long bucketStart;
+    private boolean started = false;
+    private EventIteratorClass current = null;
+    private EventPartition bucket = null;
+
+    /* Constructor of BucketedEventIteratorClass, it takes the buckets of
+     * the queried type with the lock guarding them, the metrics of the
+     * store, the start of the bucket holding startTime and the queried
+     * time range. Null buckets mean there are no events of that type.
+     */
+    BucketedEventIteratorClass(Lock lock, EventStoreMetrics metrics, TreeMap<Long, EventPartition> buckets, long firstBucketStart, long startTime, long endTime)
+    {
+        this.lock = lock;
+        this.metrics = metrics;
+        this.buckets = startTime < endTime ? buckets : null;
+        this.bucketStart = firstBucketStart;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /* Moves to the next event of the current bucket, moving on to the
+     * following buckets while the current one has no more events.
+     */
+    @Override
+    public boolean moveNext()
+    {
+        while (buckets != null)
+        {
+            if (current != null && current.moveNext())
+            {
+                return true;
+            }
+            Map.Entry<Long, EventPartition> next;
+            lock.lock();
+            try
+            {
+                next = started ? buckets.higherEntry(bucketStart) : buckets.ceilingEntry(bucketStart);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            started = true;
+            if (current != null)
+            {
+                current.close();
+                current = null;
+            }
+            if (next == null || next.getKey() >= endTime)
+            {
+                buckets = null;
+                return false;
+            }
+            bucketStart = next.getKey();
+            bucket = next.getValue();
+            current = new EventIteratorClass(lock, metrics, bucket, startTime, endTime);
+        }
+        return false;
+    }
+
+    /* Returns the event pointed by the last successful moveNext call,
+     * or throws IllegalStateException when there is none.
+     */
+    @Override
+    public Event current()
+    {
+        if (current == null)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        return current.current();
+    }
+
+    /* Removes the current event from the bucket it was read from,
+     * dropping the bucket if that was its last event
+     */
+    @Override
+    public void remove()
+    {
+        if (current == null)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        current.remove();
+        lock.lock();
+        try
+        {
+            if (bucket.size() == 0 && buckets.get(bucketStart) == bucket)
+            {
+                buckets.remove(bucketStart);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Releases the buckets and the iterator of the current bucket */
+    @Override
+    public void close()
+    {
+        if (current != null)
+        {
+            current.close();
+            current = null;
+        }
+        bucket = null;
+        buckets = null;
+    }
+}
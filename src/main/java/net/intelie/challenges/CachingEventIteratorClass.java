@@ -0,0 +1,119 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CachingEventIteratorClass implements EventIterator
+{
+    /* Iterator of a CachingEventStoreClass, in one of two modes.
+     * Over a cached result it walks the cached events, and removing one
+     * removes it from the wrapped store and invalidates its ranges.
+     * Otherwise it walks the iterator of the wrapped store, recording the
+     * returned events, and hands them to the cache once the end of the
+     * range is reached. Recording stops, and nothing is cached, if an
+     * event is removed or the result grows heavier than the cache.
+     */
+    private final CachingEventStoreClass cache;
+    private final CachingEventStoreClass.CacheKey key;
+    private final long version;
+    private final long maxWeight;
+    private EventIterator delegate;
+    private List<Event> recorded;
+    private Event[] cached;
+    private int index = -1;
+    private boolean removed = false;
+
+    /* Iterator over a cached result */
+    CachingEventIteratorClass(CachingEventStoreClass cache, Event[] cached)
+    {
+        this.cache = cache;
+        this.key = null;
+        this.version = 0;
+        this.maxWeight = 0;
+        this.cached = cached;
+    }
+
+    /* Iterator recording the result of the wrapped store under the key */
+    CachingEventIteratorClass(CachingEventStoreClass cache, CachingEventStoreClass.CacheKey key, long version, EventIterator delegate, long maxWeight)
+    {
+        this.cache = cache;
+        this.key = key;
+        this.version = version;
+        this.maxWeight = maxWeight;
+        this.delegate = delegate;
+        this.recorded = new ArrayList<Event>();
+    }
+
+    @Override
+    public boolean moveNext()
+    {
+        if (delegate == null)
+        {
+            removed = false;
+            if (cached != null && index < cached.length)
+            {
+                index++;
+            }
+            return cached != null && index < cached.length;
+        }
+        if (delegate.moveNext())
+        {
+            if (recorded != null)
+            {
+                recorded.add(delegate.current());
+                if (recorded.size() > maxWeight)
+                {
+                    recorded = null;
+                }
+            }
+            return true;
+        }
+        if (recorded != null)
+        {
+            cache.put(key, version, recorded.toArray(new Event[0]), recorded.size());
+            recorded = null;
+        }
+        return false;
+    }
+
+    @Override
+    public Event current()
+    {
+        if (delegate != null)
+        {
+            return delegate.current();
+        }
+        if (cached == null || index < 0 || index >= cached.length || removed)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        return cached[index];
+    }
+
+    @Override
+    public void remove()
+    {
+        if (delegate != null)
+        {
+            Event event = delegate.current();
+            delegate.remove();
+            recorded = null;
+            cache.removed(event);
+            return;
+        }
+        /* The cached array is shared by every hit, so it is left alone */
+        cache.remove(current());
+        removed = true;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        if (delegate != null)
+        {
+            delegate.close();
+        }
+        recorded = null;
+        cached = null;
+    }
+}
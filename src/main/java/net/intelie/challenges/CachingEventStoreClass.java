@@ -0,0 +1,468 @@
+package net.intelie.challenges;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CachingEventStoreClass implements EventStore
+{
+    /* Default bound on the total weight of the cached results */
+    public static final long DEFAULT_MAX_WEIGHT = 1 << 20;
+
+    /*
+     * Decorator caching the results of query and of the aggregations of
+     * any EventStore, for dashboards repeating the same requests.
+     * Query results are recorded while the caller walks the iterator of
+     * the wrapped store, and cached once it is walked to the end without
+     * removals, so a miss costs the same as an uncached query and nothing
+     * is materialized up front. Aggregations are computed by the wrapped
+     * store and cached as they are.
+     * Results are weighed by the events (or histogram bins) they hold,
+     * aggregates weighing 1, and the least recently used ones are evicted
+     * once the total weight goes over maxWeight. A single result heavier
+     * than maxWeight is never cached.
+     * Writes only invalidate the cached ranges of their type that contain
+     * the written timestamp. Cached keys of every type are also indexed by
+     * the end of their range, so an insert only visits the keys ending
+     * after its timestamp, which for appends are just the ranges still
+     * open at the head. removeAll drops every key of its type.
+     * Every type has a version, bumped by every write to it. A result is
+     * only cached if the version of its type did not change while it was
+     * being computed, so a result racing with a write is never cached
+     * stale.
+     * The whole cache state is guarded by the monitor of this store, which
+     * is never held while calling the wrapped store.
+     */
+    private final EventStore store;
+    private final long maxWeight;
+    private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true);
+    private final Map<String, TypeEntries> types = new HashMap<String, TypeEntries>();
+    private long weight = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /* Wraps the store with a cache of DEFAULT_MAX_WEIGHT */
+    public CachingEventStoreClass(EventStore store)
+    {
+        this(store, DEFAULT_MAX_WEIGHT);
+    }
+
+    /* Wraps the store with a cache holding results of a total weight
+     * of at most maxWeight.
+     */
+    public CachingEventStoreClass(EventStore store, long maxWeight)
+    {
+        if (maxWeight <= 0)
+        {
+            throw new IllegalArgumentException("Maximum weight must be positive, got " + maxWeight);
+        }
+        this.store = store;
+        this.maxWeight = maxWeight;
+    }
+
+    @Override
+    public void insert(Event event)
+    {
+        store.insert(event);
+        synchronized (this)
+        {
+            invalidate(event.type(), event.timestamp());
+        }
+    }
+
+    @Override
+    public void insertAll(Collection<Event> events)
+    {
+        store.insertAll(events);
+        synchronized (this)
+        {
+            for (Event event : events)
+            {
+                invalidate(event.type(), event.timestamp());
+            }
+        }
+    }
+
+    @Override
+    public void removeAll(String type)
+    {
+        store.removeAll(type);
+        synchronized (this)
+        {
+            TypeEntries typeEntries = types.get(type);
+            if (typeEntries != null)
+            {
+                typeEntries.version++;
+                for (CacheKey key : typeEntries.keys)
+                {
+                    weight -= entries.remove(key).weight;
+                    invalidations.increment();
+                }
+                typeEntries.keys.clear();
+            }
+        }
+    }
+
+    /* Returns the cached events of the range, or an iterator of the
+     * wrapped store recording them to be cached, see the class comment.
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime)
+    {
+        CacheKey key = new CacheKey(CacheKey.QUERY, type, startTime, endTime, 0);
+        long version;
+        synchronized (this)
+        {
+            CacheEntry entry = lookup(key);
+            if (entry != null)
+            {
+                return new CachingEventIteratorClass(this, (Event[]) entry.value);
+            }
+            version = version(type);
+        }
+        return new CachingEventIteratorClass(this, key, version, store.query(type, startTime, endTime), maxWeight);
+    }
+
+    @Override
+    public long count(String type, long startTime, long endTime)
+    {
+        CacheKey key = new CacheKey(CacheKey.COUNT, type, startTime, endTime, 0);
+        long version;
+        synchronized (this)
+        {
+            CacheEntry entry = lookup(key);
+            if (entry != null)
+            {
+                return (Long) entry.value;
+            }
+            version = version(type);
+        }
+        long count = store.count(type, startTime, endTime);
+        put(key, version, count, 1);
+        return count;
+    }
+
+    @Override
+    public OptionalLong firstTimestamp(String type, long startTime, long endTime)
+    {
+        CacheKey key = new CacheKey(CacheKey.FIRST, type, startTime, endTime, 0);
+        long version;
+        synchronized (this)
+        {
+            CacheEntry entry = lookup(key);
+            if (entry != null)
+            {
+                return (OptionalLong) entry.value;
+            }
+            version = version(type);
+        }
+        OptionalLong first = store.firstTimestamp(type, startTime, endTime);
+        put(key, version, first, 1);
+        return first;
+    }
+
+    @Override
+    public OptionalLong lastTimestamp(String type, long startTime, long endTime)
+    {
+        CacheKey key = new CacheKey(CacheKey.LAST, type, startTime, endTime, 0);
+        long version;
+        synchronized (this)
+        {
+            CacheEntry entry = lookup(key);
+            if (entry != null)
+            {
+                return (OptionalLong) entry.value;
+            }
+            version = version(type);
+        }
+        OptionalLong last = store.lastTimestamp(type, startTime, endTime);
+        put(key, version, last, 1);
+        return last;
+    }
+
+    /* Caches the bins, returning a copy on every call so callers can not
+     * alter the cached ones.
+     */
+    @Override
+    public long[] histogram(String type, long startTime, long endTime, long interval)
+    {
+        CacheKey key = new CacheKey(CacheKey.HISTOGRAM, type, startTime, endTime, interval);
+        long version;
+        synchronized (this)
+        {
+            CacheEntry entry = lookup(key);
+            if (entry != null)
+            {
+                return ((long[]) entry.value).clone();
+            }
+            version = version(type);
+        }
+        long[] counts = store.histogram(type, startTime, endTime, interval);
+        put(key, version, counts.clone(), Math.max(1, counts.length));
+        return counts;
+    }
+
+    /* Number of requests answered from the cache */
+    public long hitCount()
+    {
+        return hits.sum();
+    }
+
+    /* Number of requests passed on to the wrapped store */
+    public long missCount()
+    {
+        return misses.sum();
+    }
+
+    /* Fraction of the requests answered from the cache, 0 if none yet */
+    public double hitRate()
+    {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /* Number of results evicted to stay under the maximum weight */
+    public long evictionCount()
+    {
+        return evictions.sum();
+    }
+
+    /* Number of results dropped because a write changed their range */
+    public long invalidationCount()
+    {
+        return invalidations.sum();
+    }
+
+    /* Number of results currently cached */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /* Total weight of the results currently cached */
+    public synchronized long weight()
+    {
+        return weight;
+    }
+
+    /* Caches a result computed while the version of its type was the
+     * given one, unless it changed since. Called by
+     * CachingEventIteratorClass for query results.
+     */
+    synchronized void put(CacheKey key, long version, Object value, long valueWeight)
+    {
+        if (valueWeight > maxWeight || version != version(key.type) || entries.containsKey(key))
+        {
+            return;
+        }
+        entries.put(key, new CacheEntry(value, valueWeight));
+        types.get(key.type).keys.add(key);
+        weight += valueWeight;
+        Iterator<Map.Entry<CacheKey, CacheEntry>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight)
+        {
+            Map.Entry<CacheKey, CacheEntry> entry = eldest.next();
+            weight -= entry.getValue().weight;
+            types.get(entry.getKey().type).keys.remove(entry.getKey());
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /* Removes a cached event from the wrapped store, looking it up by
+     * instance among the events with its type and timestamp, or failing
+     * that taking the first of them, since stores creating their events
+     * on every read never return the cached instance. Throws
+     * IllegalStateException, invalidating nothing, if the store has no
+     * such event left. Called by CachingEventIteratorClass.
+     */
+    void remove(Event event)
+    {
+        if (event.timestamp() == Long.MAX_VALUE || (!removeFromStore(event, true) && !removeFromStore(event, false)))
+        {
+            throw new IllegalStateException("No event of type " + event.type() + " at " + event.timestamp() + " left to remove");
+        }
+        removed(event);
+    }
+
+    /* Removes the first stored event with the type and timestamp of the
+     * given one, if it is the same instance when sameInstance is set.
+     * Returns whether an event was removed.
+     */
+    private boolean removeFromStore(Event event, boolean sameInstance)
+    {
+        try (EventIterator iterator = store.query(event.type(), event.timestamp(), event.timestamp() + 1))
+        {
+            while (iterator.moveNext())
+            {
+                if (!sameInstance || iterator.current() == event)
+                {
+                    iterator.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Could not remove event of type " + event.type() + " at " + event.timestamp(), e);
+        }
+    }
+
+    /* Invalidates the ranges containing an event removed through an
+     * iterator. Called by CachingEventIteratorClass.
+     */
+    synchronized void removed(Event event)
+    {
+        invalidate(event.type(), event.timestamp());
+    }
+
+    /* Returns the cached entry and counts the hit or miss.
+     * Must be called while holding the monitor of this store.
+     */
+    private CacheEntry lookup(CacheKey key)
+    {
+        CacheEntry entry = entries.get(key);
+        if (entry != null)
+        {
+            hits.increment();
+        }
+        else
+        {
+            misses.increment();
+        }
+        return entry;
+    }
+
+    /* Must be called while holding the monitor of this store */
+    private long version(String type)
+    {
+        TypeEntries typeEntries = types.get(type);
+        if (typeEntries == null)
+        {
+            typeEntries = new TypeEntries();
+            types.put(type, typeEntries);
+        }
+        return typeEntries.version;
+    }
+
+    /* Drops the cached ranges of the type containing the timestamp.
+     * Must be called while holding the monitor of this store.
+     */
+    private void invalidate(String type, long timestamp)
+    {
+        TypeEntries typeEntries = types.get(type);
+        if (typeEntries == null)
+        {
+            return;
+        }
+        typeEntries.version++;
+        Iterator<CacheKey> keys = typeEntries.keys.tailSet(CacheKey.endingAt(type, timestamp), false).iterator();
+        while (keys.hasNext())
+        {
+            CacheKey key = keys.next();
+            if (key.startTime <= timestamp && timestamp < key.endTime)
+            {
+                keys.remove();
+                weight -= entries.remove(key).weight;
+                invalidations.increment();
+            }
+        }
+    }
+
+    /* Identifies a cached result: the kind of request and its arguments */
+    static final class CacheKey implements Comparable<CacheKey>
+    {
+        static final int QUERY = 0;
+        static final int COUNT = 1;
+        static final int FIRST = 2;
+        static final int LAST = 3;
+        static final int HISTOGRAM = 4;
+
+        final int kind;
+        final String type;
+        final long startTime;
+        final long endTime;
+        final long interval;
+
+        CacheKey(int kind, String type, long startTime, long endTime, long interval)
+        {
+            this.kind = kind;
+            this.type = type;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.interval = interval;
+        }
+
+        /* Key ordered after every key of the type whose range ends at or
+         * before the timestamp, and before every one ending after it
+         */
+        static CacheKey endingAt(String type, long timestamp)
+        {
+            return new CacheKey(Integer.MAX_VALUE, type, Long.MAX_VALUE, timestamp, Long.MAX_VALUE);
+        }
+
+        /* Orders the keys of a single type by the end of their range */
+        @Override
+        public int compareTo(CacheKey other)
+        {
+            int comparison = Long.compare(endTime, other.endTime);
+            if (comparison == 0)
+            {
+                comparison = Long.compare(startTime, other.startTime);
+            }
+            if (comparison == 0)
+            {
+                comparison = Integer.compare(kind, other.kind);
+            }
+            return comparison != 0 ? comparison : Long.compare(interval, other.interval);
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof CacheKey))
+            {
+                return false;
+            }
+            CacheKey key = (CacheKey) other;
+            return kind == key.kind && startTime == key.startTime && endTime == key.endTime
+                && interval == key.interval && type.equals(key.type);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(kind, type, startTime, endTime, interval);
+        }
+    }
+
+    private static final class CacheEntry
+    {
+        final Object value;
+        final long weight;
+
+        CacheEntry(Object value, long weight)
+        {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /* Version and cached keys of a type */
+    private static final class TypeEntries
+    {
+        long version = 0;
+        final TreeSet<CacheKey> keys = new TreeSet<CacheKey>();
+    }
+}
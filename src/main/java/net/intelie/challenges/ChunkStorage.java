@@ -0,0 +1,27 @@
+package net.intelie.challenges;
+
+/*
+ * Storage for the fixed size timestamp chunks of ColumnarPartition.
+ * Chunks are referred to by int handles rather than by objects, so a
+ * partition only keeps an int per chunk on the heap whatever the chunks
+ * are backed by. Every chunk holds ColumnarPartition.CHUNK_CAPACITY longs.
+ * Implementations are not thread safe, the owning store is responsible
+ * for guarding every access.
+ */
+interface ChunkStorage
+{
+    /* Returns the handle of a chunk that is not in use, reusing freed ones */
+    int allocate();
+
+    /* Gives a chunk back, its handle may be returned by a later allocate */
+    void free(int handle);
+
+    long get(int handle, int offset);
+
+    void set(int handle, int offset, long value);
+
+    /* Copies length values between chunks (or inside the same chunk),
+     * behaving as if the source was first copied to a temporary buffer.
+     */
+    void copy(int sourceHandle, int sourceOffset, int targetHandle, int targetOffset, int length);
+}
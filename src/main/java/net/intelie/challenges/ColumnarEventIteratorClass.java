@@ -0,0 +1,275 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.locks.Lock;
+
+public class ColumnarEventIteratorClass implements EventIterator
+{
+    /* Number of timestamps fetched from the partition every time
+     * the store lock is taken.
+     */
+    private static final int WINDOW_SIZE = 64;
+
+    /* Cursor over the [startTime, endTime) range of a columnar partition.
+     * Timestamps are fetched lazily in windows, and an Event is only
+     * created when current is called, sharing the interned type name.
+     * The position is a (chunk, offset) pair, trusted while the layout
+     * version of the partition is unchanged. Otherwise it is looked up
+     * again from the last fetched timestamp and how many events with that
+     * timestamp were fetched, which is exact since such events are
+     * indistinguishable from each other.
+     * Every fetched window is added to the store metrics as scanned and
+     * returned events, the partition having no tombstones to skip, along
+     * with the time the fetch took.
+     * Sealed chunks of the partition are compressed and can only be read
+     * sequentially, so the iterator decodes each one it walks as a whole
+     * into a buffer of its own, allocated on the first sealed chunk, and
+     * keeps it while the chunk and the layout version are unchanged.
+     */
+    private final Lock lock;
+    private final EventStoreMetrics metrics;
+    private ColumnarPartition partition;
+    private final String type;
+    private final long startTime;
+    private final long endTime;
+    private boolean started = false;
+    private int chunk = 0;
+    private int offset = 0;
+    private int layoutVersion = 0;
+    private long lastFetched = 0;
+    private int lastFetchedCount = 0;
+
+    private long[] decoded = null;
+    private int decodedChunk = -1;
+    private int decodedVersion = 0;
+
+    private long[] window = new long[WINDOW_SIZE];
+    private int windowSize = 0;
+    private int windowIndex = 0;
+    private boolean hasCurrent = false;
+    private Event currentEvent = null;
+
+    /* Constructor of ColumnarEventIteratorClass, it takes the partition
+     * to walk, the lock guarding it, the metrics of the store, the
+     * interned type name of the partition and the queried time range.
+     * A null partition means there are no events of the queried type.
+     */
+    ColumnarEventIteratorClass(Lock lock, EventStoreMetrics metrics, ColumnarPartition partition, String type, long startTime, long endTime)
+    {
+        this.lock = lock;
+        this.metrics = metrics;
+        this.partition = startTime < endTime ? partition : null;
+        this.type = type;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /* Moves to the next timestamp of the window, fetching a new window
+     * from the partition once the current one is consumed.
+     */
+    @Override
+    public boolean moveNext()
+    {
+        currentEvent = null;
+        if (windowIndex + 1 < windowSize)
+        {
+            windowIndex++;
+            hasCurrent = true;
+            return true;
+        }
+        if (partition != null)
+        {
+            long start = System.nanoTime();
+            lock.lock();
+            try
+            {
+                if (!partition.isReleased())
+                {
+                    synchronizePosition();
+                    fill();
+                }
+                else
+                {
+                    windowSize = 0;
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            metrics.recordFetch(windowSize, windowSize, System.nanoTime() - start);
+        }
+        windowIndex = 0;
+        hasCurrent = windowSize > 0;
+        if (!hasCurrent)
+        {
+            partition = null;
+        }
+        return hasCurrent;
+    }
+
+    /* Returns the current event, creating it on the first call for
+     * the current position.
+     */
+    @Override
+    public Event current()
+    {
+        if (!hasCurrent)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        if (currentEvent == null)
+        {
+            currentEvent = new Event(type, window[windowIndex]);
+        }
+        return currentEvent;
+    }
+
+    /* Removes one event with the current timestamp from the partition.
+     * Events sharing type and timestamp are indistinguishable, so which
+     * one is removed does not matter; the cursor position only has to
+     * account for it when it was one of the last fetched timestamps.
+     */
+    @Override
+    public void remove()
+    {
+        if (!hasCurrent || partition == null)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        long timestamp = window[windowIndex];
+        lock.lock();
+        try
+        {
+            if (!partition.isReleased())
+            {
+                synchronizePosition();
+                if (partition.removeOne(timestamp))
+                {
+                    metrics.recordRemove();
+                    if (timestamp == lastFetched)
+                    {
+                        lastFetchedCount--;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        hasCurrent = false;
+        currentEvent = null;
+    }
+
+    /* Releases the partition and the window */
+    @Override
+    public void close()
+    {
+        partition = null;
+        window = new long[0];
+        decoded = null;
+        windowSize = 0;
+        windowIndex = 0;
+        hasCurrent = false;
+        currentEvent = null;
+    }
+
+    /* Copies the next timestamps of the range into the window.
+     * Must be called while holding the store lock.
+     */
+    private void fill()
+    {
+        int count = 0;
+        while (count < window.length && chunk < partition.chunkCount())
+        {
+            int chunkSize = partition.chunkSize(chunk);
+            long[] values = decodedValues();
+            while (offset < chunkSize && count < window.length)
+            {
+                long timestamp = values != null ? values[offset] : partition.timestampAt(chunk, offset);
+                if (timestamp >= endTime)
+                {
+                    windowSize = count;
+                    chunk = partition.chunkCount();
+                    return;
+                }
+                window[count++] = timestamp;
+                offset++;
+                if (timestamp == lastFetched && lastFetchedCount > 0)
+                {
+                    lastFetchedCount++;
+                }
+                else
+                {
+                    lastFetched = timestamp;
+                    lastFetchedCount = 1;
+                }
+            }
+            if (offset == chunkSize)
+            {
+                chunk++;
+                offset = 0;
+            }
+        }
+        windowSize = count;
+    }
+
+    /* Returns the decoded values of the current chunk if it is sealed,
+     * decoding it unless it is already in the buffer, or null if it is
+     * hot. Must be called while holding the store lock.
+     */
+    private long[] decodedValues()
+    {
+        if (!partition.isSealed(chunk))
+        {
+            return null;
+        }
+        if (decoded == null)
+        {
+            decoded = new long[ColumnarPartition.CHUNK_CAPACITY];
+        }
+        if (decodedChunk != chunk || decodedVersion != partition.layoutVersion())
+        {
+            partition.decode(chunk, decoded);
+            decodedChunk = chunk;
+            decodedVersion = partition.layoutVersion();
+        }
+        return decoded;
+    }
+
+    /* Makes the (chunk, offset) position valid for the current partition
+     * layout. Must be called while holding the store lock.
+     */
+    private void synchronizePosition()
+    {
+        if (!started)
+        {
+            seek(startTime, 0);
+            started = true;
+        }
+        else if (layoutVersion != partition.layoutVersion())
+        {
+            seek(lastFetched, lastFetchedCount);
+        }
+        layoutVersion = partition.layoutVersion();
+    }
+
+    /* Positions the cursor on the first timestamp not lower than the
+     * given one, then skips up to count values equal to it.
+     */
+    private void seek(long timestamp, int count)
+    {
+        chunk = partition.firstChunkWithLastAtLeast(timestamp);
+        offset = chunk < partition.chunkCount() ? partition.lowerBoundIn(chunk, timestamp) : 0;
+        while (count > 0 && chunk < partition.chunkCount() && partition.timestampAt(chunk, offset) == timestamp)
+        {
+            count--;
+            offset++;
+            if (offset == partition.chunkSize(chunk))
+            {
+                chunk++;
+                offset = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ColumnarEventStoreClass implements EventStore
+{
+    /* Default number of newest chunks of every type kept uncompressed */
+    public static final int DEFAULT_HOT_CHUNKS = 4;
+
+    /*
+     * Memory oriented alternative to EventStoreClass.
+     * Events are not kept as objects: every type is interned to a small
+     * int id by a TypeDictionary, and the events of each type are stored
+     * as primitive timestamps in the chunks of a ColumnarPartition,
+     * indexed by that id. An event then costs 8 bytes instead of an Event
+     * object, its String reference and an array slot pointing to it,
+     * and range scans walk contiguous long[] chunks instead of chasing
+     * pointers.
+     * Event instances are only created when an iterator is asked for its
+     * current event, so callers get equal events rather than the very
+     * instances they inserted.
+     * Only the newest chunks of every type stay in the storage; older ones
+     * are sealed into compressed blocks on the heap, see ColumnarPartition.
+     * Every access to the partitions and to the chunk storage they share
+     * is guarded by the store lock, a MeasuredLock recording waits in the
+     * metrics of the store.
+     */
+    private final TypeDictionary types = new TypeDictionary();
+    private final ChunkStorage storage;
+    private final int hotChunks;
+    private ColumnarPartition[] partitions = new ColumnarPartition[16];
+
+    /* Counters and latencies of every operation, see metrics() */
+    private final EventStoreMetrics metrics = new EventStoreMetrics(new EventStoreMetrics.TypeStatistics()
+    {
+        @Override
+        public Map<String, Long> eventCounts()
+        {
+            Map<String, Long> counts = new TreeMap<String, Long>();
+            lock.lock();
+            try
+            {
+                for (int typeId = 0; typeId < partitions.length; typeId++)
+                {
+                    if (partitions[typeId] != null)
+                    {
+                        counts.put(types.nameOf(typeId), partitions[typeId].size());
+                    }
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Long> memoryEstimates()
+        {
+            Map<String, Long> estimates = new TreeMap<String, Long>();
+            lock.lock();
+            try
+            {
+                for (int typeId = 0; typeId < partitions.length; typeId++)
+                {
+                    if (partitions[typeId] != null)
+                    {
+                        estimates.put(types.nameOf(typeId), partitions[typeId].memoryEstimate());
+                    }
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            return estimates;
+        }
+    });
+
+    /* Guards the partitions and the storage, also taken by subclasses */
+    final MeasuredLock lock = new MeasuredLock(new ReentrantLock(), metrics);
+
+    /* Creates a store keeping its chunks in long[] arrays on the heap,
+     * sealing all but the newest DEFAULT_HOT_CHUNKS chunks of every type.
+     */
+    public ColumnarEventStoreClass()
+    {
+        this(DEFAULT_HOT_CHUNKS);
+    }
+
+    /* Creates a store keeping its chunks in long[] arrays on the heap,
+     * sealing all but the newest hotChunks chunks of every type.
+     */
+    public ColumnarEventStoreClass(int hotChunks)
+    {
+        this(new HeapChunkStorage(), hotChunks);
+    }
+
+    /* Creates a store keeping its chunks in the given storage, never
+     * sealing them: sealed chunks live on the heap, which is what storages
+     * other than the heap one are there to avoid.
+     */
+    ColumnarEventStoreClass(ChunkStorage storage)
+    {
+        this(storage, Integer.MAX_VALUE);
+    }
+
+    private ColumnarEventStoreClass(ChunkStorage storage, int hotChunks)
+    {
+        if (hotChunks < 1)
+        {
+            throw new IllegalArgumentException("At least one chunk must be kept hot, got " + hotChunks);
+        }
+        this.storage = storage;
+        this.hotChunks = hotChunks;
+    }
+
+    /* Stores the timestamp of the event in the partition of its type.
+     * The type id is resolved before taking the lock.
+     */
+    @Override
+    public void insert(Event event)
+    {
+        long start = System.nanoTime();
+        int typeId = types.idOf(event.type());
+        lock.lock();
+        try
+        {
+            partition(typeId).insert(event.timestamp());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        metrics.recordInsert(System.nanoTime() - start);
+    }
+
+    /* Stores a batch of events under a single acquisition of the lock.
+     * Timestamps are grouped by type id and sorted before taking it, so
+     * a batch newer than what is stored becomes a run of O(1) appends,
+     * and older timestamps are placed in ascending order.
+     */
+    @Override
+    public void insertAll(Collection<Event> events)
+    {
+        long start = System.nanoTime();
+        int[] typeIds = new int[events.size()];
+        int maxTypeId = -1;
+        int index = 0;
+        for (Event event : events)
+        {
+            typeIds[index] = types.idOf(event.type());
+            maxTypeId = Math.max(maxTypeId, typeIds[index]);
+            index++;
+        }
+        int[] counts = new int[maxTypeId + 1];
+        for (int typeId : typeIds)
+        {
+            counts[typeId]++;
+        }
+        long[][] batches = new long[counts.length][];
+        index = 0;
+        for (Event event : events)
+        {
+            int typeId = typeIds[index++];
+            if (batches[typeId] == null)
+            {
+                batches[typeId] = new long[counts[typeId]];
+                counts[typeId] = 0;
+            }
+            batches[typeId][counts[typeId]++] = event.timestamp();
+        }
+
+        lock.lock();
+        try
+        {
+            for (int typeId = 0; typeId < batches.length; typeId++)
+            {
+                long[] batch = batches[typeId];
+                if (batch == null)
+                {
+                    continue;
+                }
+                Arrays.sort(batch);
+                ColumnarPartition partition = partition(typeId);
+                for (long timestamp : batch)
+                {
+                    partition.insert(timestamp);
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        metrics.recordInsertAll(events.size(), System.nanoTime() - start);
+    }
+
+    /* Drops the partition of the given type, giving its chunks back to
+     * the storage for reuse. Iterators still open over that partition stop
+     * at their next fetch.
+     */
+    @Override
+    public void removeAll(String type)
+    {
+        long start = System.nanoTime();
+        int typeId = types.find(type);
+        long removed = 0;
+        if (typeId >= 0)
+        {
+            lock.lock();
+            try
+            {
+                if (typeId < partitions.length && partitions[typeId] != null)
+                {
+                    removed = partitions[typeId].size();
+                    partitions[typeId].release();
+                    partitions[typeId] = null;
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        metrics.recordRemoveAll(removed, System.nanoTime() - start);
+    }
+
+    /* Returns a lazy iterator over the [startTime, endTime) range of the
+     * partition of the given type, in timestamp order.
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime)
+    {
+        long start = System.nanoTime();
+        int typeId = types.find(type);
+        ColumnarPartition partition = null;
+        if (typeId >= 0)
+        {
+            lock.lock();
+            try
+            {
+                partition = typeId < partitions.length ? partitions[typeId] : null;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        String interned = typeId >= 0 ? types.nameOf(typeId) : type;
+        EventIterator iterator = new ColumnarEventIteratorClass(lock, metrics, partition, interned, startTime, endTime);
+        metrics.recordQuery(System.nanoTime() - start);
+        return iterator;
+    }
+
+    /* Returns the partition of the given type id, creating it if needed.
+     * Must be called while holding the store lock.
+     */
+    private ColumnarPartition partition(int typeId)
+    {
+        if (typeId >= partitions.length)
+        {
+            partitions = Arrays.copyOf(partitions, Math.max(typeId + 1, partitions.length * 2));
+        }
+        ColumnarPartition partition = partitions[typeId];
+        if (partition == null)
+        {
+            partition = new ColumnarPartition(storage, hotChunks);
+            partitions[typeId] = partition;
+        }
+        return partition;
+    }
+
+    /* Returns the number of events currently held by the store */
+    public long size()
+    {
+        lock.lock();
+        try
+        {
+            long size = 0;
+            for (ColumnarPartition partition : partitions)
+            {
+                if (partition != null)
+                {
+                    size += partition.size();
+                }
+            }
+            return size;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Returns the number of chunks currently sealed, over all types */
+    public long sealedChunkCount()
+    {
+        lock.lock();
+        try
+        {
+            long count = 0;
+            for (ColumnarPartition partition : partitions)
+            {
+                if (partition != null)
+                {
+                    count += partition.sealedChunkCount();
+                }
+            }
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Returns the metrics of this store, see EventStoreClass.metrics */
+    public EventStoreMetrics metrics()
+    {
+        return metrics;
+    }
+}
@@ -0,0 +1,426 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+
+/*
+ * Timestamps of all the events of a single type, stored as primitive
+ * longs in fixed size chunks kept ordered by timestamp.
+ * There is no per-event object: an event is just 8 bytes in a chunk,
+ * its type being implied by the partition. Events of the same type and
+ * timestamp are indistinguishable, so they are simply repeated values.
+ * Chunks bound the cost of out of order inserts and removals to moving
+ * at most one chunk worth of values; a full chunk is split in two halves
+ * before receiving an out of order value, like a B+ tree leaf.
+ * Chunks live in a ChunkStorage, which may be shared by all partitions of
+ * a store, and are referred to by their int handles.
+ * Only the newest hotChunks chunks are kept in that mutable form: every
+ * time a chunk is appended, the chunk falling out of that window is sealed
+ * into a CompressedChunk and its storage chunk is freed. Old data is then
+ * held at a fraction of the size, while appends never touch it. Sealed
+ * chunks keep their place in the chunk list, and are unsealed again when
+ * an out of order insert or a removal lands on them. Every
+ * RESEAL_INTERVAL such modifications, a compaction pass seals again the
+ * chunks out of the hot window that were unsealed, so compression is not
+ * lost to churn; a chunk modified again meanwhile is just unsealed again.
+ * This class is not thread safe, the owning store is responsible for
+ * guarding every access.
+ */
+class ColumnarPartition
+{
+    static final int CHUNK_CAPACITY = 1024;
+
+    /* Out of order inserts and removals between two compaction passes */
+    private static final int RESEAL_INTERVAL = 256;
+
+    private final ChunkStorage storage;
+    private final int hotChunks;
+    private int[] chunks = new int[4];
+    private int[] chunkSizes = new int[4];
+
+    /* Compressed form of sealed chunks, null for the hot ones, whose
+     * handle is then in chunks.
+     */
+    private CompressedChunk[] sealed = new CompressedChunk[4];
+    private int chunkCount = 0;
+    private long size = 0;
+    private int modificationsSinceReseal = 0;
+
+    /* Incremented every time values change position, so iterators know
+     * when their (chunk, offset) position must be looked up again.
+     * Appends do not move any value and leave it untouched.
+     */
+    private int layoutVersion = 0;
+
+    /* Set once the partition is dropped by removeAll, after which
+     * iterators still holding it must stop.
+     */
+    private boolean released = false;
+
+    /* Creates a partition that never seals its chunks */
+    ColumnarPartition(ChunkStorage storage)
+    {
+        this(storage, Integer.MAX_VALUE);
+    }
+
+    /* Creates a partition sealing all but its newest hotChunks chunks,
+     * which must be at least one.
+     */
+    ColumnarPartition(ChunkStorage storage, int hotChunks)
+    {
+        if (hotChunks < 1)
+        {
+            throw new IllegalArgumentException("At least one chunk must be kept hot, got " + hotChunks);
+        }
+        this.storage = storage;
+        this.hotChunks = hotChunks;
+    }
+
+    /* Adds a timestamp after every equal or lower one.
+     * In order timestamps are appended to the last chunk in O(1).
+     */
+    void insert(long timestamp)
+    {
+        int chunk = chunkCount - 1;
+        if (chunk < 0 || timestamp >= lastOf(chunk))
+        {
+            if (chunk < 0 || chunkSizes[chunk] == CHUNK_CAPACITY)
+            {
+                chunk++;
+                addChunk(chunk);
+                if (chunk - hotChunks >= 0 && sealed[chunk - hotChunks] == null)
+                {
+                    seal(chunk - hotChunks);
+                }
+            }
+            storage.set(chunks[chunk], chunkSizes[chunk]++, timestamp);
+            size++;
+            return;
+        }
+
+        chunk = firstChunkWithLastAbove(timestamp);
+        unseal(chunk);
+        int offset = upperBoundIn(chunk, timestamp);
+        if (chunkSizes[chunk] == CHUNK_CAPACITY)
+        {
+            split(chunk);
+            if (offset > chunkSizes[chunk])
+            {
+                offset -= chunkSizes[chunk];
+                chunk++;
+            }
+        }
+        storage.copy(chunks[chunk], offset, chunks[chunk], offset + 1, chunkSizes[chunk] - offset);
+        storage.set(chunks[chunk], offset, timestamp);
+        chunkSizes[chunk]++;
+        size++;
+        layoutVersion++;
+        modified();
+    }
+
+    /* Removes one occurrence of the given timestamp.
+     * Returns false if there is none.
+     */
+    boolean removeOne(long timestamp)
+    {
+        int chunk = firstChunkWithLastAtLeast(timestamp);
+        if (chunk == chunkCount)
+        {
+            return false;
+        }
+        int offset = lowerBoundIn(chunk, timestamp);
+        if (timestampAt(chunk, offset) != timestamp)
+        {
+            return false;
+        }
+        unseal(chunk);
+        storage.copy(chunks[chunk], offset + 1, chunks[chunk], offset, chunkSizes[chunk] - offset - 1);
+        chunkSizes[chunk]--;
+        if (chunkSizes[chunk] == 0)
+        {
+            removeChunk(chunk);
+        }
+        size--;
+        layoutVersion++;
+        modified();
+        return true;
+    }
+
+    /* Marks the partition as dropped and gives all its chunks back
+     * to the storage.
+     */
+    void release()
+    {
+        released = true;
+        for (int chunk = 0; chunk < chunkCount; chunk++)
+        {
+            if (sealed[chunk] == null)
+            {
+                storage.free(chunks[chunk]);
+            }
+            sealed[chunk] = null;
+        }
+        chunkCount = 0;
+        size = 0;
+    }
+
+    boolean isReleased()
+    {
+        return released;
+    }
+
+    /* Returns the first chunk whose last value is greater than or equal
+     * to the given timestamp, or chunkCount if there is none. Together
+     * with lowerBound inside that chunk it locates the first value not
+     * lower than the timestamp.
+     */
+    int firstChunkWithLastAtLeast(long timestamp)
+    {
+        int low = 0;
+        int high = chunkCount;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (lastOf(middle) < timestamp)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /* Returns the first chunk whose last value is strictly greater than
+     * the given timestamp, or chunkCount if there is none.
+     */
+    private int firstChunkWithLastAbove(long timestamp)
+    {
+        int low = 0;
+        int high = chunkCount;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (lastOf(middle) <= timestamp)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /* Index of the first value of the chunk not lower than the timestamp */
+    int lowerBoundIn(int chunk, long timestamp)
+    {
+        if (sealed[chunk] != null)
+        {
+            return sealed[chunk].lowerBound(timestamp);
+        }
+        int handle = chunks[chunk];
+        int low = 0;
+        int high = chunkSizes[chunk];
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (storage.get(handle, middle) < timestamp)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /* Index of the first value of the chunk greater than the timestamp.
+     * The chunk must be hot.
+     */
+    private int upperBoundIn(int chunk, long timestamp)
+    {
+        int handle = chunks[chunk];
+        int low = 0;
+        int high = chunkSizes[chunk];
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (storage.get(handle, middle) <= timestamp)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /* Returns a single value; on a sealed chunk this decodes the values
+     * before it, so walking a chunk should go through decode instead.
+     */
+    long timestampAt(int chunk, int offset)
+    {
+        if (sealed[chunk] != null)
+        {
+            return sealed[chunk].get(offset);
+        }
+        return storage.get(chunks[chunk], offset);
+    }
+
+    boolean isSealed(int chunk)
+    {
+        return sealed[chunk] != null;
+    }
+
+    /* Decodes every value of a sealed chunk into the target, which must
+     * hold CHUNK_CAPACITY values.
+     */
+    void decode(int chunk, long[] target)
+    {
+        sealed[chunk].decode(target);
+    }
+
+    /* Number of chunks currently sealed */
+    int sealedChunkCount()
+    {
+        int count = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++)
+        {
+            if (sealed[chunk] != null)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int chunkSize(int chunk)
+    {
+        return chunkSizes[chunk];
+    }
+
+    int chunkCount()
+    {
+        return chunkCount;
+    }
+
+    long size()
+    {
+        return size;
+    }
+
+    int layoutVersion()
+    {
+        return layoutVersion;
+    }
+
+    /* Estimated bytes held by the partition: its hot chunks at full
+     * capacity, wherever the storage keeps them, its sealed chunks, plus
+     * the handle, size and sealed chunk arrays.
+     */
+    long memoryEstimate()
+    {
+        long estimate = 2 * (16L + chunks.length * 4L) + 16L + sealed.length * 4L;
+        for (int chunk = 0; chunk < chunkCount; chunk++)
+        {
+            estimate += sealed[chunk] != null ? sealed[chunk].memoryEstimate() : CHUNK_CAPACITY * 8L;
+        }
+        return estimate;
+    }
+
+    private long lastOf(int chunk)
+    {
+        if (sealed[chunk] != null)
+        {
+            return sealed[chunk].last();
+        }
+        return storage.get(chunks[chunk], chunkSizes[chunk] - 1);
+    }
+
+    /* Replaces a hot chunk by its compressed form, freeing its storage.
+     * Values keep their (chunk, offset) position, so the layout version
+     * is left untouched.
+     */
+    private void seal(int chunk)
+    {
+        sealed[chunk] = CompressedChunk.encode(storage, chunks[chunk], chunkSizes[chunk]);
+        storage.free(chunks[chunk]);
+        chunks[chunk] = -1;
+    }
+
+    /* Counts an out of order insert or a removal, running a compaction
+     * pass every RESEAL_INTERVAL of them.
+     */
+    private void modified()
+    {
+        if (++modificationsSinceReseal < RESEAL_INTERVAL)
+        {
+            return;
+        }
+        modificationsSinceReseal = 0;
+        for (int chunk = 0; chunk < chunkCount - hotChunks; chunk++)
+        {
+            if (sealed[chunk] == null)
+            {
+                seal(chunk);
+            }
+        }
+    }
+
+    /* Decodes a sealed chunk back into a storage chunk, so it can be
+     * modified. Does nothing on a hot chunk.
+     */
+    private void unseal(int chunk)
+    {
+        if (sealed[chunk] != null)
+        {
+            chunks[chunk] = storage.allocate();
+            sealed[chunk].decode(storage, chunks[chunk]);
+            sealed[chunk] = null;
+        }
+    }
+
+    /* Moves the upper half of a full chunk into a new chunk right after it */
+    private void split(int chunk)
+    {
+        addChunk(chunk + 1);
+        int half = CHUNK_CAPACITY / 2;
+        storage.copy(chunks[chunk], half, chunks[chunk + 1], 0, CHUNK_CAPACITY - half);
+        chunkSizes[chunk + 1] = CHUNK_CAPACITY - half;
+        chunkSizes[chunk] = half;
+    }
+
+    private void addChunk(int chunk)
+    {
+        if (chunkCount == chunks.length)
+        {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            chunkSizes = Arrays.copyOf(chunkSizes, chunkCount * 2);
+            sealed = Arrays.copyOf(sealed, chunkCount * 2);
+        }
+        System.arraycopy(chunks, chunk, chunks, chunk + 1, chunkCount - chunk);
+        System.arraycopy(chunkSizes, chunk, chunkSizes, chunk + 1, chunkCount - chunk);
+        System.arraycopy(sealed, chunk, sealed, chunk + 1, chunkCount - chunk);
+        chunks[chunk] = storage.allocate();
+        chunkSizes[chunk] = 0;
+        sealed[chunk] = null;
+        chunkCount++;
+    }
+
+    private void removeChunk(int chunk)
+    {
+        storage.free(chunks[chunk]);
+        System.arraycopy(chunks, chunk + 1, chunks, chunk, chunkCount - chunk - 1);
+        System.arraycopy(chunkSizes, chunk + 1, chunkSizes, chunk, chunkCount - chunk - 1);
+        System.arraycopy(sealed, chunk + 1, sealed, chunk, chunkCount - chunk - 1);
+        chunkCount--;
+        sealed[chunkCount] = null;
+    }
+}
@@ -0,0 +1,198 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+
+/*
+ * Immutable, compressed copy of a chunk of sorted timestamps, used by
+ * ColumnarPartition for chunks that are no longer receiving appends.
+ * Timestamps are stored as delta of deltas, zigzag and varint encoded:
+ * events arriving at a steady rate have near constant deltas, so most
+ * timestamps take a single byte instead of eight. The first and last
+ * timestamps and the count are kept decoded as the block header, which is
+ * all binary searches over chunks look at, so blocks outside a queried
+ * range are skipped without decoding them.
+ * Values can only be read sequentially; iterators decode a whole block
+ * at once into a buffer of their own, and single values are decoded in
+ * place by walking the block up to them, without allocating.
+ */
+final class CompressedChunk
+{
+    private final long first;
+    private final long last;
+    private final int count;
+    private final byte[] data;
+
+    private CompressedChunk(long first, long last, int count, byte[] data)
+    {
+        this.first = first;
+        this.last = last;
+        this.count = count;
+        this.data = data;
+    }
+
+    /* Encodes the first count values of the given chunk of the storage */
+    static CompressedChunk encode(ChunkStorage storage, int handle, int count)
+    {
+        byte[] data = new byte[count * 2 + 16];
+        int position = 0;
+        long previous = storage.get(handle, 0);
+        long previousDelta = 0;
+        for (int offset = 1; offset < count; offset++)
+        {
+            long value = storage.get(handle, offset);
+            long delta = value - previous;
+            long deltaOfDelta = delta - previousDelta;
+            if (position + 10 > data.length)
+            {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            long zigzag = (deltaOfDelta << 1) ^ (deltaOfDelta >> 63);
+            while ((zigzag & ~0x7FL) != 0)
+            {
+                data[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            data[position++] = (byte) zigzag;
+            previous = value;
+            previousDelta = delta;
+        }
+        return new CompressedChunk(storage.get(handle, 0), previous, count, Arrays.copyOf(data, position));
+    }
+
+    /* Decodes every value into the target, which must hold count values */
+    void decode(long[] target)
+    {
+        decode(target, count);
+    }
+
+    /* Writes the values back to a chunk of the storage */
+    void decode(ChunkStorage storage, int handle)
+    {
+        long value = first;
+        long delta = 0;
+        int position = 0;
+        storage.set(handle, 0, value);
+        for (int offset = 1; offset < count; offset++)
+        {
+            long deltaOfDelta = deltaOfDeltaAt(position);
+            position += encodedLength(deltaOfDelta);
+            delta += deltaOfDelta;
+            value += delta;
+            storage.set(handle, offset, value);
+        }
+    }
+
+    /* Returns the value at the given offset, decoding the values before it */
+    long get(int offset)
+    {
+        if (offset == 0)
+        {
+            return first;
+        }
+        if (offset == count - 1)
+        {
+            return last;
+        }
+        long value = first;
+        long delta = 0;
+        int position = 0;
+        for (int index = 1; index <= offset; index++)
+        {
+            long deltaOfDelta = deltaOfDeltaAt(position);
+            position += encodedLength(deltaOfDelta);
+            delta += deltaOfDelta;
+            value += delta;
+        }
+        return value;
+    }
+
+    /* Index of the first value not lower than the timestamp, decoding
+     * only up to it.
+     */
+    int lowerBound(long timestamp)
+    {
+        if (timestamp <= first)
+        {
+            return 0;
+        }
+        if (timestamp > last)
+        {
+            return count;
+        }
+        long value = first;
+        long delta = 0;
+        int position = 0;
+        for (int offset = 1; offset < count; offset++)
+        {
+            long deltaOfDelta = deltaOfDeltaAt(position);
+            position += encodedLength(deltaOfDelta);
+            delta += deltaOfDelta;
+            value += delta;
+            if (value >= timestamp)
+            {
+                return offset;
+            }
+        }
+        return count;
+    }
+
+    long first()
+    {
+        return first;
+    }
+
+    long last()
+    {
+        return last;
+    }
+
+    int count()
+    {
+        return count;
+    }
+
+    /* Estimated bytes held by the block, header and array included */
+    long memoryEstimate()
+    {
+        return 40 + 16 + data.length;
+    }
+
+    /* Reads the delta of delta encoded at the given position of the data */
+    private long deltaOfDeltaAt(int position)
+    {
+        long zigzag = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = data[position++];
+            zigzag |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while (b < 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /* Number of bytes encode writes for the given delta of delta */
+    private static int encodedLength(long deltaOfDelta)
+    {
+        long zigzag = (deltaOfDelta << 1) ^ (deltaOfDelta >> 63);
+        return Math.max(1, (70 - Long.numberOfLeadingZeros(zigzag)) / 7);
+    }
+
+    private void decode(long[] target, int limit)
+    {
+        long value = first;
+        long delta = 0;
+        int position = 0;
+        target[0] = value;
+        for (int offset = 1; offset < limit; offset++)
+        {
+            long deltaOfDelta = deltaOfDeltaAt(position);
+            position += encodedLength(deltaOfDelta);
+            delta += deltaOfDelta;
+            value += delta;
+            target[offset] = value;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.intelie.challenges;
+
+import java.util.Iterator;
+import java.util.NavigableSet;
+
+public class ConcurrentEventIteratorClass implements EventIterator
+{
+    /* Range of a partition skip list being iterated, along with
+     * the skip list iterator and the entry it last returned.
+     */
+    private NavigableSet<SequencedEvent> range;
+    private Iterator<SequencedEvent> iterator;
+    private SequencedEvent currentEntry = null;
+
+    /* Constructor of ConcurrentEventIteratorClass, it takes the
+     * view of the skip list holding the queried range.
+     * The view is only traversed when moveNext is called.
+     */
+    ConcurrentEventIteratorClass(NavigableSet<SequencedEvent> range)
+    {
+        this.range = range;
+        this.iterator = range.iterator();
+    }
+
+    /* Advances to the next entry of the skip list view.
+     * Returns false once the view is exhausted or the iterator closed.
+     */
+    @Override
+    public boolean moveNext()
+    {
+        if (iterator != null && iterator.hasNext())
+        {
+            currentEntry = iterator.next();
+            return true;
+        }
+        currentEntry = null;
+        return false;
+    }
+
+    /* Returns the event pointed by the last successful moveNext call,
+     * or throws IllegalStateException when there is none.
+     */
+    @Override
+    public Event current()
+    {
+        if (currentEntry == null)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        return currentEntry.event;
+    }
+
+    /* Removes the current event from the skip list in O(log n).
+     * The entry is unlinked from the store itself, not from a copy,
+     * and concurrent inserts or queries on the same type are not blocked.
+     */
+    @Override
+    public void remove()
+    {
+        if (currentEntry == null)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        range.remove(currentEntry);
+        currentEntry = null;
+    }
+
+    /* Releases the references to the skip list view */
+    @Override
+    public void close()
+    {
+        range = null;
+        iterator = null;
+        currentEntry = null;
+    }
+}
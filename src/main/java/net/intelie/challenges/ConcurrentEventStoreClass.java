@@ -0,0 +1,94 @@
+package net.intelie.challenges;
+
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConcurrentEventStoreClass implements EventStore
+{
+    /*
+     * Lock free alternative to EventStoreClass.
+     * Events are partitioned by type in a ConcurrentHashMap, and every
+     * partition is a ConcurrentSkipListSet ordered by timestamp, with a
+     * per-type sequence number as tiebreaker for equal timestamps.
+     * None of these structures block: inserts, removals and queries on
+     * different types never touch the same memory, and even on the same
+     * type the skip list only needs CAS operations on the nodes being
+     * linked or unlinked, so throughput scales with the writer threads.
+     * The sequence counter lives in the partition rather than in the
+     * store, so writers of different types do not contend on it.
+     */
+    private final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<String, Partition>();
+
+    /* Stores the event in the skip list of its type, creating the
+     * partition on the first event of that type.
+     * An insert racing with removeAll of the same type may land on the
+     * partition being dropped; that is equivalent to the insert
+     * happening just before the removeAll, as both calls overlap.
+     */
+    @Override
+    public void insert(Event event)
+    {
+        Partition partition = partitions.get(event.type());
+        if (partition == null)
+        {
+            partition = partitions.computeIfAbsent(event.type(), type -> new Partition());
+        }
+        partition.events.add(new SequencedEvent(event.timestamp(), partition.sequence.getAndIncrement(), event));
+    }
+
+    /* Drops the whole partition of the given type in O(1).
+     * Iterators already open over that partition keep walking the
+     * detached skip list and will not see later inserts.
+     */
+    @Override
+    public void removeAll(String type)
+    {
+        partitions.remove(type);
+    }
+
+    /* Returns a lazy iterator over the [startTime, endTime) view of the
+     * partition skip list. Nothing is copied: the iterator walks the
+     * skip list nodes directly, and it is weakly consistent, meaning it
+     * reflects some of the inserts and removals made while iterating
+     * and never throws ConcurrentModificationException.
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime)
+    {
+        Partition partition = partitions.get(type);
+        if (partition == null || startTime >= endTime)
+        {
+            return new ConcurrentEventIteratorClass(Collections.<SequencedEvent>emptyNavigableSet());
+        }
+        NavigableSet<SequencedEvent> range = partition.events.subSet(
+            SequencedEvent.bound(startTime), true, SequencedEvent.bound(endTime), false);
+        return new ConcurrentEventIteratorClass(range);
+    }
+
+    /* Returns the number of events currently held by the store.
+     * Skip lists do not keep a size counter, so this traverses every
+     * partition and is meant for diagnostics and tests only.
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Partition partition : partitions.values())
+        {
+            size += partition.events.size();
+        }
+        return size;
+    }
+
+    /* Events of a single type along with the sequence generator
+     * used as tiebreaker for equal timestamps.
+     */
+    private static final class Partition
+    {
+        final ConcurrentSkipListSet<SequencedEvent> events = new ConcurrentSkipListSet<SequencedEvent>();
+        final AtomicLong sequence = new AtomicLong();
+    }
+}
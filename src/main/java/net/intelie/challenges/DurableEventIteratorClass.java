@@ -0,0 +1,40 @@
+package net.intelie.challenges;
+
+public class DurableEventIteratorClass implements EventIterator
+{
+    /* Iterator of a DurableEventStoreClass: walks the iterator of the
+     * wrapped store, and has the durable store log every removal.
+     */
+    private final DurableEventStoreClass store;
+    private final EventIterator iterator;
+
+    DurableEventIteratorClass(DurableEventStoreClass store, EventIterator iterator)
+    {
+        this.store = store;
+        this.iterator = iterator;
+    }
+
+    @Override
+    public boolean moveNext()
+    {
+        return iterator.moveNext();
+    }
+
+    @Override
+    public Event current()
+    {
+        return iterator.current();
+    }
+
+    @Override
+    public void remove()
+    {
+        store.remove(iterator);
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        iterator.close();
+    }
+}
@@ -0,0 +1,482 @@
+package net.intelie.challenges;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DurableEventStoreClass implements EventStore, Closeable
+{
+    /* Number of logged inserts handed to insertAll at once on replay */
+    private static final int REPLAY_BATCH_SIZE = 1 << 14;
+
+    /* When a write is considered done, trading latency for durability.
+     * PER_OPERATION writes return once their record is forced to disk,
+     * concurrent writers sharing a single force (group commit).
+     * PERIODIC writes return right away, and a background thread writes
+     * and forces the log every syncIntervalMillis, so a crash loses at
+     * most that much of the latest writes.
+     * ASYNC writes return right away as well; the log is written out
+     * whenever its buffer is flushed by close or flush, or grows past
+     * the batch size, and forced only on close or flush, leaving the rest
+     * to the operating system.
+     */
+    public enum SyncPolicy
+    {
+        PER_OPERATION,
+        PERIODIC,
+        ASYNC
+    }
+
+    /* Default interval of the PERIODIC sync policy */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+
+    /* Buffered bytes past which ASYNC writes hand the log to the OS */
+    private static final long ASYNC_WRITE_BYTES = 1 << 16;
+
+    /* Number of records checkpoint appends between two writes of the log */
+    private static final int CHECKPOINT_BATCH_SIZE = 1 << 12;
+
+    /*
+     * Decorator making any in-memory EventStore durable with a write-ahead
+     * log. Every insert, removeAll and iterator remove is recorded in the
+     * log (see WriteAheadLog), committed as the sync policy requires, and
+     * only then applied to the wrapped store, so a write failing to reach
+     * the log throws UncheckedIOException and is never seen by readers.
+     * Opening the store replays the log into the wrapped store, which
+     * must be empty. Replay hands consecutive inserts to insertAll in large
+     * batches, so it costs about as much as bulk loading the events.
+     * Inserts may be applied and logged concurrently, in any order, as
+     * replaying them in any order gives the same events back; removeAll
+     * must not be reordered with the inserts of its type, so it excludes
+     * every other write while it is logged and applied. A removal is
+     * logged as removing one event of its type and timestamp, events with
+     * equal type and timestamp being indistinguishable once replayed.
+     * The wrapped iterator may not remove anything, when its event was
+     * already removed or dropped by a removeAll, and the logged removal
+     * would then take some other live event on replay. So removals also
+     * exclude every other write, and one that left the number of events
+     * of its type and timestamp unchanged is compensated right away by
+     * logging an insert of an equal event.
+     * The log grows with every write until checkpoint rewrites it with
+     * just the events of the wrapped store. The types with events are
+     * tracked to that end, with how many of their events have timestamp
+     * Long.MAX_VALUE, which no query range can reach. Reads are handed to
+     * the wrapped store as they are, aggregations included.
+     */
+    private final EventStore store;
+    private final File logFile;
+    private final Map<String, LongAdder> types = new ConcurrentHashMap<String, LongAdder>();
+    /* Replaced by checkpoint while holding the write lock of orderLock */
+    private volatile WriteAheadLog log;
+    private final SyncPolicy syncPolicy;
+    private final ReentrantReadWriteLock orderLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService syncer;
+    private volatile long lastSyncedSize = 0;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DurableEventStoreClass.class);
+
+    /* Opens the log in the given file with the PER_OPERATION policy,
+     * replaying it into the given empty store.
+     */
+    public DurableEventStoreClass(EventStore store, File logFile) throws IOException
+    {
+        this(store, logFile, SyncPolicy.PER_OPERATION, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    /* Opens the log in the given file with the given policy, replaying it
+     * into the given empty store. The interval is only used by PERIODIC.
+     */
+    public DurableEventStoreClass(EventStore store, File logFile, SyncPolicy syncPolicy, long syncIntervalMillis) throws IOException
+    {
+        if (syncPolicy == SyncPolicy.PERIODIC && syncIntervalMillis <= 0)
+        {
+            throw new IllegalArgumentException("Sync interval must be positive, got " + syncIntervalMillis);
+        }
+        this.store = store;
+        this.logFile = logFile;
+        this.syncPolicy = syncPolicy;
+
+        long start = System.nanoTime();
+        final List<Event> inserts = new ArrayList<Event>();
+        final long[] replayed = new long[1];
+        this.log = new WriteAheadLog(logFile, (operation, type, timestamp) -> {
+            replayed[0]++;
+            if (operation == WriteAheadLog.INSERT)
+            {
+                track(type, timestamp);
+                inserts.add(new Event(type, timestamp));
+                if (inserts.size() == REPLAY_BATCH_SIZE)
+                {
+                    store.insertAll(inserts);
+                    inserts.clear();
+                }
+                return;
+            }
+            store.insertAll(inserts);
+            inserts.clear();
+            if (operation == WriteAheadLog.REMOVE_ALL)
+            {
+                types.remove(type);
+                store.removeAll(type);
+            }
+            else if (operation == WriteAheadLog.REMOVE)
+            {
+                removeOne(type, timestamp);
+            }
+        });
+        store.insertAll(inserts);
+        if (LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("Replayed {} operations from {} in {} ms", replayed[0], logFile, (System.nanoTime() - start) / 1000000);
+        }
+
+        if (syncPolicy == SyncPolicy.PERIODIC)
+        {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-store-wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            syncer = null;
+        }
+    }
+
+    @Override
+    public void insert(Event event)
+    {
+        orderLock.readLock().lock();
+        try
+        {
+            commit(append(WriteAheadLog.INSERT, event.type(), event.timestamp()));
+            track(event.type(), event.timestamp());
+            store.insert(event);
+        }
+        finally
+        {
+            orderLock.readLock().unlock();
+        }
+    }
+
+    /* Waits for durability once for the whole batch, then applies it to
+     * the wrapped store with its own insertAll.
+     */
+    @Override
+    public void insertAll(Collection<Event> events)
+    {
+        orderLock.readLock().lock();
+        try
+        {
+            long position = 0;
+            for (Event event : events)
+            {
+                position = append(WriteAheadLog.INSERT, event.type(), event.timestamp());
+            }
+            if (position == 0)
+            {
+                return;
+            }
+            commit(position);
+            for (Event event : events)
+            {
+                track(event.type(), event.timestamp());
+            }
+            store.insertAll(events);
+        }
+        finally
+        {
+            orderLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(String type)
+    {
+        orderLock.writeLock().lock();
+        try
+        {
+            commit(append(WriteAheadLog.REMOVE_ALL, type, 0));
+            types.remove(type);
+            store.removeAll(type);
+        }
+        finally
+        {
+            orderLock.writeLock().unlock();
+        }
+    }
+
+    /* Queries the wrapped store, through an iterator logging removals */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime)
+    {
+        return new DurableEventIteratorClass(this, store.query(type, startTime, endTime));
+    }
+
+    @Override
+    public long count(String type, long startTime, long endTime)
+    {
+        return store.count(type, startTime, endTime);
+    }
+
+    @Override
+    public OptionalLong firstTimestamp(String type, long startTime, long endTime)
+    {
+        return store.firstTimestamp(type, startTime, endTime);
+    }
+
+    @Override
+    public OptionalLong lastTimestamp(String type, long startTime, long endTime)
+    {
+        return store.lastTimestamp(type, startTime, endTime);
+    }
+
+    @Override
+    public long[] histogram(String type, long startTime, long endTime, long interval)
+    {
+        return store.histogram(type, startTime, endTime, interval);
+    }
+
+    /* Writes and forces every logged operation, whatever the policy */
+    public void flush()
+    {
+        orderLock.readLock().lock();
+        try
+        {
+            log.commitAll(true);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        finally
+        {
+            orderLock.readLock().unlock();
+        }
+    }
+
+    /* Returns the size of the log in bytes */
+    public long logSize()
+    {
+        return log.size();
+    }
+
+    /* Rewrites the log with one insert per event of the wrapped store,
+     * dropping the history of removed events. The new log is written to
+     * a temporary file, forced, and moved over the old one, so a crash
+     * leaves either log in place. Every write waits meanwhile.
+     */
+    public void checkpoint() throws IOException
+    {
+        long start = System.nanoTime();
+        File temporary = new File(logFile.getPath() + ".tmp");
+        orderLock.writeLock().lock();
+        try
+        {
+            log.commitAll(true);
+            Files.deleteIfExists(temporary.toPath());
+            WriteAheadLog compacted = new WriteAheadLog(temporary, (operation, type, timestamp) -> { });
+            try
+            {
+                long records = 0;
+                for (Map.Entry<String, LongAdder> type : types.entrySet())
+                {
+                    try (EventIterator iterator = store.query(type.getKey(), Long.MIN_VALUE, Long.MAX_VALUE))
+                    {
+                        while (iterator.moveNext())
+                        {
+                            long position = compacted.append(WriteAheadLog.INSERT, type.getKey(), iterator.current().timestamp());
+                            if (++records % CHECKPOINT_BATCH_SIZE == 0)
+                            {
+                                compacted.commit(position, false);
+                            }
+                        }
+                    }
+                    for (long i = type.getValue().sum(); i > 0; i--)
+                    {
+                        compacted.append(WriteAheadLog.INSERT, type.getKey(), Long.MAX_VALUE);
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                compacted.close();
+                Files.deleteIfExists(temporary.toPath());
+                throw e instanceof IOException ? (IOException) e : new IOException("Could not checkpoint " + logFile, e);
+            }
+            compacted.close();
+            Files.move(temporary.toPath(), logFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            WriteAheadLog previous = log;
+            log = new WriteAheadLog(logFile, (operation, type, timestamp) -> { });
+            lastSyncedSize = 0;
+            previous.close();
+        }
+        finally
+        {
+            orderLock.writeLock().unlock();
+        }
+        if (LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("Checkpointed {} to {} bytes in {} ms", logFile, log.size(), (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    /* Stops the periodic sync, then forces and closes the log.
+     * The wrapped store is left untouched.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (syncer != null)
+        {
+            syncer.shutdown();
+            try
+            {
+                syncer.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        orderLock.writeLock().lock();
+        try
+        {
+            log.close();
+        }
+        finally
+        {
+            orderLock.writeLock().unlock();
+        }
+    }
+
+    /* Logs the removal of the current event of the iterator, then
+     * removes it from the wrapped store, logging an insert back if that
+     * removed nothing. Called by DurableEventIteratorClass.
+     */
+    void remove(EventIterator iterator)
+    {
+        Event event = iterator.current();
+        long timestamp = event.timestamp();
+        orderLock.writeLock().lock();
+        try
+        {
+            long before = store.count(event.type(), timestamp, timestamp + 1);
+            commit(append(WriteAheadLog.REMOVE, event.type(), timestamp));
+            iterator.remove();
+            if (store.count(event.type(), timestamp, timestamp + 1) == before)
+            {
+                LOGGER.debug("Removal of {} at {} found no live event, logging it back", event.type(), timestamp);
+                commit(append(WriteAheadLog.INSERT, event.type(), timestamp));
+            }
+        }
+        finally
+        {
+            orderLock.writeLock().unlock();
+        }
+    }
+
+    /* Records that the type has events, counting those at Long.MAX_VALUE */
+    private void track(String type, long timestamp)
+    {
+        LongAdder unreachable = types.computeIfAbsent(type, key -> new LongAdder());
+        if (timestamp == Long.MAX_VALUE)
+        {
+            unreachable.increment();
+        }
+    }
+
+    private long append(byte operation, String type, long timestamp)
+    {
+        try
+        {
+            return log.append(operation, type, timestamp);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* Waits for the record ending at the given position as the sync
+     * policy requires.
+     */
+    private void commit(long position)
+    {
+        try
+        {
+            if (syncPolicy == SyncPolicy.PER_OPERATION)
+            {
+                log.commit(position, true);
+            }
+            else if (syncPolicy == SyncPolicy.ASYNC && position - lastSyncedSize >= ASYNC_WRITE_BYTES)
+            {
+                lastSyncedSize = position;
+                log.commit(position, false);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* Periodic sync task. A failure is kept by the log and reported by
+     * the next write, so it is only logged here.
+     */
+    private void sync()
+    {
+        orderLock.readLock().lock();
+        try
+        {
+            log.commitAll(true);
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("Could not sync the write ahead log", e);
+        }
+        finally
+        {
+            orderLock.readLock().unlock();
+        }
+    }
+
+    /* Replays a logged iterator removal */
+    private void removeOne(String type, long timestamp)
+    {
+        if (timestamp == Long.MAX_VALUE)
+        {
+            return;
+        }
+        try (EventIterator iterator = store.query(type, timestamp, timestamp + 1))
+        {
+            if (iterator.moveNext())
+            {
+                iterator.remove();
+            }
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Could not replay removal of " + type + " at " + timestamp, e);
+        }
+    }
+}
@@ -1,102 +1,234 @@
 package net.intelie.challenges;
 
-import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class EventIteratorClass implements EventIterator
+public class EventIteratorClass implements SeekableEventIterator
 {
-    /* Declaring list for traversing through events 
-     * following the same delaration as done 
-     * for data structire in EventStoreClass 
+    /* Number of events fetched from the partition every time
+     * the store lock is taken.
      */
-    public List<Event> eventList = null;
-    public Integer indexVariable = -1;
-    public Event currentEvent = null;
+    private static final int WINDOW_SIZE = 64;
+
+    /* Cursor over the [startTime, endTime) range of a partition.
+     * Nothing is copied up front: events are fetched lazily in small
+     * windows, each one under a single acquisition of the store lock,
+     * so the lock is not taken for every moveNext and the iterator
+     * allocates the same fixed window no matter how many events match.
+     * nextIndex is the partition index of the next event to fetch, and
+     * it is only trusted while the partition layout version is the one
+     * it was computed against; otherwise it is looked up again right
+     * after the last fetched event.
+     * The partition slot of every fetched event is kept alongside it,
+     * which is the handle remove uses to delete the current event from
+     * the store in O(1), falling back to an O(log n) search by timestamp
+     * when the event has moved since it was fetched.
+     * The slots walked and events fetched are added to the store metrics
+     * once per window.
+     * Windows are fetched under the read lock of the partition and events
+     * are removed under its write lock, both being the same store lock
+     * for EventStoreClass. When the partition is guarded by a StampedLock,
+     * a window is first fetched without locking at all, under an
+     * optimistic read stamp, and fetched again under the read lock only
+     * if a writer got in the way.
+     * Descending iterators walk the same slots backwards: nextIndex is
+     * then the slot right after the next one to fetch.
+     * seek discards the window and makes the next fetch look the position
+     * up again with a binary search, as for the first fetch. A cursor is
+     * the timestamp of the current event and how many events with that
+     * timestamp were returned so far; resuming seeks to the timestamp and
+     * skips that many events with it.
+     * The partition may have been spilled and paged in again since the
+     * last fetch, replacing every Event instance (see EventPartition).
+     * The position is then looked up by value instead, from the timestamp
+     * of the last fetched event and the length of the run of fetched
+     * events sharing it.
+     */
+    private final Lock readLock;
+    private final Lock writeLock;
+    private final StampedLock optimisticLock;
+    private final EventStoreMetrics metrics;
+    private final boolean descending;
+    private EventPartition source;
+    private EventPartition partition;
+    private final long startTime;
+    private final long endTime;
+    private boolean seeking = false;
+    private long seekTimestamp = 0;
+    private long skipTimestamp = 0;
+    private int skipCount = 0;
+    private int sameTimestampCount = 0;
+    private boolean returned = false;
+    private int nextIndex = 0;
+    private int layoutVersion = 0;
+    private Event lastFetched = null;
+    private int lastFetchedRun = 0;
+    private int fetchGeneration = 0;
+
+    private Event[] window = new Event[WINDOW_SIZE];
+    private int[] windowSlots = new int[WINDOW_SIZE];
+    private int windowSize = 0;
+    private int windowIndex = 0;
+    private Event currentEvent = null;
 
     /* For logging of prints statements in test cases instatiating
-    *  Logger object. Using slf4j for logging and verification of 
+    *  Logger object. Using slf4j for logging and verification of
     *  test cases using the print statements, which can be viewed in
     *  Debug console.
+    *  Every method here runs once per event, so they only log at TRACE
+    *  level, checking it first: nothing is built or allocated unless
+    *  tracing is turned on. Reaching the end of the range is the normal
+    *  way an iteration finishes, so it is not logged as an error.
     */
-    private static Logger LOGGER = LoggerFactory.getLogger(EventIteratorClass.class);
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventIteratorClass.class);
 
-    /* Construcor of EventIteratorClass 
-     * it takes list of events as input argument
-     * that is instatiated to above declared list variable 
-     * in order to iterate over the events
+    /* Constructor of EventIteratorClass, it takes the partition to walk,
+     * the lock guarding it, the metrics of the store and the queried
+     * time range.
+     * A null partition means there are no events of the queried type.
      */
-    public EventIteratorClass(List<Event> inputEventsList)
+    EventIteratorClass(Lock lock, EventStoreMetrics metrics, EventPartition partition, long startTime, long endTime)
+    {
+        this(lock, lock, null, metrics, partition, startTime, endTime, false);
+    }
+
+    /* Same as above, walking the range in the given order */
+    EventIteratorClass(Lock lock, EventStoreMetrics metrics, EventPartition partition, long startTime, long endTime, boolean descending)
     {
-        this.eventList = inputEventsList;
+        this(lock, lock, null, metrics, partition, startTime, endTime, descending);
+    }
+
+    /* Constructor used when reads and writes of the partition are guarded
+     * by different locks. The optimistic lock may be null, otherwise it
+     * is the StampedLock behind the read and write locks.
+     */
+    EventIteratorClass(Lock readLock, Lock writeLock, StampedLock optimisticLock, EventStoreMetrics metrics, EventPartition partition, long startTime, long endTime)
+    {
+        this(readLock, writeLock, optimisticLock, metrics, partition, startTime, endTime, false);
+    }
+
+    EventIteratorClass(Lock readLock, Lock writeLock, StampedLock optimisticLock, EventStoreMetrics metrics, EventPartition partition, long startTime, long endTime, boolean descending)
+    {
+        this.readLock = readLock;
+        this.writeLock = writeLock;
+        this.optimisticLock = optimisticLock;
+        this.metrics = metrics;
+        this.descending = descending;
+        this.source = startTime < endTime ? partition : null;
+        this.partition = this.source;
+        this.startTime = startTime;
+        this.endTime = endTime;
     }
 
     /* Overriding moveNext method from EventIterator Interface.
-     * This function returns boolean value true if moved to move
-     * next element of the list successfully otherwise returns false. 
+     * This function returns boolean value true if moved to the
+     * next event of the range successfully otherwise returns false.
      * This is a mandatory function to be called before calling current
      * and remove function of EventIterator Class.
+     * Events are served from the current window, and a new window is
+     * fetched from the partition once it is consumed. Right after resuming
+     * from a cursor, the events it already returned are skipped.
      */
     @Override
     public boolean moveNext()
     {
-        // If the event list is empty or null then return false
-        if(eventList == null || eventList.isEmpty() )
+        while (advance())
+        {
+            long timestamp = currentEvent.timestamp();
+            if (skipCount > 0 && timestamp == skipTimestamp)
+            {
+                skipCount--;
+                sameTimestampCount++;
+                continue;
+            }
+            skipCount = 0;
+            sameTimestampCount = timestamp == skipTimestamp ? sameTimestampCount + 1 : 1;
+            skipTimestamp = timestamp;
+            returned = true;
+            return true;
+        }
+        return false;
+    }
+
+    /* Moves to the next event of the window, fetching a new one if needed */
+    private boolean advance()
+    {
+        if (windowIndex + 1 < windowSize)
         {
-            LOGGER.error("There are no events in the Event Storage!!!");
-            currentEvent=null;
+            windowIndex++;
+            currentEvent = window[windowIndex];
+            if (LOGGER.isTraceEnabled())
+            {
+                LOGGER.trace("Event Index is moved to : {}", windowIndex);
+            }
+            return true;
+        }
+        if (partition == null)
+        {
+            LOGGER.trace("There are no more events in the range");
+            currentEvent = null;
             return false;
         }
-        else 
+
+        long start = System.nanoTime();
+        int scanned = fetchOptimistically();
+        if (scanned < 0)
         {
-            /* If current index of the event list is less than length of
-            * event list then move to next element and return true
-            */
-            if(indexVariable < (eventList.size()-1))
+            readLock.lock();
+            try
             {
-                indexVariable++;
-                currentEvent = eventList.get(indexVariable);
-                LOGGER.info("Event Index is moved to : " + indexVariable);
-                return true;
+                scanned = fetch();
             }
-            else
+            finally
             {
-                /* current index of event list is equal to lenth of event
-                * list, hence we reached the end of the list return false.
-                */
-                LOGGER.error("We have reached end of the Event Storage. No more events to retrieve!!!");
-                currentEvent = null;
-                return false;
+                readLock.unlock();
             }
         }
+        windowIndex = 0;
+        metrics.recordFetch(scanned, windowSize, System.nanoTime() - start);
+
+        if (windowSize == 0)
+        {
+            /* The range is exhausted, releasing the partition
+             * so that a later moveNext does not fetch again
+             */
+            LOGGER.trace("We have reached end of the range. No more events to retrieve");
+            partition = null;
+            currentEvent = null;
+            return false;
+        }
+        lastFetched = window[windowSize - 1];
+        currentEvent = window[0];
+        if (LOGGER.isTraceEnabled())
+        {
+            LOGGER.trace("Event Index is moved to : {}", windowIndex);
+        }
+        return true;
     }
 
     /* Overriding current method from EventIterator Interface.
-     * This function doesnt take any input arguments, 
-     * returns the event object that holds the event pointed by
-     * current index of event list.
-     * moveNext method should be called before current method
-     * so as to populate currentEvent variable pointing to the event 
-     * present at current index of the event list.
-     * If moveNext is not called before current function, currentEvent 
-     * will be null there by null is returned and exeption will be thrown.
+     * This function doesnt take any input arguments,
+     * returns the event pointed by the last successful moveNext call.
+     * If moveNext is not called before current function, or returned false,
+     * currentEvent is null and exception will be thrown.
      */
     @Override
     public Event current()
     {
-        /* Only when moveNext function is called before current function
-        * currentEvent will be populated, if populated the return the
-        * currentEvent 
-        */
         if(currentEvent != null)
         {
-            LOGGER.info("Current Event : " + currentEvent.type() + " with timestamp : " + currentEvent.timestamp());
+            if (LOGGER.isTraceEnabled())
+            {
+                LOGGER.trace("Current Event : {} with timestamp : {}", currentEvent.type(), currentEvent.timestamp());
+            }
             return currentEvent;
         }
         else
         {
-            /* Exception is raised if moveNext function is not called before 
+            /* Exception is raised if moveNext function is not called before
              * current function, to populate currentEvent.
             */
             throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
@@ -104,34 +236,55 @@ public class EventIteratorClass implements EventIterator
     }
 
     /* Overriding remove method from EventIterator Interface.
-     * This function doesnt take any input arguments and doesnt
-     * return anything.
-     * moveNext method should be called before current method
-     * so as to populate currentEvent variable pointing to the event 
-     * present at current index of the event list, and the current Event
-     * will be removed from the event list.
-     * If moveNext is not called before current function, currentEvent 
+     * Removes the current event from the partition it was read from,
+     * that is, from the store itself, by turning its slot into a tombstone.
+     * If moveNext is not called before remove function, currentEvent
      * will be null there by nothing will be removed and exeption will be thrown.
      */
     @Override
-    public synchronized void remove()
+    public void remove()
     {
-        /* Only when moveNext function is called before current function
-        * currentEvent will be populated, so when currentEvent is populated
-        * and eventList is also not null then only remove the currentEvent
-        * of the event list.
-        */
-        if (eventList != null && currentEvent != null )
+        if (partition != null && currentEvent != null)
         {
-            LOGGER.info("Removing Event : " + currentEvent);
-            eventList.remove(currentEvent);
+            LOGGER.trace("Removing Event : {}", currentEvent);
+            writeLock.lock();
+            try
+            {
+                /* The slot recorded at fetch time is only trusted if it
+                 * still holds this very event instance
+                 */
+                synchronizePosition();
+                int slot = windowSlots[windowIndex];
+                if (slot >= partition.slotCount() || partition.get(slot) != currentEvent)
+                {
+                    slot = partition.indexOf(currentEvent, fetchGeneration);
+                }
+                if (slot >= 0)
+                {
+                    if (currentEvent.timestamp() == lastFetched.timestamp())
+                    {
+                        lastFetchedRun--;
+                    }
+                    partition.removeAt(slot);
+                    nextIndex = partition.compactIfNeeded(nextIndex);
+                    layoutVersion = partition.layoutVersion();
+                    metrics.recordRemove();
+                }
+            }
+            finally
+            {
+                writeLock.unlock();
+            }
             currentEvent = null;
-            indexVariable=indexVariable-1;
-            LOGGER.info("Removed Event successfully!!!");
+            /* The removed event is no longer there to be skipped
+             * when resuming from a cursor
+             */
+            sameTimestampCount--;
+            LOGGER.trace("Removed Event successfully!!!");
         }
         else
         {
-            /* Exception is raised if moveNext function is not called before 
+            /* Exception is raised if moveNext function is not called before
              * current function, to populate currentEvent.
              */
             throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
@@ -139,15 +292,200 @@ public class EventIteratorClass implements EventIterator
     }
 
     /* EventIterator interface is inherting AutoCloseable interface
-     * So explicitly Overriding close() function to clear the list
-     * instatiated in the constructed of this class
+     * So explicitly Overriding close() function to release the
+     * partition and the events held by the window
+     */
+    /* Discards the window, so that the next fetch looks the position up
+     * again from the given timestamp, see SeekableEventIterator.seek.
+     */
+    @Override
+    public void seek(long timestamp)
+    {
+        partition = source;
+        seeking = true;
+        seekTimestamp = timestamp;
+        lastFetched = null;
+        windowSize = 0;
+        windowIndex = 0;
+        currentEvent = null;
+        skipCount = 0;
+        sameTimestampCount = 0;
+        returned = false;
+    }
+
+    @Override
+    public boolean isDescending()
+    {
+        return descending;
+    }
+
+    /* Returns the direction, the timestamp of the current event and how
+     * many events with it were returned, see EventStoreClass.resume.
      */
+    @Override
+    public String cursor()
+    {
+        if (!returned)
+        {
+            return formatCursor(descending, seeking ? seekTimestamp : descending ? Long.MAX_VALUE : Long.MIN_VALUE, 0);
+        }
+        return formatCursor(descending, skipTimestamp, sameTimestampCount);
+    }
+
+    /* Positions a new iterator at a cursor returned by cursor */
+    void resume(String cursor)
+    {
+        String[] fields = cursor.split(":");
+        try
+        {
+            if (fields.length != 3 || !fields[0].equals(descending ? "D" : "A"))
+            {
+                throw new IllegalArgumentException("Not a " + (descending ? "descending" : "ascending") + " cursor: " + cursor);
+            }
+            long timestamp = Long.parseLong(fields[1]);
+            int count = Integer.parseInt(fields[2]);
+            if (count < 0)
+            {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            seek(timestamp);
+            skipTimestamp = timestamp;
+            skipCount = count;
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    private static String formatCursor(boolean descending, long timestamp, int count)
+    {
+        return (descending ? "D:" : "A:") + timestamp + ":" + count;
+    }
+
     @Override
     public void close()
     {
-        /* Clearing the eventList */
-        eventList = null;
-        indexVariable=-1;
+        source = null;
+        partition = null;
+        window = new Event[0];
+        windowSlots = new int[0];
+        windowSize = 0;
+        windowIndex = 0;
+        lastFetched = null;
         currentEvent = null;
     }
-}
\ No newline at end of file
+
+    /* Fetches the next window from the partition, returning the number
+     * of slots walked. Must be called while holding the read lock, or
+     * under an optimistic read stamp.
+     */
+    private int fetch()
+    {
+        synchronizePosition();
+        int scanned;
+        if (descending)
+        {
+            windowSize = partition.fillDescending(nextIndex, startTime, window, windowSlots);
+            if (windowSize == 0)
+            {
+                return 0;
+            }
+            scanned = nextIndex - windowSlots[windowSize - 1];
+            nextIndex = windowSlots[windowSize - 1];
+        }
+        else
+        {
+            windowSize = partition.fill(nextIndex, endTime, window, windowSlots);
+            if (windowSize == 0)
+            {
+                return 0;
+            }
+            scanned = windowSlots[windowSize - 1] + 1 - nextIndex;
+            nextIndex = windowSlots[windowSize - 1] + 1;
+        }
+        for (int i = 0; i < windowSize; i++)
+        {
+            Event previous = i > 0 ? window[i - 1] : lastFetched;
+            boolean sameRun = previous != null && previous.timestamp() == window[i].timestamp();
+            lastFetchedRun = sameRun ? lastFetchedRun + 1 : 1;
+        }
+        fetchGeneration = partition.generation();
+        return scanned;
+    }
+
+    /* Fetches the next window without taking any lock, returning the
+     * number of slots walked, or -1 when there is no optimistic lock or
+     * a writer held it meanwhile. Reads racing with a writer may see the
+     * partition half updated and even fail, in which case everything read
+     * is thrown away and the position is restored, to fetch again under
+     * the read lock.
+     */
+    private int fetchOptimistically()
+    {
+        long stamp = optimisticLock != null ? optimisticLock.tryOptimisticRead() : 0;
+        if (stamp == 0)
+        {
+            return -1;
+        }
+        int savedNextIndex = nextIndex;
+        int savedLayoutVersion = layoutVersion;
+        int savedLastFetchedRun = lastFetchedRun;
+        int savedFetchGeneration = fetchGeneration;
+        try
+        {
+            int scanned = fetch();
+            if (optimisticLock.validate(stamp))
+            {
+                return scanned;
+            }
+        }
+        catch (RuntimeException e)
+        {
+            /* Inconsistent read of a partition being written,
+             * the validation below would fail anyway
+             */
+        }
+        nextIndex = savedNextIndex;
+        layoutVersion = savedLayoutVersion;
+        lastFetchedRun = savedLastFetchedRun;
+        fetchGeneration = savedFetchGeneration;
+        return -1;
+    }
+
+    /* Makes nextIndex valid for the current partition layout.
+     * Must be called while holding the read lock.
+     */
+    private void synchronizePosition()
+    {
+        if (lastFetched == null)
+        {
+            if (descending)
+            {
+                nextIndex = partition.lowerBound(endTime);
+                if (seeking)
+                {
+                    nextIndex = Math.min(nextIndex, partition.upperBound(seekTimestamp));
+                }
+            }
+            else
+            {
+                nextIndex = partition.lowerBound(seeking ? Math.max(startTime, seekTimestamp) : startTime);
+            }
+        }
+        else if (layoutVersion != partition.layoutVersion())
+        {
+            if (partition.generation() != fetchGeneration)
+            {
+                nextIndex = descending
+                    ? partition.indexBeforeRun(lastFetched.timestamp(), lastFetchedRun)
+                    : partition.indexAfterRun(lastFetched.timestamp(), lastFetchedRun);
+            }
+            else
+            {
+                nextIndex = descending ? partition.indexBefore(lastFetched) : partition.indexAfter(lastFetched);
+            }
+        }
+        layoutVersion = partition.layoutVersion();
+    }
+}
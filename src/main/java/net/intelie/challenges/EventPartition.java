@@ -0,0 +1,806 @@
+package net.intelie.challenges;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+/*
+ * Storage for all the events of a single type, kept ordered by timestamp.
+ * Timestamps are held in a primitive array parallel to the events array,
+ * so the binary searches done by range queries only touch a compact long[]
+ * instead of dereferencing every Event on the way.
+ * Events with equal timestamps keep their insertion order.
+ * Removing a single event only clears its slot, leaving a tombstone
+ * (a null event with its timestamp still in place, so binary searches keep
+ * working), which makes removal O(1) once the slot is known. Tombstones are
+ * compacted away once they take more than half of the used slots, keeping
+ * removals amortized O(1) and scans proportional to the live events.
+ * Point-in-time snapshots share the arrays instead of copying them
+ * (copy-on-write): once a snapshot is taken, the first write that would
+ * change a slot the snapshot can see copies the arrays first. Appends
+ * only write past the slots a snapshot covers, so they never copy.
+ * Range aggregations (count, first and last events) work on the indexes
+ * alone: the number of slots in a range comes from two binary searches,
+ * and the tombstones among them from a Fenwick tree of per-block
+ * tombstone counts, so counting a range of any size is O(log n) plus a
+ * scan of at most two blocks.
+ * This class is not thread safe, the owning store is responsible for
+ * guarding every access except the reads made through a Snapshot.
+ * Aggregations only read the partition, and may run concurrently with
+ * each other, see tombstoneTree.
+ * A partition may be spilled to a file by its store to stay within a
+ * memory budget: its live events are written in the SnapshotFile format
+ * and its arrays dropped. Every method reading or writing the slots pages
+ * it back in first, transparently, so iterators still holding it keep
+ * working. Paging in compacts the slots and creates new Event instances,
+ * so it bumps both the layout version and the generation; callers that
+ * look events up by instance fall back to equal events when the
+ * generation changed since they read them.
+ */
+class EventPartition
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    /* Compacting a handful of tombstones is not worth moving the events */
+    private static final int MIN_TOMBSTONES_TO_COMPACT = 32;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private Event[] events = new Event[INITIAL_CAPACITY];
+    private int slotCount = 0;
+    private int tombstones = 0;
+
+    /* Incremented every time events change position in the arrays, so
+     * iterators holding an index know when they have to look it up again.
+     * Appends and removals do not move any event and leave it untouched.
+     */
+    private int layoutVersion = 0;
+
+    /* Set while the arrays are referenced by a snapshot, meaning they
+     * must be copied before any slot below slotCount is written.
+     */
+    private boolean shared = false;
+
+    /* Slots summarized by every node of the tombstone tree, a power of two */
+    private static final int SUMMARY_BLOCK_BITS = 6;
+
+    /* Fenwick tree over the number of tombstones of every block of slots,
+     * 1-based. It is dropped whenever events change position, and built
+     * again by the next aggregation that needs it, in one pass. Removals
+     * that do not move events update it in place. Aggregations may run
+     * concurrently under a read lock, so it is only ever published whole
+     * through this volatile field: two of them building it at once just
+     * publish equal trees.
+     */
+    private volatile int[] tombstoneTree = null;
+
+    /* File holding the events while the partition is spilled, null while
+     * it is resident, along with the type name to recreate them and the
+     * number of live events.
+     */
+    private File spillFile = null;
+    private String spillType = null;
+    private int spilledSize = 0;
+
+    /* Incremented every time the partition is paged in, which replaces
+     * every Event instance by an equal new one.
+     */
+    private int generation = 0;
+
+    /* Creates an empty partition */
+    EventPartition()
+    {
+    }
+
+    /* Creates a partition adopting arrays holding count live events
+     * already sorted by timestamp, as read by SnapshotFile.
+     */
+    EventPartition(long[] timestamps, Event[] events, int count)
+    {
+        this.timestamps = timestamps;
+        this.events = events;
+        this.slotCount = count;
+    }
+
+    /* Adds the event at its ordered position.
+     * Events usually arrive in timestamp order, in which case this is an
+     * amortized O(1) append. A late event is placed after every event
+     * with the same or a lower timestamp, taking over the slot right
+     * before that position if it is a tombstone, or shifting the tail
+     * of the arrays otherwise.
+     */
+    void insert(Event event)
+    {
+        ensureResident();
+        long timestamp = event.timestamp();
+        if (slotCount > 0 && timestamps[slotCount - 1] > timestamp)
+        {
+            int index = upperBound(timestamp);
+            if (index > 0 && events[index - 1] == null)
+            {
+                prepareWrite(slotCount);
+                timestamps[index - 1] = timestamp;
+                events[index - 1] = event;
+                tombstones--;
+                updateTombstoneTree(index - 1, -1);
+                return;
+            }
+            prepareWrite(slotCount + 1);
+            System.arraycopy(timestamps, index, timestamps, index + 1, slotCount - index);
+            System.arraycopy(events, index, events, index + 1, slotCount - index);
+            timestamps[index] = timestamp;
+            events[index] = event;
+            slotCount++;
+            layoutVersion++;
+            tombstoneTree = null;
+            return;
+        }
+        if (slotCount == timestamps.length)
+        {
+            prepareWrite(slotCount + 1);
+        }
+        timestamps[slotCount] = timestamp;
+        events[slotCount] = event;
+        slotCount++;
+    }
+
+    /* Adds a batch of events already sorted by timestamp, in a single
+     * pass. When the batch starts at or after the last stored timestamp
+     * it is appended with one array copy. Otherwise it is merged from the
+     * back, moving only the stored events newer than the batch start,
+     * which costs O(m + k) for a batch of m events overlapping the last
+     * k stored ones. Stored events stay ahead of batch events with the
+     * same timestamp, just like with one insert per event.
+     */
+    void insertAll(Event[] sorted)
+    {
+        ensureResident();
+        int count = sorted.length;
+        if (count == 0)
+        {
+            return;
+        }
+        prepareWrite(slotCount + count);
+        if (slotCount == 0 || timestamps[slotCount - 1] <= sorted[0].timestamp())
+        {
+            for (int index = 0; index < count; index++)
+            {
+                timestamps[slotCount + index] = sorted[index].timestamp();
+                events[slotCount + index] = sorted[index];
+            }
+            slotCount += count;
+            return;
+        }
+
+        int stored = slotCount - 1;
+        int target = slotCount + count - 1;
+        for (int batch = count - 1; batch >= 0; target--)
+        {
+            if (stored >= 0 && timestamps[stored] > sorted[batch].timestamp())
+            {
+                timestamps[target] = timestamps[stored];
+                events[target] = events[stored];
+                stored--;
+            }
+            else
+            {
+                timestamps[target] = sorted[batch].timestamp();
+                events[target] = sorted[batch];
+                batch--;
+            }
+        }
+        slotCount += count;
+        layoutVersion++;
+        tombstoneTree = null;
+    }
+
+    /* Removes the event at the given slot, leaving a tombstone behind.
+     * Does nothing if the slot already holds a tombstone.
+     */
+    void removeAt(int index)
+    {
+        ensureResident();
+        if (events[index] != null)
+        {
+            prepareWrite(slotCount);
+            events[index] = null;
+            tombstones++;
+            updateTombstoneTree(index, 1);
+        }
+    }
+
+    /* Removes every event with a timestamp before the given one at once,
+     * shifting the remaining slots to the start of the arrays. Returns
+     * the number of live events removed.
+     */
+    int removeBefore(long timestamp)
+    {
+        ensureResident();
+        int end = lowerBound(timestamp);
+        if (end == 0)
+        {
+            return 0;
+        }
+        prepareWrite(slotCount);
+        int removed = 0;
+        for (int index = 0; index < end; index++)
+        {
+            if (events[index] != null)
+            {
+                removed++;
+            }
+        }
+        System.arraycopy(timestamps, end, timestamps, 0, slotCount - end);
+        System.arraycopy(events, end, events, 0, slotCount - end);
+        Arrays.fill(events, slotCount - end, slotCount, null);
+        tombstones -= end - removed;
+        slotCount -= end;
+        layoutVersion++;
+        tombstoneTree = null;
+        return removed;
+    }
+
+    /* Compacts the arrays when tombstones take more than half of the used
+     * slots. Returns the position the given index moved to, so a caller
+     * holding one keeps pointing at the same event (or at the event that
+     * followed it, when it pointed at a tombstone).
+     */
+    int compactIfNeeded(int trackedIndex)
+    {
+        ensureResident();
+        if (tombstones < MIN_TOMBSTONES_TO_COMPACT || tombstones * 2 <= slotCount)
+        {
+            return trackedIndex;
+        }
+        prepareWrite(slotCount);
+        int translatedIndex = -1;
+        int live = 0;
+        for (int index = 0; index < slotCount; index++)
+        {
+            if (index == trackedIndex)
+            {
+                translatedIndex = live;
+            }
+            if (events[index] != null)
+            {
+                timestamps[live] = timestamps[index];
+                events[live] = events[index];
+                live++;
+            }
+        }
+        if (translatedIndex < 0)
+        {
+            translatedIndex = live;
+        }
+        Arrays.fill(events, live, slotCount, null);
+        slotCount = live;
+        tombstones = 0;
+        layoutVersion++;
+        tombstoneTree = null;
+        return translatedIndex;
+    }
+
+    /* Copies up to window.length live events, starting at index from and
+     * stopping at the first one whose timestamp is not before endTime.
+     * The slot of every copied event is written to the slots array, so
+     * it can later be removed directly. Returns the number of events copied.
+     */
+    int fill(int from, long endTime, Event[] window, int[] slots)
+    {
+        ensureResident();
+        int count = 0;
+        for (int index = from; index < slotCount && count < window.length && timestamps[index] < endTime; index++)
+        {
+            if (events[index] != null)
+            {
+                window[count] = events[index];
+                slots[count] = index;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /* Same as fill, walking backwards from the slot before index from and
+     * stopping at the first event whose timestamp is before startTime.
+     */
+    int fillDescending(int from, long startTime, Event[] window, int[] slots)
+    {
+        ensureResident();
+        int count = 0;
+        for (int index = from - 1; index >= 0 && count < window.length && timestamps[index] >= startTime; index--)
+        {
+            if (events[index] != null)
+            {
+                window[count] = events[index];
+                slots[count] = index;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /* Counts the live events with timestamps in [startTime, endTime) */
+    int count(long startTime, long endTime)
+    {
+        ensureResident();
+        int from = lowerBound(startTime);
+        int to = lowerBound(endTime);
+        return to <= from ? 0 : to - from - (tombstonesBefore(to) - tombstonesBefore(from));
+    }
+
+    /* Adds to counts[bin] the number of live events with timestamps in
+     * [startTime + bin * interval, startTime + (bin + 1) * interval),
+     * for every bin, never going past endTime. Bins are walked from the
+     * first one holding an event of the partition, and every bin costs
+     * one binary search, whatever the number of events it counts.
+     */
+    void histogram(long startTime, long endTime, long interval, long[] counts)
+    {
+        ensureResident();
+        if (slotCount == 0 || timestamps[0] >= endTime || timestamps[slotCount - 1] < startTime)
+        {
+            return;
+        }
+        /* Differences are compared unsigned, as they may not fit in a
+         * long when the range spans most of the timestamp domain
+         */
+        long firstBin = timestamps[0] > startTime ? Long.divideUnsigned(timestamps[0] - startTime, interval) : 0;
+        if (firstBin >= counts.length)
+        {
+            return;
+        }
+        int bin = (int) firstBin;
+        long binStart = startTime + bin * interval;
+        int from = lowerBound(binStart);
+        int tombstonesFrom = tombstonesBefore(from);
+        for (; bin < counts.length && from < slotCount && binStart < endTime; bin++)
+        {
+            long binEnd = Long.compareUnsigned(endTime - binStart, interval) > 0 ? binStart + interval : endTime;
+            int to = lowerBound(binEnd);
+            int tombstonesTo = tombstonesBefore(to);
+            counts[bin] += to - from - (tombstonesTo - tombstonesFrom);
+            from = to;
+            tombstonesFrom = tombstonesTo;
+            binStart = binEnd;
+        }
+    }
+
+    /* Returns the slot of the first live event with a timestamp in
+     * [startTime, endTime), or -1 if there is none.
+     */
+    int firstIndex(long startTime, long endTime)
+    {
+        ensureResident();
+        for (int index = lowerBound(startTime); index < slotCount && timestamps[index] < endTime; index++)
+        {
+            if (events[index] != null)
+            {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /* Returns the slot of the last live event with a timestamp in
+     * [startTime, endTime), or -1 if there is none.
+     */
+    int lastIndex(long startTime, long endTime)
+    {
+        ensureResident();
+        for (int index = lowerBound(endTime) - 1; index >= 0 && timestamps[index] >= startTime; index--)
+        {
+            if (events[index] != null)
+            {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /* Takes a point-in-time snapshot of the partition in O(1).
+     * The snapshot can be read without holding any lock, and it keeps
+     * showing the events present right now no matter what is written
+     * to the partition afterwards.
+     */
+    Snapshot snapshot()
+    {
+        ensureResident();
+        shared = true;
+        return new Snapshot(timestamps, events, slotCount, generation);
+    }
+
+    /* Finds the slot of the given event instance, looking only at the
+     * run of events sharing its timestamp. Costs O(log n) plus the
+     * length of that run.
+     */
+    int indexOf(Event event)
+    {
+        ensureResident();
+        long timestamp = event.timestamp();
+        for (int index = lowerBound(timestamp); index < slotCount && timestamps[index] == timestamp; index++)
+        {
+            if (events[index] == event)
+            {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /* Same as indexOf, falling back to the first live event equal to the
+     * given one when the partition was paged in since the instance was
+     * read at the given generation.
+     */
+    int indexOf(Event event, int readGeneration)
+    {
+        int index = indexOf(event);
+        if (index >= 0 || readGeneration == generation)
+        {
+            return index;
+        }
+        long timestamp = event.timestamp();
+        for (index = lowerBound(timestamp); index < slotCount && timestamps[index] == timestamp; index++)
+        {
+            if (events[index] != null)
+            {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /* Returns the index right after the first run live events with the
+     * given timestamp, a position that does not depend on Event instances.
+     */
+    int indexAfterRun(long timestamp, int run)
+    {
+        int index = lowerBound(timestamp);
+        while (run > 0 && index < slotCount && timestamps[index] == timestamp)
+        {
+            if (events[index] != null)
+            {
+                run--;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /* Returns the index of the last of the last run live events with the
+     * given timestamp, the exclusive position of a descending walk that
+     * returned them.
+     */
+    int indexBeforeRun(long timestamp, int run)
+    {
+        int index = upperBound(timestamp);
+        while (run > 0 && index > 0 && timestamps[index - 1] == timestamp)
+        {
+            if (events[index - 1] != null)
+            {
+                run--;
+            }
+            index--;
+        }
+        return index;
+    }
+
+    /* Returns the index right after the given event instance. When the
+     * instance is gone, falls back to the first index after its timestamp.
+     */
+    int indexAfter(Event event)
+    {
+        int index = indexOf(event);
+        return index >= 0 ? index + 1 : upperBound(event.timestamp());
+    }
+
+    /* Returns the index of the given event instance, the slot right after
+     * the next one a descending walk visits. When the instance is gone,
+     * falls back to the first index of its timestamp.
+     */
+    int indexBefore(Event event)
+    {
+        int index = indexOf(event);
+        return index >= 0 ? index : lowerBound(event.timestamp());
+    }
+
+    /* Returns the index of the first slot whose timestamp is
+     * greater than or equal to the given timestamp.
+     */
+    int lowerBound(long timestamp)
+    {
+        ensureResident();
+        return lowerBound(timestamps, slotCount, timestamp);
+    }
+
+    static int lowerBound(long[] timestamps, int slotCount, long timestamp)
+    {
+        int low = 0;
+        int high = slotCount;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] < timestamp)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /* Returns the index of the first slot whose timestamp is
+     * strictly greater than the given timestamp.
+     */
+    int upperBound(long timestamp)
+    {
+        ensureResident();
+        int low = 0;
+        int high = slotCount;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] <= timestamp)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /* Returns the event at the given slot, or null for a tombstone */
+    Event get(int index)
+    {
+        ensureResident();
+        return events[index];
+    }
+
+    /* Number of used slots, tombstones included */
+    int slotCount()
+    {
+        ensureResident();
+        return slotCount;
+    }
+
+    /* Number of live events */
+    int size()
+    {
+        if (spillFile != null)
+        {
+            return spilledSize;
+        }
+        return slotCount - tombstones;
+    }
+
+    int layoutVersion()
+    {
+        ensureResident();
+        return layoutVersion;
+    }
+
+    /* Estimated bytes held by the partition: both arrays at their current
+     * capacity plus every live Event object, assuming a 64 bit JVM with
+     * compressed references (16 byte array headers, 4 byte references
+     * and 24 byte Event objects). Type names are shared and not counted.
+     */
+    long memoryEstimate()
+    {
+        if (spillFile != null)
+        {
+            return 64;
+        }
+        return 2 * 16L + timestamps.length * 8L + events.length * 4L + size() * 24L;
+    }
+
+    int generation()
+    {
+        return generation;
+    }
+
+    boolean isSpilled()
+    {
+        return spillFile != null;
+    }
+
+    /* Writes the live events to the given file and drops the arrays.
+     * Snapshots taken before keep their own reference to the arrays.
+     */
+    void spill(File file, String type) throws IOException
+    {
+        ensureResident();
+        SnapshotFile.write(file, Collections.singletonMap(type, snapshot()), Collections.singletonMap(type, size()));
+        spilledSize = size();
+        spillFile = file;
+        spillType = type;
+        timestamps = new long[0];
+        events = new Event[0];
+        slotCount = 0;
+        tombstones = 0;
+        shared = false;
+        tombstoneTree = null;
+    }
+
+    /* File holding the events while spilled, null while resident */
+    File spillFile()
+    {
+        return spillFile;
+    }
+
+    /* Reads the events back from the spill file, if spilled, and deletes
+     * the file. Failing to read it is unrecoverable for the caller.
+     */
+    void ensureResident()
+    {
+        if (spillFile == null)
+        {
+            return;
+        }
+        try
+        {
+            EventPartition loaded = SnapshotFile.read(spillFile).get(spillType);
+            timestamps = loaded.timestamps;
+            events = loaded.events;
+            slotCount = loaded.slotCount;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Could not page in events of type " + spillType, e);
+        }
+        if (!spillFile.delete())
+        {
+            spillFile.deleteOnExit();
+        }
+        spillFile = null;
+        spillType = null;
+        layoutVersion++;
+        generation++;
+    }
+
+    /* Deletes the spill file of a partition dropped while spilled, leaving
+     * it empty, so iterators still walking the detached partition find
+     * no more events instead of paging in a deleted file.
+     */
+    void discard()
+    {
+        if (spillFile == null)
+        {
+            return;
+        }
+        if (!spillFile.delete())
+        {
+            spillFile.deleteOnExit();
+        }
+        spillFile = null;
+        spillType = null;
+        spilledSize = 0;
+        layoutVersion++;
+        generation++;
+    }
+
+    /* Returns the number of tombstones in the slots before the given index:
+     * the sum of the whole blocks before it, read from the tombstone tree,
+     * plus the tombstones of its own block, scanned.
+     */
+    private int tombstonesBefore(int index)
+    {
+        if (tombstones == 0)
+        {
+            return 0;
+        }
+        int[] tree = tombstoneTree;
+        if (tree == null)
+        {
+            tree = buildTombstoneTree();
+        }
+        int block = index >>> SUMMARY_BLOCK_BITS;
+        int count = 0;
+        for (int node = Math.min(block, tree.length - 1); node > 0; node -= node & -node)
+        {
+            count += tree[node];
+        }
+        for (int slot = block << SUMMARY_BLOCK_BITS; slot < index; slot++)
+        {
+            if (events[slot] == null)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /* Builds the tombstone tree of the current slots in O(n) */
+    private int[] buildTombstoneTree()
+    {
+        int blocks = (slotCount + (1 << SUMMARY_BLOCK_BITS) - 1) >>> SUMMARY_BLOCK_BITS;
+        int[] tree = new int[blocks + 1];
+        for (int slot = 0; slot < slotCount; slot++)
+        {
+            if (events[slot] == null)
+            {
+                tree[(slot >>> SUMMARY_BLOCK_BITS) + 1]++;
+            }
+        }
+        for (int node = 1; node <= blocks; node++)
+        {
+            int parent = node + (node & -node);
+            if (parent <= blocks)
+            {
+                tree[parent] += tree[node];
+            }
+        }
+        tombstoneTree = tree;
+        return tree;
+    }
+
+    /* Records a tombstone added or reused at the given slot in the
+     * tombstone tree, or drops the tree if it does not cover that slot
+     * yet. Slots appended after the tree was built hold no tombstones
+     * until then, so the tree does not need to grow with appends.
+     */
+    private void updateTombstoneTree(int index, int delta)
+    {
+        int[] tree = tombstoneTree;
+        if (tree == null)
+        {
+            return;
+        }
+        int block = index >>> SUMMARY_BLOCK_BITS;
+        if (block + 1 >= tree.length)
+        {
+            tombstoneTree = null;
+            return;
+        }
+        for (int node = block + 1; node < tree.length; node += node & -node)
+        {
+            tree[node] += delta;
+        }
+    }
+
+    /* Makes the arrays writable for the given number of slots, copying
+     * them when they are too small or still referenced by a snapshot.
+     */
+    private void prepareWrite(int capacity)
+    {
+        if (shared || capacity > timestamps.length)
+        {
+            int newCapacity = capacity > timestamps.length
+                ? Math.max(capacity, timestamps.length + (timestamps.length >> 1))
+                : timestamps.length;
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+            events = Arrays.copyOf(events, newCapacity);
+            shared = false;
+        }
+    }
+
+    /* Immutable view of the partition slots at the time it was taken.
+     * Tombstones are null events, just like in the partition itself.
+     */
+    static final class Snapshot
+    {
+        final long[] timestamps;
+        final Event[] events;
+        final int slotCount;
+        final int generation;
+
+        private Snapshot(long[] timestamps, Event[] events, int slotCount, int generation)
+        {
+            this.timestamps = timestamps;
+            this.events = events;
+            this.slotCount = slotCount;
+            this.generation = generation;
+        }
+
+        int lowerBound(long timestamp)
+        {
+            return EventPartition.lowerBound(timestamps, slotCount, timestamp);
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package net.intelie.challenges;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.OptionalLong;
+import java.util.Set;
+
 /**
  * An abstraction of an event store.
  * <p>
@@ -15,6 +20,29 @@ public interface EventStore {
      */
     void insert(Event event);
 
+    /**
+     * Stores a batch of events, as if {@link #insert} was called
+     * for each of them in order.
+     * <p>
+     * The default implementation does exactly that. Stores may override
+     * it to group, sort and merge the batch at once.
+     *
+     * @param events
+     */
+    default void insertAll(Collection<Event> events) {
+        for (Event event : events) {
+            insert(event);
+        }
+    }
+
+    /**
+     * Stores a batch of events, see {@link #insertAll(Collection)}.
+     *
+     * @param events
+     */
+    default void insertAll(Event[] events) {
+        insertAll(Arrays.asList(events));
+    }
 
     /**
      * Removes all events of specific type.
@@ -34,4 +62,92 @@ public interface EventStore {
      * (inclusive) and {@param endTime} (exclusive).
      */
     EventIterator query(String type, long startTime, long endTime);
+
+    /**
+     * Retrieves an iterator for the events of several types, merged
+     * in timestamp order.
+     * <p>
+     * Events with the same timestamp come in the iteration order of
+     * {@param types}. The default implementation runs one {@link #query}
+     * per type and merges them lazily, and removing an event through the
+     * returned iterator removes it through the iterator of its type.
+     *
+     * @param types     The types we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return An iterator over the events of all the given types with
+     * timestamp between {@param startTime} (inclusive) and
+     * {@param endTime} (exclusive).
+     */
+    default EventIterator query(Set<String> types, long startTime, long endTime) {
+        EventIterator[] iterators = new EventIterator[types.size()];
+        int index = 0;
+        for (String type : types) {
+            iterators[index++] = query(type, startTime, endTime);
+        }
+        return new MergingEventIteratorClass(iterators);
+    }
+
+    /**
+     * Counts the events of a type in a time range.
+     * <p>
+     * The default implementation iterates the range. Stores with a sorted
+     * index override it to count from the index, without visiting events.
+     *
+     * @param type      The type we are counting.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return The number of events {@link #query} would return.
+     */
+    default long count(String type, long startTime, long endTime) {
+        return Aggregations.count(query(type, startTime, endTime));
+    }
+
+    /**
+     * Finds the timestamp of the first event of a type in a time range.
+     *
+     * @param type      The type we are looking for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return The lowest timestamp in the range, or an empty
+     * OptionalLong when there are no events there.
+     */
+    default OptionalLong firstTimestamp(String type, long startTime, long endTime) {
+        return Aggregations.firstTimestamp(query(type, startTime, endTime));
+    }
+
+    /**
+     * Finds the timestamp of the last event of a type in a time range.
+     * <p>
+     * The default implementation iterates the whole range.
+     *
+     * @param type      The type we are looking for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return The highest timestamp in the range, or an empty
+     * OptionalLong when there are no events there.
+     */
+    default OptionalLong lastTimestamp(String type, long startTime, long endTime) {
+        return Aggregations.lastTimestamp(query(type, startTime, endTime));
+    }
+
+    /**
+     * Counts the events of a type per fixed interval of a time range.
+     * <p>
+     * Bin {@code i} counts the events with timestamps in
+     * [startTime + i * interval, startTime + (i + 1) * interval),
+     * the last bin being cut at endTime.
+     *
+     * @param type      The type we are counting.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @param interval  Width of every bin, must be positive.
+     * @return The count of every bin, in time order.
+     * @throws IllegalArgumentException if the interval is not positive,
+     *                                  or the range has too many bins.
+     */
+    default long[] histogram(String type, long startTime, long endTime, long interval) {
+        Aggregations.binCount(startTime, endTime, interval);
+        return Aggregations.histogram(query(type, startTime, endTime), startTime, endTime, interval);
+    }
 }
@@ -1,157 +1,944 @@
 package net.intelie.challenges;
 
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.stream.*;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class EventStoreClass implements EventStore 
-{    
-    /* 
-     * First Step is to declaring storage for stroing events.
-     * Using ArrayList data sturcure to store event objects.
-     * As it stores its elements in ordered fashion, easily resizeable
-     * and the operations required in this current assignement 
-     * requires only insert and remove operations on the data storage 
-     * so not using ArrayList.
-     * Using synchronizedList to ensure thread safety 
-     * only one thread to access the Event Store List 
-     * at any given point of time.
-     */
-    public final List<Event> EventStoreList = Collections.synchronizedList(new ArrayList<Event>());
+public class EventStoreClass implements EventStore
+{
+    /*
+     * Events are partitioned by their type, and every partition keeps
+     * its events ordered by timestamp (see EventPartition).
+     * Queries always target a single type, so looking up the partition
+     * is one hash probe and the [startTime, endTime) range is found with
+     * two binary searches, giving O(log n + k) queries no matter how many
+     * events of other types are stored.
+     * Removing all the events of a type drops its partition in O(1).
+     * Types are never compared as strings: the dictionary maps every type
+     * to a small int id on its first insert, with a single lock free hash
+     * probe, and partitions are held in an array indexed by that id. A
+     * type that was never inserted has no id, so it needs no partition
+     * lookup at all. Ids outlive removeAll, the slot of the type is just
+     * emptied and reused by its next insert.
+     * Every access to the partitions array is guarded by the store lock,
+     * a MeasuredLock, so the time threads spend waiting for it shows up
+     * in the metrics of the store.
+     */
+    private final TypeDictionary dictionary = new TypeDictionary();
+    private EventPartition[] partitions = new EventPartition[16];
+
+    /* Number of accesses between two checks of the memory budget */
+    private static final int BUDGET_CHECK_INTERVAL = 1024;
+
+    /*
+     * Optional memory budget, in bytes of estimated partition memory (see
+     * EventPartition.memoryEstimate). Every BUDGET_CHECK_INTERVAL accesses,
+     * and whenever a spilled partition is accessed, the estimates of the
+     * resident partitions are added up, and while they exceed the budget
+     * the least recently accessed partition is spilled to a file (see
+     * EventPartition.spill), never the one being accessed. Every store
+     * spills to a directory of its own, created inside the given one, and
+     * numbers its files, so stores sharing a directory or files left by
+     * an earlier process are never overwritten. A spilled partition is
+     * paged back in by the next access, whether through the store or an
+     * iterator still holding it. Spilling happens under the store lock.
+     * Without a budget nothing is ever spilled and lastUsed is not
+     * maintained.
+     */
+    private final long memoryBudget;
+    private final File spillDirectory;
+    private long[] lastUsed = new long[16];
+    private long accessClock = 0;
+    private int accessesSinceCheck = 0;
+    private long spills = 0;
+    private long spillFileSequence = 0;
+
+    /* Counters and latencies of every operation, see metrics() */
+    private final EventStoreMetrics metrics = new EventStoreMetrics(new EventStoreMetrics.TypeStatistics()
+    {
+        @Override
+        public Map<String, Long> eventCounts()
+        {
+            Map<String, Long> counts = new TreeMap<String, Long>();
+            lock.lock();
+            try
+            {
+                for (int id = 0; id < partitions.length; id++)
+                {
+                    if (partitions[id] != null)
+                    {
+                        counts.put(dictionary.nameOf(id), (long) partitions[id].size());
+                    }
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Long> memoryEstimates()
+        {
+            Map<String, Long> estimates = new TreeMap<String, Long>();
+            lock.lock();
+            try
+            {
+                for (int id = 0; id < partitions.length; id++)
+                {
+                    if (partitions[id] != null)
+                    {
+                        estimates.put(dictionary.nameOf(id), partitions[id].memoryEstimate());
+                    }
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            return estimates;
+        }
+    });
+
+    private final MeasuredLock lock = new MeasuredLock(new ReentrantLock(), metrics);
+
+    /* Isolation of the iterators returned by query.
+     * LIVE iterators walk the partition itself, taking the store lock
+     * for every window of events they fetch, and see inserts and removals
+     * made after the query.
+     * SNAPSHOT iterators walk a point-in-time snapshot of the partition
+     * without ever taking the lock, so a long iteration never stalls
+     * writers and always sees a consistent set of events. Taking the
+     * snapshot is O(1); the price is paid by the first write to that
+     * partition that is not an append, which copies its arrays.
+     */
+    public enum QueryMode
+    {
+        LIVE,
+        SNAPSHOT
+    }
+
+    private final QueryMode queryMode;
+
+    /* Read-only view over every stored event, partition by partition.
+     * It used to be the backing list of the store and is kept so callers
+     * can still inspect the store contents, but it can no longer be
+     * modified directly.
+     */
+    public final List<Event> EventStoreList = new AbstractList<Event>()
+    {
+        @Override
+        public Event get(int index)
+        {
+            lock.lock();
+            try
+            {
+                if (index >= 0)
+                {
+                    for (EventPartition partition : partitions)
+                    {
+                        if (partition == null)
+                        {
+                            continue;
+                        }
+                        if (index >= partition.size())
+                        {
+                            index -= partition.size();
+                            continue;
+                        }
+                        for (int slot = 0; slot < partition.slotCount(); slot++)
+                        {
+                            if (partition.get(slot) != null && index-- == 0)
+                            {
+                                return partition.get(slot);
+                            }
+                        }
+                    }
+                }
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int size()
+        {
+            return EventStoreClass.this.size();
+        }
+    };
+
+    /* Creates a store whose queries return LIVE iterators */
+    public EventStoreClass()
+    {
+        this(QueryMode.LIVE);
+    }
+
+    /* Creates a store whose queries return iterators of the given mode */
+    public EventStoreClass(QueryMode queryMode)
+    {
+        this.queryMode = queryMode;
+        this.memoryBudget = Long.MAX_VALUE;
+        this.spillDirectory = null;
+    }
+
+    /* Creates a store whose queries return iterators of the given mode,
+     * spilling partitions to files of the given directory, created if
+     * needed, to keep their estimated memory within memoryBudget bytes.
+     */
+    public EventStoreClass(QueryMode queryMode, long memoryBudget, File spillDirectory) throws IOException
+    {
+        if (memoryBudget <= 0)
+        {
+            throw new IllegalArgumentException("Memory budget must be positive, got " + memoryBudget);
+        }
+        if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs())
+        {
+            throw new IOException("Could not create spill directory " + spillDirectory);
+        }
+        this.queryMode = queryMode;
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = Files.createTempDirectory(spillDirectory.toPath(), "event-store-").toFile();
+        this.spillDirectory.deleteOnExit();
+    }
 
     /* For logging of prints statements in test cases instatiating
-     * Logger object. Using slf4j for logging and verification of 
+     * Logger object. Using slf4j for logging and verification of
      * test cases using the print statements, which can be viewed in
      * Debug console.
+     * insert is a hot path, so it only logs at TRACE level and checks
+     * the level first, building no message and allocating nothing while
+     * tracing is off. The other operations log at DEBUG. Setting the
+     * net.intelie.challenges logger to TRACE turns on the diagnostic output.
      */
-    private static Logger LOGGER = LoggerFactory.getLogger(EventStoreClass.class);
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventStoreClass.class);
+
+    static final Comparator<Event> BY_TIMESTAMP = new Comparator<Event>()
+    {
+        @Override
+        public int compare(Event first, Event second)
+        {
+            return Long.compare(first.timestamp(), second.timestamp());
+        }
+    };
 
     /* Overriding insert method from EventStore Interface.
-     * Making it synchronized in order to ensure
-     * only one thread at any given point of time insert 
-     * new events into the Event Store List.
-     * This function doesnt return anything 
-     * adds the event passed as argument into the EventStore List
+     * Taking the store lock in order to ensure
+     * only one thread at any given point of time insert
+     * new events into the Event Store.
+     * This function doesnt return anything
+     * adds the event passed as argument into the partition of its type,
+     * creating the partition on the first event of that type.
      */
     @Override
-    public synchronized void insert(Event event)
+    public void insert(Event event)
     {
-        LOGGER.info("Inserting event...");
-        EventStoreList.add(event);
-        LOGGER.info("Event : " + event.type() + " with timestamp : " + event.timestamp()+ " inserted successfully!");
+        long start = System.nanoTime();
+        int id = dictionary.idOf(event.type());
+        lock.lock();
+        try
+        {
+            partitionFor(id).insert(event);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        metrics.recordInsert(System.nanoTime() - start);
+        if (LOGGER.isTraceEnabled())
+        {
+            LOGGER.trace("Event : {} with timestamp : {} inserted successfully!", event.type(), event.timestamp());
+        }
+    }
+
+    /* Overriding insertAll method from EventStore Interface.
+     * The batch is grouped by type and every group is sorted by timestamp
+     * before taking the lock (the sort is stable, so events with the same
+     * timestamp keep the order of the batch). Then, under one single
+     * acquisition of the store lock, every group is merged into its
+     * partition in one pass, instead of locking and placing every event
+     * on its own.
+     */
+    @Override
+    public void insertAll(Collection<Event> events)
+    {
+        long start = System.nanoTime();
+        Map<Integer, List<Event>> batches = new HashMap<Integer, List<Event>>();
+        for (Event event : events)
+        {
+            Integer id = dictionary.idOf(event.type());
+            List<Event> batch = batches.get(id);
+            if (batch == null)
+            {
+                batch = new ArrayList<Event>();
+                batches.put(id, batch);
+            }
+            batch.add(event);
+        }
+        Map<Integer, Event[]> sortedBatches = new HashMap<Integer, Event[]>();
+        for (Map.Entry<Integer, List<Event>> batch : batches.entrySet())
+        {
+            Event[] sorted = batch.getValue().toArray(new Event[0]);
+            Arrays.sort(sorted, BY_TIMESTAMP);
+            sortedBatches.put(batch.getKey(), sorted);
+        }
+
+        lock.lock();
+        try
+        {
+            for (Map.Entry<Integer, Event[]> batch : sortedBatches.entrySet())
+            {
+                partitionFor(batch.getKey()).insertAll(batch.getValue());
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        metrics.recordInsertAll(events.size(), System.nanoTime() - start);
+        if (LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("Inserted batch of {} events of {} types", events.size(), sortedBatches.size());
+        }
     }
 
     /* Overriding removeAll method from EventStore Interface.
-     * Making it synchronized in order to ensure
-     * only one thread at any given point of time removes events 
-     * from the Event Store List.
-     * This function doesnt return anything 
-     * removes all the event of given event typepassed as argument 
-     * from the EventStore List.
+     * Taking the store lock in order to ensure
+     * only one thread at any given point of time removes events
+     * from the Event Store.
+     * This function doesnt return anything
+     * removes all the event of given event type passed as argument
+     * by dropping the whole partition of that type.
+     * Iterators already open over that partition keep walking the
+     * detached partition and will not see later inserts.
      */
     @Override
-    public synchronized void removeAll(String type)
+    public void removeAll(String type)
     {
-        if (EventStoreList.size() == 0)
+        long start = System.nanoTime();
+        int id = dictionary.find(type);
+        EventPartition partition;
+        int removed = 0;
+        lock.lock();
+        try
         {
-            LOGGER.info("Event Store is empty. There are no events to be removed.");
+            /* Looked up directly, so a spilled partition
+             * is dropped without paging it in
+             */
+            partition = id >= 0 && id < partitions.length ? partitions[id] : null;
+            if (partition != null)
+            {
+                partitions[id] = null;
+                removed = partition.size();
+                partition.discard();
+            }
+        }
+        finally
+        {
+            lock.unlock();
         }
-        else {
-            LOGGER.info("Number of events in Event Store before removing events of type " + type + " : " + EventStoreList.size());
-            LOGGER.info("Removing all the events of type : " + type);
-            EventStoreList.removeIf(event -> event.type().equals(type));
-            LOGGER.info("Number of events in Event Storage after removing events of type " + type + " : " + EventStoreList.size());
+        metrics.recordRemoveAll(removed, System.nanoTime() - start);
+        if (partition == null)
+        {
+            LOGGER.debug("There are no events of type {} to be removed.", type);
+        }
+        else
+        {
+            if (LOGGER.isDebugEnabled())
+            {
+                LOGGER.debug("Removed {} events of type : {}", removed, type);
+            }
         }
     }
 
     /* Overriding query method from EventStore Interface.
-     * Here thread safety is implemented when using the
-     * Event Store List, so that event store list is picked from
-     * memory instead of thread cache for each thread.
-     * No making sure no matter how many threads are accessing
-     * the event store list but every threat accessing the list from 
-     * memory, so that the list of events of specific type is correct 
-     * accross all the threads.
-     * This function doesnt returns EventIterator object that contains
-     * List of event that satisfy the criteria of type and 
-     * start and end timestamp input arguments
+     * This function returns an EventIterator that lazily walks the
+     * partition of the given type, over the events whose timestamp lies
+     * between startTime (inclusive) and endTime (exclusive), in timestamp
+     * order. Only the partition lookup happens here, the iterator takes
+     * the store lock by itself while it fetches events, so nothing is
+     * copied and the first event is available right away.
+     * When the store was created in SNAPSHOT mode, the iterator
+     * returned is the one of querySnapshot instead.
      */
     @Override
     public EventIterator query(String type, long startTime, long endTime)
     {
-        EventIteratorClass eventIteratorClassObj = new EventIteratorClass(Collections.synchronizedList(EventStoreList));
-        Event currentEvent=null;
-        List<Event> givenTypeEventList = new ArrayList<Event>();
+        if (queryMode == QueryMode.SNAPSHOT)
+        {
+            return querySnapshot(type, startTime, endTime);
+        }
+        long start = System.nanoTime();
+        EventPartition partition;
+        lock.lock();
+        try
+        {
+            partition = partitionOf(dictionary.find(type));
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        LOGGER.debug("Querying events of type : {}", type);
+
+        EventIterator iterator = new EventIteratorClass(lock, metrics, partition, startTime, endTime);
+        metrics.recordQuery(System.nanoTime() - start);
+        return iterator;
+    }
+
+    /* Same as query, always returning a LIVE iterator that can seek
+     * inside the range in O(log n) and save its position as a cursor.
+     */
+    public SeekableEventIterator querySeekable(String type, long startTime, long endTime)
+    {
+        return queryLive(type, startTime, endTime, false);
+    }
+
+    /* Same as querySeekable, returning the events from the newest to the
+     * oldest, so the latest N events of a range cost O(log n + N).
+     */
+    public SeekableEventIterator queryDescending(String type, long startTime, long endTime)
+    {
+        return queryLive(type, startTime, endTime, true);
+    }
+
+    /* Returns an iterator over the same type and range, in the same order,
+     * as the one that returned the cursor, positioned right after the
+     * event that was current when it did. Paging through a range this way
+     * costs O(log n + page size) per page.
+     */
+    public SeekableEventIterator resume(String type, long startTime, long endTime, String cursor)
+    {
+        EventIteratorClass iterator = queryLive(type, startTime, endTime, cursor.startsWith("D:"));
+        iterator.resume(cursor);
+        return iterator;
+    }
 
-        /* Traversing through the event store list by using moveNext method of
-         * EventIteratorClass
-        */
-        while(eventIteratorClassObj.moveNext())
+    private EventIteratorClass queryLive(String type, long startTime, long endTime, boolean descending)
+    {
+        long start = System.nanoTime();
+        int id = dictionary.find(type);
+        EventPartition partition;
+        lock.lock();
+        try
         {
-            /* Extracting event present at the current index using current method
-             * of EventIteratorClass
-             */
-            currentEvent=eventIteratorClassObj.current();
-            /* If type of the current event matches the given input argument type value
-             * then check for timestamps
-             */
-            if(currentEvent.type() == type)
+            partition = partitionOf(id);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        EventIteratorClass iterator = new EventIteratorClass(lock, metrics, partition, startTime, endTime, descending);
+        metrics.recordQuery(System.nanoTime() - start);
+        return iterator;
+    }
+
+    /* Same as query, but the returned iterator walks a point-in-time
+     * snapshot of the partition: it sees exactly the events stored when
+     * this method was called, and it reads them without holding any lock.
+     * Removing through the iterator still removes from the live store.
+     */
+    public EventIterator querySnapshot(String type, long startTime, long endTime)
+    {
+        long start = System.nanoTime();
+        EventPartition partition;
+        EventPartition.Snapshot snapshot = null;
+        lock.lock();
+        try
+        {
+            partition = partitionOf(dictionary.find(type));
+            if (partition != null)
+            {
+                snapshot = partition.snapshot();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        EventIterator iterator = new SnapshotEventIteratorClass(lock, metrics, partition, snapshot, startTime, endTime);
+        metrics.recordQuery(System.nanoTime() - start);
+        return iterator;
+    }
+
+    /* Parallel alternative to query, for scans over very wide ranges.
+     * Returns a parallel stream over a point-in-time snapshot of the
+     * partition, in timestamp order: the snapshot range is split in
+     * chunks scanned by the common ForkJoinPool (see SnapshotSpliterator),
+     * and ordered operations such as forEachOrdered or collect keep the
+     * timestamp order. The snapshot is taken in O(1) under the store lock,
+     * which is never taken again, so the scan does not stall writers.
+     * The stream is read only, events cannot be removed through it.
+     */
+    public Stream<Event> parallelQuery(String type, long startTime, long endTime)
+    {
+        return parallelQuery(Collections.singleton(type), startTime, endTime);
+    }
+
+    /* Same as parallelQuery above, over the events of several types merged
+     * in timestamp order, events of types earlier in the set coming first
+     * on equal timestamps. The snapshots of all the types are taken under
+     * one single acquisition of the store lock, so the stream sees all of
+     * them at the same point in time.
+     */
+    public Stream<Event> parallelQuery(Set<String> types, long startTime, long endTime)
+    {
+        long start = System.nanoTime();
+        List<EventPartition.Snapshot> snapshots = new ArrayList<EventPartition.Snapshot>(types.size());
+        lock.lock();
+        try
+        {
+            for (String type : types)
             {
-                /* If timestamp of the current event is within the range of startTime 
-                 * and endTime provided in the input arguments then add this current
-                 * event in the output list
-                 */
-                if((currentEvent.timestamp() >= startTime) && (currentEvent.timestamp() <= endTime))
+                EventPartition partition = partitionOf(dictionary.find(type));
+                if (partition != null)
                 {
-                    givenTypeEventList.add(currentEvent);
+                    snapshots.add(partition.snapshot());
                 }
             }
         }
-        // Clearing variables of EventIteratorClass 
-        eventIteratorClassObj.close();
+        finally
+        {
+            lock.unlock();
+        }
+        Stream<Event> stream = StreamSupport.stream(
+            new SnapshotSpliterator(snapshots.toArray(new EventPartition.Snapshot[0]), startTime, endTime), true);
+        metrics.recordQuery(System.nanoTime() - start);
+        return stream;
+    }
+
+    /* Counts the events of the range from the partition index, with two
+     * binary searches and a lookup of the tombstones in between (see
+     * EventPartition.count), so the cost does not depend on the number
+     * of events counted and no event is visited.
+     */
+    @Override
+    public long count(String type, long startTime, long endTime)
+    {
+        lock.lock();
+        try
+        {
+            EventPartition partition = partitionOf(dictionary.find(type));
+            return partition == null ? 0 : partition.count(startTime, endTime);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
 
-        /* EventStoreList which contains all the events in the event store are passed as
-         * argument during instantiating EventIteratorClass object. There by instatiating 
-         * eventlist of EventIteratorClass to EventStoreList. But now after segregating 
-         * events of given input type, reassigning eventList to the segerated list.
-         * So that we can return the same EventIteratorClass object. Avoiding creation of 
-         * a new EventIteratorClass object or calling the EventIteratorClass constructor again.
-         */
-        eventIteratorClassObj.eventList = givenTypeEventList;
+    @Override
+    public OptionalLong firstTimestamp(String type, long startTime, long endTime)
+    {
+        lock.lock();
+        try
+        {
+            EventPartition partition = partitionOf(dictionary.find(type));
+            int index = partition == null ? -1 : partition.firstIndex(startTime, endTime);
+            return index < 0 ? OptionalLong.empty() : OptionalLong.of(partition.get(index).timestamp());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
 
-        LOGGER.info("Number of events of type : " + type + " are : " + eventIteratorClassObj.eventList.size());
+    @Override
+    public OptionalLong lastTimestamp(String type, long startTime, long endTime)
+    {
+        lock.lock();
+        try
+        {
+            EventPartition partition = partitionOf(dictionary.find(type));
+            int index = partition == null ? -1 : partition.lastIndex(startTime, endTime);
+            return index < 0 ? OptionalLong.empty() : OptionalLong.of(partition.get(index).timestamp());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
 
-        return eventIteratorClassObj;
+    /* Counts every bin from the partition index, like count */
+    @Override
+    public long[] histogram(String type, long startTime, long endTime, long interval)
+    {
+        long[] counts = new long[Aggregations.binCount(startTime, endTime, interval)];
+        lock.lock();
+        try
+        {
+            EventPartition partition = partitionOf(dictionary.find(type));
+            if (partition != null)
+            {
+                partition.histogram(startTime, endTime, interval, counts);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return counts;
     }
-    /* NOTE : The above implementation of query method is not the efficient one.
-     * As this method has while loop traversing through the entire EventStoreList.
-     * Time complexity of O(n).
-     * This method was written with the intention of utilizing all the 
-     * methods implemented in EventIteratorClass such as moveNext, current and close.
-     */
 
     /*
      * The intention of this method is same as above query method of this class,
-     * to query events satisfying criteria of input arguments event type and 
-     * timestamp within start and endTime. But with less time and space complexity 
-     * compared to query method. 
+     * to query events satisfying criteria of input arguments event type and
+     * timestamp within start and endTime. It used to be a stream based
+     * alternative to the original linear scan in query, both now share
+     * the same per-type index.
      */
     public EventIterator queryWithoutEventIteratorMethods(String type, long startTime, long endTime)
     {
-        EventIteratorClass eventIteratorClsObj = new EventIteratorClass(Collections.synchronizedList(EventStoreList
-        .stream()
-        .filter(event -> event.type().equals(type))
-        .filter(event ->(event.timestamp() >= startTime && event.timestamp() <= endTime))
-        .collect(Collectors.toList())));
+        return query(type, startTime, endTime);
+    }
 
-        LOGGER.info("Number of events of type : " + type + " are : " + eventIteratorClsObj.eventList.size());
+    /* Returns the number of events currently held by the store,
+     * summing the sizes of all partitions.
+     */
+    public int size()
+    {
+        lock.lock();
+        try
+        {
+            int size = 0;
+            for (EventPartition partition : partitions)
+            {
+                if (partition != null)
+                {
+                    size += partition.size();
+                }
+            }
+            return size;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
 
-        return eventIteratorClsObj;
+    /* Writes every stored event to the given file in a compact binary
+     * form, see SnapshotFile, replacing it atomically once complete.
+     * All partitions are snapshotted under one single acquisition of the
+     * store lock, in O(1) each, so the file holds the store as it was at
+     * that instant, and writers carry on while it is being written; the
+     * price is the copy-on-write of partitions they modify meanwhile.
+     */
+    public void writeSnapshot(File file) throws IOException
+    {
+        long start = System.nanoTime();
+        Map<String, EventPartition.Snapshot> snapshots = new LinkedHashMap<String, EventPartition.Snapshot>();
+        Map<String, Integer> sizes = new HashMap<String, Integer>();
+        Map<String, File> spilled = new LinkedHashMap<String, File>();
+        try
+        {
+            lock.lock();
+            try
+            {
+                for (int id = 0; id < partitions.length; id++)
+                {
+                    if (partitions[id] != null && partitions[id].isSpilled())
+                    {
+                        spilled.put(dictionary.nameOf(id), linkSpillFile(id));
+                    }
+                    else if (partitions[id] != null)
+                    {
+                        snapshots.put(dictionary.nameOf(id), partitions[id].snapshot());
+                        sizes.put(dictionary.nameOf(id), partitions[id].size());
+                    }
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            SnapshotFile.write(file, snapshots, sizes, spilled);
+        }
+        finally
+        {
+            for (File link : spilled.values())
+            {
+                Files.deleteIfExists(link.toPath());
+            }
+        }
+        if (LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("Wrote snapshot of {} types, {} of them spilled, to {} in {} ms", snapshots.size() + spilled.size(),
+                spilled.size(), file, (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    /* Returns a new hard link to the spill file of the partition with
+     * the given id, falling back to a copy where links are unsupported.
+     * Snapshots of a spilled partition are copied from this file without
+     * paging it in, and the link keeps the file readable after the lock
+     * is released, even if the partition is paged in and its spill file
+     * deleted meanwhile. Must be called while holding the store lock.
+     */
+    private File linkSpillFile(int id) throws IOException
+    {
+        File link = nextSpillFile(id, ".snapshot");
+        try
+        {
+            Files.createLink(link.toPath(), partitions[id].spillFile().toPath());
+        }
+        catch (UnsupportedOperationException | IOException e)
+        {
+            Files.copy(partitions[id].spillFile().toPath(), link.toPath());
+        }
+        return link;
+    }
+
+    /* Returns a file of the spill directory of this store no other file
+     * uses. Must be called while holding the store lock.
+     */
+    private File nextSpillFile(int id, String suffix)
+    {
+        return new File(spillDirectory, id + "-" + (++spillFileSequence) + suffix);
+    }
+
+    /* Creates a LIVE store holding the events of a snapshot written by
+     * writeSnapshot.
+     */
+    public static EventStoreClass restore(File file) throws IOException
+    {
+        return restore(file, QueryMode.LIVE);
     }
-}
 
+    /* Creates a store of the given mode holding the events of a snapshot
+     * written by writeSnapshot. Partitions are decoded straight into their
+     * final sorted arrays, no event goes through insert.
+     */
+    public static EventStoreClass restore(File file, QueryMode queryMode) throws IOException
+    {
+        long start = System.nanoTime();
+        EventStoreClass store = new EventStoreClass(queryMode);
+        Map<String, EventPartition> restored = SnapshotFile.read(file);
+        store.lock.lock();
+        try
+        {
+            for (Map.Entry<String, EventPartition> partition : restored.entrySet())
+            {
+                int id = store.dictionary.idOf(partition.getKey());
+                store.partitionFor(id);
+                store.partitions[id] = partition.getValue();
+            }
+        }
+        finally
+        {
+            store.lock.unlock();
+        }
+        if (LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("Restored {} types from {} in {} ms", restored.size(), file, (System.nanoTime() - start) / 1000000);
+        }
+        return store;
+    }
 
+    /* Returns the partition of the type with the given id, or null if
+     * it has no events or the id is -1, as returned by the dictionary for
+     * unknown types. Must be called while holding the store lock.
+     */
+    private EventPartition partitionOf(int id)
+    {
+        EventPartition partition = id >= 0 && id < partitions.length ? partitions[id] : null;
+        if (partition != null)
+        {
+            accessed(id, partition);
+        }
+        return partition;
+    }
+
+    /* Returns the partition of the type with the given id, creating it,
+     * and growing the partitions array if needed, on the first event of
+     * that type. Must be called while holding the store lock.
+     */
+    private EventPartition partitionFor(int id)
+    {
+        if (id >= partitions.length)
+        {
+            partitions = Arrays.copyOf(partitions, Math.max(id + 1, partitions.length * 2));
+        }
+        EventPartition partition = partitions[id];
+        if (partition == null)
+        {
+            partition = new EventPartition();
+            partitions[id] = partition;
+        }
+        accessed(id, partition);
+        return partition;
+    }
+
+    /* Records an access to a partition for the memory budget, paging it
+     * in if it was spilled. Must be called while holding the store lock.
+     */
+    private void accessed(int id, EventPartition partition)
+    {
+        if (memoryBudget == Long.MAX_VALUE)
+        {
+            return;
+        }
+        if (id >= lastUsed.length)
+        {
+            lastUsed = Arrays.copyOf(lastUsed, Math.max(id + 1, partitions.length));
+        }
+        lastUsed[id] = ++accessClock;
+        boolean spilled = partition.isSpilled();
+        if (spilled)
+        {
+            partition.ensureResident();
+        }
+        if (spilled || ++accessesSinceCheck >= BUDGET_CHECK_INTERVAL)
+        {
+            accessesSinceCheck = 0;
+            enforceBudget(id);
+        }
+    }
+
+    /* Spills the least recently accessed partitions, except the one with
+     * the given id, while the resident ones exceed the memory budget.
+     * A failure to spill is logged and ends the pass, leaving the store
+     * over its budget rather than failing the access that triggered it.
+     * Must be called while holding the store lock.
+     */
+    private void enforceBudget(int accessedId)
+    {
+        long usage = memoryUsageLocked();
+        while (usage > memoryBudget)
+        {
+            int victim = -1;
+            for (int id = 0; id < partitions.length; id++)
+            {
+                if (id != accessedId && partitions[id] != null && !partitions[id].isSpilled()
+                    && (victim < 0 || lastUsed[id] < lastUsed[victim]))
+                {
+                    victim = id;
+                }
+            }
+            if (victim < 0)
+            {
+                return;
+            }
+            long estimate = partitions[victim].memoryEstimate();
+            try
+            {
+                partitions[victim].spill(nextSpillFile(victim, ".spill"), dictionary.nameOf(victim));
+            }
+            catch (IOException e)
+            {
+                LOGGER.error("Could not spill events of type " + dictionary.nameOf(victim), e);
+                return;
+            }
+            spills++;
+            usage -= estimate - partitions[victim].memoryEstimate();
+            if (LOGGER.isDebugEnabled())
+            {
+                LOGGER.debug("Spilled {} events of type {} to disk", partitions[victim].size(), dictionary.nameOf(victim));
+            }
+        }
+    }
+
+    /* Must be called while holding the store lock */
+    private long memoryUsageLocked()
+    {
+        long usage = 0;
+        for (EventPartition partition : partitions)
+        {
+            if (partition != null)
+            {
+                usage += partition.memoryEstimate();
+            }
+        }
+        return usage;
+    }
+
+    /* Returns the estimated bytes held by the partitions in memory,
+     * which the memory budget applies to.
+     */
+    public long memoryUsage()
+    {
+        lock.lock();
+        try
+        {
+            return memoryUsageLocked();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Returns the memory budget, Long.MAX_VALUE when there is none */
+    public long memoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /* Returns the number of types whose events are currently on disk */
+    public int spilledTypeCount()
+    {
+        lock.lock();
+        try
+        {
+            int count = 0;
+            for (EventPartition partition : partitions)
+            {
+                if (partition != null && partition.isSpilled())
+                {
+                    count++;
+                }
+            }
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Returns the number of times a partition was spilled to disk */
+    public long spillCount()
+    {
+        lock.lock();
+        try
+        {
+            return spills;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Returns the metrics of this store: operation counters and
+     * latencies, lock waits, and per type event counts and memory
+     * estimates. Register them with EventStoreMetrics.register to read
+     * them through JMX.
+     */
+    public EventStoreMetrics metrics()
+    {
+        return metrics;
+    }
+}
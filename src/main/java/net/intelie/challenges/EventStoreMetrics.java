@@ -0,0 +1,229 @@
+package net.intelie.challenges;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class EventStoreMetrics implements EventStoreMetricsMXBean
+{
+    /*
+     * Operation counters, latency histograms and per type statistics of
+     * a store. Counters are LongAdders, which spread concurrent updates
+     * over separate cells, so recording never becomes a point of
+     * contention between threads that would not otherwise contend, and
+     * stays on all the time. Iterators count the events they scan and
+     * return on their own and add them here once per window or when they
+     * finish, not once per event. Queries only build a lazy iterator, so
+     * the query latency covers that alone, and the time spent reading
+     * events is recorded by the iterators as fetch latency, once per
+     * window they read from the store.
+     * Per type statistics are not recorded: they are read from the store
+     * when asked for, through its TypeStatistics.
+     */
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder removeAlls = new LongAdder();
+    private final LongAdder removedEvents = new LongAdder();
+    private final LongAdder eventsScanned = new LongAdder();
+    private final LongAdder eventsReturned = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+
+    private final LatencyHistogram insertLatency = new LatencyHistogram();
+    private final LatencyHistogram insertAllLatency = new LatencyHistogram();
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+    private final LatencyHistogram fetchLatency = new LatencyHistogram();
+    private final LatencyHistogram removeAllLatency = new LatencyHistogram();
+    private final LatencyHistogram lockWaitLatency = new LatencyHistogram();
+
+    private final TypeStatistics typeStatistics;
+
+    /* Source of the per type statistics, implemented by the store */
+    interface TypeStatistics
+    {
+        /* Number of stored events of every type */
+        Map<String, Long> eventCounts();
+
+        /* Estimated bytes held by the events of every type */
+        Map<String, Long> memoryEstimates();
+    }
+
+    EventStoreMetrics(TypeStatistics typeStatistics)
+    {
+        this.typeStatistics = typeStatistics;
+    }
+
+    void recordInsert(long nanos)
+    {
+        inserts.increment();
+        insertLatency.record(nanos);
+    }
+
+    void recordInsertAll(int count, long nanos)
+    {
+        inserts.add(count);
+        insertAllLatency.record(nanos);
+    }
+
+    void recordQuery(long nanos)
+    {
+        queries.increment();
+        queryLatency.record(nanos);
+    }
+
+    void recordRemoveAll(long removed, long nanos)
+    {
+        removeAlls.increment();
+        removedEvents.add(removed);
+        removeAllLatency.record(nanos);
+    }
+
+    void recordRemove()
+    {
+        removedEvents.increment();
+    }
+
+    void recordRemoved(long removed)
+    {
+        removedEvents.add(removed);
+    }
+
+    void recordScan(long scanned, long returned)
+    {
+        eventsScanned.add(scanned);
+        eventsReturned.add(returned);
+    }
+
+    /* Records a window read by an iterator and the time it took */
+    void recordFetch(long scanned, long returned, long nanos)
+    {
+        recordScan(scanned, returned);
+        fetchLatency.record(nanos);
+    }
+
+    void recordLockWait(long nanos)
+    {
+        lockWaitNanos.add(nanos);
+        lockWaitLatency.record(nanos);
+    }
+
+    /* Registers these metrics in the platform MBean server, under
+     * net.intelie.challenges:type=EventStore,name=<name>, and returns
+     * the name they were registered with.
+     */
+    public ObjectName register(String name) throws JMException
+    {
+        ObjectName objectName = new ObjectName("net.intelie.challenges:type=EventStore,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /* Removes the metrics registered under the given name, if any */
+    public static void unregister(ObjectName objectName) throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName))
+        {
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    @Override
+    public long getInserts()
+    {
+        return inserts.sum();
+    }
+
+    @Override
+    public long getQueries()
+    {
+        return queries.sum();
+    }
+
+    @Override
+    public long getRemoveAlls()
+    {
+        return removeAlls.sum();
+    }
+
+    @Override
+    public long getRemovedEvents()
+    {
+        return removedEvents.sum();
+    }
+
+    @Override
+    public long getEventsScanned()
+    {
+        return eventsScanned.sum();
+    }
+
+    @Override
+    public long getEventsReturned()
+    {
+        return eventsReturned.sum();
+    }
+
+    @Override
+    public long getLockWaits()
+    {
+        return lockWaitLatency.count();
+    }
+
+    @Override
+    public long getLockWaitNanos()
+    {
+        return lockWaitNanos.sum();
+    }
+
+    @Override
+    public Map<String, Long> getInsertLatency()
+    {
+        return insertLatency.summary();
+    }
+
+    @Override
+    public Map<String, Long> getInsertAllLatency()
+    {
+        return insertAllLatency.summary();
+    }
+
+    @Override
+    public Map<String, Long> getQueryLatency()
+    {
+        return queryLatency.summary();
+    }
+
+    @Override
+    public Map<String, Long> getFetchLatency()
+    {
+        return fetchLatency.summary();
+    }
+
+    @Override
+    public Map<String, Long> getRemoveAllLatency()
+    {
+        return removeAllLatency.summary();
+    }
+
+    @Override
+    public Map<String, Long> getLockWaitLatency()
+    {
+        return lockWaitLatency.summary();
+    }
+
+    @Override
+    public Map<String, Long> getEventCountsByType()
+    {
+        return typeStatistics.eventCounts();
+    }
+
+    @Override
+    public Map<String, Long> getMemoryEstimatesByType()
+    {
+        return typeStatistics.memoryEstimates();
+    }
+}
@@ -0,0 +1,98 @@
+package net.intelie.challenges;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link EventStoreMetrics}, readable through
+ * JMX once registered with {@link EventStoreMetrics#register(String)}.
+ * <p>
+ * Counters are totals since the store was created. Latencies are in
+ * nanoseconds, summarized as a map holding the count, mean, p50, p90,
+ * p99, p999 and max of the recorded values.
+ */
+public interface EventStoreMetricsMXBean {
+    /**
+     * @return Number of events inserted, one by one or in batches.
+     */
+    long getInserts();
+
+    /**
+     * @return Number of queries made.
+     */
+    long getQueries();
+
+    /**
+     * @return Number of removeAll calls.
+     */
+    long getRemoveAlls();
+
+    /**
+     * @return Number of events removed, by removeAll or through iterators.
+     */
+    long getRemovedEvents();
+
+    /**
+     * @return Number of storage slots walked by iterators, including
+     * the ones of removed events waiting to be compacted.
+     */
+    long getEventsScanned();
+
+    /**
+     * @return Number of events handed out by iterators.
+     */
+    long getEventsReturned();
+
+    /**
+     * @return Number of times a thread had to wait for the store lock.
+     */
+    long getLockWaits();
+
+    /**
+     * @return Total time spent waiting for the store lock, in nanoseconds.
+     */
+    long getLockWaitNanos();
+
+    /**
+     * @return Latency summary of single event inserts.
+     */
+    Map<String, Long> getInsertLatency();
+
+    /**
+     * @return Latency summary of batch inserts, per batch.
+     */
+    Map<String, Long> getInsertAllLatency();
+
+    /**
+     * @return Latency summary of queries, until the iterator is returned.
+     * Iterators read events lazily, so this does not include reading
+     * them, see {@link #getFetchLatency()}.
+     */
+    Map<String, Long> getQueryLatency();
+
+    /**
+     * @return Latency summary of the windows of events read by iterators
+     * from the store, lock wait included.
+     */
+    Map<String, Long> getFetchLatency();
+
+    /**
+     * @return Latency summary of removeAll calls.
+     */
+    Map<String, Long> getRemoveAllLatency();
+
+    /**
+     * @return Summary of the time spent by threads that had to wait
+     * for the store lock.
+     */
+    Map<String, Long> getLockWaitLatency();
+
+    /**
+     * @return Number of stored events of every type.
+     */
+    Map<String, Long> getEventCountsByType();
+
+    /**
+     * @return Estimated memory held by the events of every type, in bytes.
+     */
+    Map<String, Long> getMemoryEstimatesByType();
+}
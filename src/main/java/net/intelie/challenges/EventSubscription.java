@@ -0,0 +1,217 @@
+package net.intelie.challenges;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Subscription of one subscriber to the events of one type inserted
+ * into a PublishingEventStoreClass, delivered in batches.
+ * Inserting threads only append the event to a bounded buffer and make
+ * sure a drain task is scheduled on the executor, so they never wait for
+ * the subscriber. The drain task hands the buffered events over in
+ * batches of up to maxBatchSize, one batch per unit of demand, and is
+ * never run by two threads at once (the work-in-progress counter lets
+ * the thread that moves it from zero run it, and makes that thread loop
+ * again if more work arrived meanwhile), so the subscriber is always
+ * signalled serially, as the Flow contract requires.
+ * A subscriber that falls more than bufferCapacity events behind would
+ * make the buffer grow without bound, so it is cancelled and receives
+ * onError instead.
+ */
+class EventSubscription implements Flow.Subscription, Runnable
+{
+    private final PublishingEventStoreClass publisher;
+    private final Flow.Subscriber<? super List<Event>> subscriber;
+    final String type;
+    private final long startTime;
+    private final long endTime;
+    private final Executor executor;
+    private final int bufferCapacity;
+    private final int maxBatchSize;
+
+    /* Guarded by its own monitor */
+    private final ArrayDeque<Event> buffer = new ArrayDeque<Event>();
+    private boolean overflowed = false;
+
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger workInProgress = new AtomicInteger();
+    private volatile boolean cancelled = false;
+    private Throwable pendingError = null;
+
+    EventSubscription(PublishingEventStoreClass publisher, Flow.Subscriber<? super List<Event>> subscriber, String type,
+        long startTime, long endTime, Executor executor, int bufferCapacity, int maxBatchSize)
+    {
+        this.publisher = publisher;
+        this.subscriber = subscriber;
+        this.type = type;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.executor = executor;
+        this.bufferCapacity = bufferCapacity;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /* Buffers a newly inserted event of the subscribed type, if it falls
+     * in the time filter, and schedules its delivery.
+     */
+    void offer(Event event)
+    {
+        if (cancelled || event.timestamp() < startTime || event.timestamp() >= endTime)
+        {
+            return;
+        }
+        synchronized (buffer)
+        {
+            if (buffer.size() < bufferCapacity)
+            {
+                buffer.add(event);
+            }
+            else
+            {
+                overflowed = true;
+            }
+        }
+        schedule();
+    }
+
+    /* Requests n more batches. A non positive n is a subscriber bug,
+     * reported through onError as the Flow contract requires.
+     */
+    @Override
+    public void request(long n)
+    {
+        if (n <= 0)
+        {
+            pendingError = new IllegalArgumentException("Non positive number of batches requested: " + n);
+        }
+        else
+        {
+            long current;
+            do
+            {
+                current = demand.get();
+            }
+            while (current != Long.MAX_VALUE && !demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+        }
+        schedule();
+    }
+
+    @Override
+    public void cancel()
+    {
+        if (!cancelled)
+        {
+            cancelled = true;
+            publisher.unregister(this);
+            schedule();
+        }
+    }
+
+    boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /* Drain loop, see the class comment */
+    @Override
+    public void run()
+    {
+        int missed = 1;
+        while (true)
+        {
+            drain();
+            missed = workInProgress.addAndGet(-missed);
+            if (missed == 0)
+            {
+                return;
+            }
+        }
+    }
+
+    private void schedule()
+    {
+        if (workInProgress.getAndIncrement() == 0)
+        {
+            executor.execute(this);
+        }
+    }
+
+    private void drain()
+    {
+        if (cancelled)
+        {
+            clear();
+            return;
+        }
+        Throwable error = pendingError;
+        if (error == null)
+        {
+            synchronized (buffer)
+            {
+                if (overflowed)
+                {
+                    error = new IllegalStateException("Subscriber fell more than " + bufferCapacity + " events behind on " + type);
+                }
+            }
+        }
+        if (error != null)
+        {
+            fail(error);
+            return;
+        }
+
+        while (!cancelled && demand.get() > 0)
+        {
+            List<Event> batch;
+            synchronized (buffer)
+            {
+                if (buffer.isEmpty())
+                {
+                    return;
+                }
+                batch = new ArrayList<Event>(Math.min(buffer.size(), maxBatchSize));
+                while (batch.size() < maxBatchSize && !buffer.isEmpty())
+                {
+                    batch.add(buffer.poll());
+                }
+            }
+            if (demand.get() != Long.MAX_VALUE)
+            {
+                demand.decrementAndGet();
+            }
+            try
+            {
+                subscriber.onNext(batch);
+            }
+            catch (Throwable t)
+            {
+                /* A failing subscriber is in a broken state, the only
+                 * sensible thing left is to stop delivering to it
+                 */
+                cancel();
+                clear();
+                return;
+            }
+        }
+    }
+
+    private void fail(Throwable error)
+    {
+        cancel();
+        clear();
+        subscriber.onError(error);
+    }
+
+    private void clear()
+    {
+        synchronized (buffer)
+        {
+            buffer.clear();
+        }
+    }
+}
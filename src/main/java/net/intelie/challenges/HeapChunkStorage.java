@@ -0,0 +1,89 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+
+/*
+ * Chunk storage backed by plain long[] arrays on the heap.
+ * Up to MAX_POOLED_CHUNKS freed chunks are kept for reuse instead of left
+ * to the GC, since partitions keep allocating and freeing chunks as they
+ * split and drain. Chunks freed beyond that are released, so heap use
+ * drops after a removeAll; their handles are still reused, getting a new
+ * array when allocated again.
+ */
+class HeapChunkStorage implements ChunkStorage
+{
+    private long[][] chunks = new long[16][];
+    private int chunkCount = 0;
+    private int[] freeHandles = new int[16];
+    private int freeCount = 0;
+    private int pooledCount = 0;
+
+    /* Freed chunks whose arrays are kept, 1MB of longs at most */
+    static final int MAX_POOLED_CHUNKS = 128;
+
+    @Override
+    public int allocate()
+    {
+        if (freeCount > 0)
+        {
+            int handle = freeHandles[--freeCount];
+            if (chunks[handle] == null)
+            {
+                chunks[handle] = new long[ColumnarPartition.CHUNK_CAPACITY];
+            }
+            else
+            {
+                pooledCount--;
+            }
+            return handle;
+        }
+        if (chunkCount == chunks.length)
+        {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        chunks[chunkCount] = new long[ColumnarPartition.CHUNK_CAPACITY];
+        return chunkCount++;
+    }
+
+    @Override
+    public void free(int handle)
+    {
+        if (freeCount == freeHandles.length)
+        {
+            freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+        }
+        freeHandles[freeCount++] = handle;
+        if (pooledCount < MAX_POOLED_CHUNKS)
+        {
+            pooledCount++;
+        }
+        else
+        {
+            chunks[handle] = null;
+        }
+    }
+
+    /* Number of freed chunks still holding their array, ready for reuse */
+    int pooledChunkCount()
+    {
+        return pooledCount;
+    }
+
+    @Override
+    public long get(int handle, int offset)
+    {
+        return chunks[handle][offset];
+    }
+
+    @Override
+    public void set(int handle, int offset, long value)
+    {
+        chunks[handle][offset] = value;
+    }
+
+    @Override
+    public void copy(int sourceHandle, int sourceOffset, int targetHandle, int targetOffset, int length)
+    {
+        System.arraycopy(chunks[sourceHandle], sourceOffset, chunks[targetHandle], targetOffset, length);
+    }
+}
@@ -0,0 +1,148 @@
+package net.intelie.challenges;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Log-linear histogram of latencies in nanoseconds, in the spirit of
+ * HdrHistogram: every power of two range is split in SUB_BUCKETS linear
+ * buckets, so a recorded value is known within 1 / SUB_BUCKETS (12.5%)
+ * of its magnitude, over the whole range of long, with a fixed set of
+ * 488 buckets.
+ * Every bucket is a LongAdder, so concurrent threads recording into the
+ * same bucket update separate cells instead of contending on one
+ * counter, and a LongAdder that is never contended stays a single
+ * field. Recording is a few shifts and one add, cheap enough to stay
+ * on in production. Reads are not atomic with respect to recording,
+ * which is fine for monitoring.
+ */
+class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /* Percentiles reported by summary, with their names */
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+
+    LatencyHistogram()
+    {
+        for (int index = 0; index < BUCKETS; index++)
+        {
+            buckets[index] = new LongAdder();
+        }
+    }
+
+    /* Records one value, negative values count as zero */
+    void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        buckets[indexOf(value)].increment();
+        total.add(value);
+    }
+
+    long count()
+    {
+        long count = 0;
+        for (LongAdder bucket : buckets)
+        {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /* Returns the highest value equivalent to the one at the given
+     * percentile (between 0 and 1), or 0 when nothing was recorded.
+     */
+    long percentile(double percentile)
+    {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int index = 0; index < BUCKETS; index++)
+        {
+            counts[index] = buckets[index].sum();
+            count += counts[index];
+        }
+        return percentile(counts, count, percentile);
+    }
+
+    /* Count, mean, max and the usual percentiles, read from one pass over
+     * the buckets so they are consistent with each other.
+     */
+    Map<String, Long> summary()
+    {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        int highest = -1;
+        for (int index = 0; index < BUCKETS; index++)
+        {
+            counts[index] = buckets[index].sum();
+            count += counts[index];
+            if (counts[index] > 0)
+            {
+                highest = index;
+            }
+        }
+        Map<String, Long> summary = new LinkedHashMap<String, Long>();
+        summary.put("count", count);
+        summary.put("mean", count == 0 ? 0 : total.sum() / count);
+        for (int index = 0; index < PERCENTILES.length; index++)
+        {
+            summary.put(PERCENTILE_NAMES[index], percentile(counts, count, PERCENTILES[index]));
+        }
+        summary.put("max", highest < 0 ? 0 : highestValueOf(highest));
+        return summary;
+    }
+
+    private static long percentile(long[] counts, long count, double percentile)
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++)
+        {
+            seen += counts[index];
+            if (seen >= rank)
+            {
+                return highestValueOf(index);
+            }
+        }
+        return highestValueOf(counts.length - 1);
+    }
+
+    /* Values below SUB_BUCKETS get a bucket each. Above that, the
+     * position of the highest bit selects the power of two range and the
+     * SUB_BUCKET_BITS bits right after it select the bucket in the range.
+     */
+    static int indexOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /* Highest value that falls in the bucket at the given index */
+    static long highestValueOf(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = SUB_BUCKETS + index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return subBucket * width + width - 1;
+    }
+}
@@ -0,0 +1,166 @@
+package net.intelie.challenges;
+
+public class MappedEventIteratorClass implements EventIterator
+{
+    /* Number of records fetched from the segments every time
+     * the store lock is taken.
+     */
+    private static final int WINDOW_SIZE = 64;
+
+    /* Cursor over the records of a mapped partition whose timestamp lies
+     * in [startTime, endTime), in insertion order.
+     * Segments are append-only, so a (segment, record) position never
+     * changes and doubles as the handle remove uses to tombstone the
+     * current record in O(1). Timestamps are read from the mapped pages
+     * in windows, and an Event is only created when current is called.
+     */
+    private final Object lock;
+    private MappedPartition partition;
+    private final long startTime;
+    private final long endTime;
+    private int segment = 0;
+    private int record = 0;
+
+    private long[] window = new long[WINDOW_SIZE];
+    private int[] windowSegments = new int[WINDOW_SIZE];
+    private int[] windowRecords = new int[WINDOW_SIZE];
+    private int windowSize = 0;
+    private int windowIndex = 0;
+    private boolean hasCurrent = false;
+    private Event currentEvent = null;
+
+    /* Constructor of MappedEventIteratorClass, it takes the partition to
+     * walk, the lock guarding it and the queried time range. A null
+     * partition means there are no events of the queried type.
+     */
+    MappedEventIteratorClass(Object lock, MappedPartition partition, long startTime, long endTime)
+    {
+        this.lock = lock;
+        this.partition = startTime < endTime ? partition : null;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /* Moves to the next record of the window, fetching a new window
+     * from the segments once the current one is consumed.
+     */
+    @Override
+    public boolean moveNext()
+    {
+        currentEvent = null;
+        if (windowIndex + 1 < windowSize)
+        {
+            windowIndex++;
+            hasCurrent = true;
+            return true;
+        }
+        windowSize = 0;
+        if (partition != null)
+        {
+            synchronized (lock)
+            {
+                if (!partition.isReleased())
+                {
+                    fill();
+                }
+            }
+        }
+        windowIndex = 0;
+        hasCurrent = windowSize > 0;
+        if (!hasCurrent)
+        {
+            partition = null;
+        }
+        return hasCurrent;
+    }
+
+    /* Returns the current event, creating it on the first call for
+     * the current position.
+     */
+    @Override
+    public Event current()
+    {
+        if (!hasCurrent)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        if (currentEvent == null)
+        {
+            currentEvent = new Event(partition.type, window[windowIndex]);
+        }
+        return currentEvent;
+    }
+
+    /* Tombstones the current record in its segment file */
+    @Override
+    public void remove()
+    {
+        if (!hasCurrent)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        synchronized (lock)
+        {
+            if (!partition.isReleased())
+            {
+                partition.segment(windowSegments[windowIndex]).remove(windowRecords[windowIndex]);
+            }
+        }
+        hasCurrent = false;
+        currentEvent = null;
+    }
+
+    /* Releases the partition and the window */
+    @Override
+    public void close()
+    {
+        partition = null;
+        window = new long[0];
+        windowSize = 0;
+        windowIndex = 0;
+        hasCurrent = false;
+        currentEvent = null;
+    }
+
+    /* Scans the segments from the current position, skipping segments and
+     * blocks whose bounds do not overlap the range, until the window is
+     * full or the last record is reached.
+     * Must be called while holding the store lock.
+     */
+    private void fill()
+    {
+        while (windowSize < window.length && segment < partition.segmentCount())
+        {
+            MappedSegment current = partition.segment(segment);
+            if (record == 0 && current.skip(startTime, endTime) && segment + 1 < partition.segmentCount())
+            {
+                segment++;
+                continue;
+            }
+            int count = current.count();
+            while (record < count && windowSize < window.length)
+            {
+                if (record % MappedSegment.BLOCK_RECORDS == 0 && current.skipBlock(record / MappedSegment.BLOCK_RECORDS, startTime, endTime))
+                {
+                    record = Math.min(record + MappedSegment.BLOCK_RECORDS, count);
+                    continue;
+                }
+                long timestamp = current.timestampAt(record);
+                if (timestamp >= startTime && timestamp < endTime && !current.isRemoved(record))
+                {
+                    window[windowSize] = timestamp;
+                    windowSegments[windowSize] = segment;
+                    windowRecords[windowSize] = record;
+                    windowSize++;
+                }
+                record++;
+            }
+            if (record < count || segment + 1 == partition.segmentCount())
+            {
+                return;
+            }
+            segment++;
+            record = 0;
+        }
+    }
+}
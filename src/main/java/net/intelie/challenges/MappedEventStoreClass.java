@@ -0,0 +1,442 @@
+package net.intelie.challenges;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+
+public class MappedEventStoreClass implements EventStore
+{
+    /* Default number of records per segment file, about 520KB per file */
+    public static final int DEFAULT_SEGMENT_CAPACITY = 1 << 16;
+
+    /*
+     * File backed store: the events of every type are appended to
+     * memory-mapped segment files in a directory of their own, holding
+     * the type name and the segments (see MappedSegment).
+     * Inserts and queries read and write the mapped pages directly, with
+     * no copy through the heap and no system call; the operating system
+     * writes the pages back to disk, and flush forces it to do so.
+     * Reopening a directory maps the existing segments again, trusting
+     * the counts and block indexes kept in their headers, so no insert is
+     * replayed on restart.
+     * Segments are append-only: an iterator returns the events of a type
+     * in insertion order, unlike the other stores, which is timestamp
+     * order whenever events are inserted in order, and skips whole
+     * segments and blocks of 128 records whose timestamp bounds do not
+     * overlap the queried range. Segments record whether they were
+     * appended in order, so query(Set) merges the iterators of the types
+     * lazily when they all are, and otherwise sorts the records of the
+     * range up front (see SortedMappedEventIteratorClass).
+     * Aggregations read the block index instead of walking the events:
+     * a block within the range and with no removed record is counted,
+     * and gives its bounds, without reading its records; only the blocks
+     * straddling a bound of the range, or with removed records, are
+     * scanned. Blocks that can not improve the current first or last
+     * timestamp are not scanned either, whatever the insertion order.
+     * Every access to the partitions is guarded by the monitor of this store.
+     */
+    private final File directory;
+    private final int segmentCapacity;
+    private final Map<String, MappedPartition> partitions = new HashMap<String, MappedPartition>();
+    private int nextDirectory = 0;
+
+    /* Opens the store kept in the given directory, creating it if needed */
+    public MappedEventStoreClass(File directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    /* Opens the store kept in the given directory, creating new segments
+     * with room for segmentCapacity records. Existing segments keep the
+     * capacity they were created with.
+     */
+    public MappedEventStoreClass(File directory, int segmentCapacity) throws IOException
+    {
+        if (segmentCapacity <= 0)
+        {
+            throw new IllegalArgumentException("Segment capacity must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Could not create store directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentCapacity = segmentCapacity;
+
+        File[] typeDirectories = directory.listFiles();
+        for (File typeDirectory : typeDirectories != null ? typeDirectories : new File[0])
+        {
+            File typeFile = new File(typeDirectory, MappedPartition.TYPE_FILE);
+            if (!typeDirectory.getName().matches("[0-9]+") || !typeFile.isFile())
+            {
+                continue;
+            }
+            String type = new String(Files.readAllBytes(typeFile.toPath()), StandardCharsets.UTF_8);
+            partitions.put(type, new MappedPartition(type, typeDirectory, segmentCapacity));
+            nextDirectory = Math.max(nextDirectory, Integer.parseInt(typeDirectory.getName()) + 1);
+        }
+    }
+
+    /* Appends the event timestamp to the last segment of its type */
+    @Override
+    public synchronized void insert(Event event)
+    {
+        try
+        {
+            MappedPartition partition = partitions.get(event.type());
+            if (partition == null)
+            {
+                partition = createPartition(event.type());
+                partitions.put(event.type(), partition);
+            }
+            partition.append(event.timestamp());
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* Deletes the segment files of the given type.
+     * Iterators still open over that type stop at their next fetch.
+     */
+    @Override
+    public synchronized void removeAll(String type)
+    {
+        MappedPartition partition = partitions.remove(type);
+        if (partition != null)
+        {
+            partition.release();
+        }
+    }
+
+    /* Returns a lazy iterator over the events of the given type whose
+     * timestamp lies in [startTime, endTime), in insertion order.
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime)
+    {
+        MappedPartition partition;
+        synchronized (this)
+        {
+            partition = partitions.get(type);
+        }
+        return new MappedEventIteratorClass(this, partition, startTime, endTime);
+    }
+
+    /* Returns the events of the given types in timestamp order, merging
+     * the iterators of the types when every one of them is in order, and
+     * otherwise sorting handles to the records of the range, collected
+     * now, so that removals made after the query are not seen.
+     */
+    @Override
+    public EventIterator query(Set<String> types, long startTime, long endTime)
+    {
+        List<MappedPartition> selected = new ArrayList<MappedPartition>();
+        synchronized (this)
+        {
+            boolean ordered = true;
+            for (String type : types)
+            {
+                MappedPartition partition = partitions.get(type);
+                if (partition != null)
+                {
+                    selected.add(partition);
+                    ordered &= partition.isOrdered();
+                }
+            }
+            if (!ordered && startTime < endTime)
+            {
+                return sortedQuery(selected.toArray(new MappedPartition[0]), startTime, endTime);
+            }
+        }
+        return EventStore.super.query(types, startTime, endTime);
+    }
+
+    @Override
+    public synchronized long count(String type, long startTime, long endTime)
+    {
+        MappedPartition partition = partitions.get(type);
+        long count = 0;
+        for (int segmentIndex = 0; partition != null && segmentIndex < partition.segmentCount(); segmentIndex++)
+        {
+            MappedSegment segment = partition.segment(segmentIndex);
+            if (segment.skip(startTime, endTime))
+            {
+                continue;
+            }
+            for (int block = 0; block < segment.blockCount(); block++)
+            {
+                if (segment.skipBlock(block, startTime, endTime))
+                {
+                    continue;
+                }
+                if (isWhole(segment, block, startTime, endTime))
+                {
+                    count += segment.blockRecords(block);
+                    continue;
+                }
+                int first = block * MappedSegment.BLOCK_RECORDS;
+                for (int record = first; record < first + segment.blockRecords(block); record++)
+                {
+                    if (isLive(segment, record, startTime, endTime))
+                    {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /* Lowest timestamp of the range, which is not the first event
+     * returned by query when the events were not inserted in order
+     */
+    @Override
+    public synchronized OptionalLong firstTimestamp(String type, long startTime, long endTime)
+    {
+        MappedPartition partition = partitions.get(type);
+        boolean found = false;
+        long first = Long.MAX_VALUE;
+        for (int segmentIndex = 0; partition != null && segmentIndex < partition.segmentCount(); segmentIndex++)
+        {
+            MappedSegment segment = partition.segment(segmentIndex);
+            if (segment.skip(startTime, endTime) || (found && segment.minTimestamp() >= first))
+            {
+                continue;
+            }
+            for (int block = 0; block < segment.blockCount(); block++)
+            {
+                if (segment.skipBlock(block, startTime, endTime) || (found && segment.blockMin(block) >= first))
+                {
+                    continue;
+                }
+                if (isWhole(segment, block, startTime, endTime))
+                {
+                    found = true;
+                    first = segment.blockMin(block);
+                    continue;
+                }
+                int firstRecord = block * MappedSegment.BLOCK_RECORDS;
+                for (int record = firstRecord; record < firstRecord + segment.blockRecords(block); record++)
+                {
+                    if (isLive(segment, record, startTime, endTime) && (!found || segment.timestampAt(record) < first))
+                    {
+                        found = true;
+                        first = segment.timestampAt(record);
+                    }
+                }
+            }
+        }
+        return found ? OptionalLong.of(first) : OptionalLong.empty();
+    }
+
+    /* Highest timestamp of the range, which is not the last event
+     * returned by query when the events were not inserted in order
+     */
+    @Override
+    public synchronized OptionalLong lastTimestamp(String type, long startTime, long endTime)
+    {
+        MappedPartition partition = partitions.get(type);
+        boolean found = false;
+        long last = Long.MIN_VALUE;
+        for (int segmentIndex = 0; partition != null && segmentIndex < partition.segmentCount(); segmentIndex++)
+        {
+            MappedSegment segment = partition.segment(segmentIndex);
+            if (segment.skip(startTime, endTime) || (found && segment.maxTimestamp() <= last))
+            {
+                continue;
+            }
+            for (int block = 0; block < segment.blockCount(); block++)
+            {
+                if (segment.skipBlock(block, startTime, endTime) || (found && segment.blockMax(block) <= last))
+                {
+                    continue;
+                }
+                if (isWhole(segment, block, startTime, endTime))
+                {
+                    found = true;
+                    last = segment.blockMax(block);
+                    continue;
+                }
+                int firstRecord = block * MappedSegment.BLOCK_RECORDS;
+                for (int record = firstRecord; record < firstRecord + segment.blockRecords(block); record++)
+                {
+                    if (isLive(segment, record, startTime, endTime) && (!found || segment.timestampAt(record) > last))
+                    {
+                        found = true;
+                        last = segment.timestampAt(record);
+                    }
+                }
+            }
+        }
+        return found ? OptionalLong.of(last) : OptionalLong.empty();
+    }
+
+    /* Blocks within the range whose bounds fall in a single bin are
+     * added to it whole
+     */
+    @Override
+    public synchronized long[] histogram(String type, long startTime, long endTime, long interval)
+    {
+        long[] counts = new long[Aggregations.binCount(startTime, endTime, interval)];
+        MappedPartition partition = partitions.get(type);
+        for (int segmentIndex = 0; partition != null && segmentIndex < partition.segmentCount(); segmentIndex++)
+        {
+            MappedSegment segment = partition.segment(segmentIndex);
+            if (segment.skip(startTime, endTime))
+            {
+                continue;
+            }
+            for (int block = 0; block < segment.blockCount(); block++)
+            {
+                if (segment.skipBlock(block, startTime, endTime))
+                {
+                    continue;
+                }
+                if (isWhole(segment, block, startTime, endTime))
+                {
+                    long bin = Long.divideUnsigned(segment.blockMin(block) - startTime, interval);
+                    if (bin == Long.divideUnsigned(segment.blockMax(block) - startTime, interval))
+                    {
+                        counts[(int) bin] += segment.blockRecords(block);
+                        continue;
+                    }
+                }
+                int first = block * MappedSegment.BLOCK_RECORDS;
+                for (int record = first; record < first + segment.blockRecords(block); record++)
+                {
+                    if (isLive(segment, record, startTime, endTime))
+                    {
+                        counts[(int) Long.divideUnsigned(segment.timestampAt(record) - startTime, interval)]++;
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /* Forces every mapped segment to be written back to disk */
+    public synchronized void flush()
+    {
+        for (MappedPartition partition : partitions.values())
+        {
+            partition.force();
+        }
+    }
+
+    /* Returns the number of events currently held by the store */
+    public synchronized long size()
+    {
+        long size = 0;
+        for (MappedPartition partition : partitions.values())
+        {
+            size += partition.size();
+        }
+        return size;
+    }
+
+    /* Collects the live records of [startTime, endTime) of the given
+     * partitions and sorts them by timestamp, stably, so equal timestamps
+     * keep the order of the partitions and then insertion order.
+     * Must be called while holding the monitor of this store.
+     */
+    private EventIterator sortedQuery(MappedPartition[] selected, long startTime, long endTime)
+    {
+        int count = 0;
+        long[] timestamps = new long[64];
+        int[] owners = new int[64];
+        int[] segments = new int[64];
+        int[] records = new int[64];
+        for (int owner = 0; owner < selected.length; owner++)
+        {
+            for (int segmentIndex = 0; segmentIndex < selected[owner].segmentCount(); segmentIndex++)
+            {
+                MappedSegment segment = selected[owner].segment(segmentIndex);
+                if (segment.skip(startTime, endTime))
+                {
+                    continue;
+                }
+                for (int record = 0; record < segment.count(); record++)
+                {
+                    if (record % MappedSegment.BLOCK_RECORDS == 0 && segment.skipBlock(record / MappedSegment.BLOCK_RECORDS, startTime, endTime))
+                    {
+                        record += MappedSegment.BLOCK_RECORDS - 1;
+                        continue;
+                    }
+                    long timestamp = segment.timestampAt(record);
+                    if (timestamp < startTime || timestamp >= endTime || segment.isRemoved(record))
+                    {
+                        continue;
+                    }
+                    if (count == timestamps.length)
+                    {
+                        timestamps = Arrays.copyOf(timestamps, count * 2);
+                        owners = Arrays.copyOf(owners, count * 2);
+                        segments = Arrays.copyOf(segments, count * 2);
+                        records = Arrays.copyOf(records, count * 2);
+                    }
+                    timestamps[count] = timestamp;
+                    owners[count] = owner;
+                    segments[count] = segmentIndex;
+                    records[count] = record;
+                    count++;
+                }
+            }
+        }
+
+        final long[] unsorted = timestamps;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+        {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> unsorted[i]));
+        long[] sortedTimestamps = new long[count];
+        int[] sortedOwners = new int[count];
+        int[] sortedSegments = new int[count];
+        int[] sortedRecords = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            sortedTimestamps[i] = timestamps[order[i]];
+            sortedOwners[i] = owners[order[i]];
+            sortedSegments[i] = segments[order[i]];
+            sortedRecords[i] = records[order[i]];
+        }
+        return new SortedMappedEventIteratorClass(this, selected, sortedTimestamps, sortedOwners, sortedSegments, sortedRecords, count);
+    }
+
+    /* Whether every record of the block is live and within the range */
+    private static boolean isWhole(MappedSegment segment, int block, long startTime, long endTime)
+    {
+        return segment.blockMin(block) >= startTime && segment.blockMax(block) < endTime && segment.blockRemoved(block) == 0;
+    }
+
+    private static boolean isLive(MappedSegment segment, int record, long startTime, long endTime)
+    {
+        long timestamp = segment.timestampAt(record);
+        return timestamp >= startTime && timestamp < endTime && !segment.isRemoved(record);
+    }
+
+    /* Creates the directory of a new type, recording the type name in it */
+    private MappedPartition createPartition(String type) throws IOException
+    {
+        File typeDirectory = new File(directory, Integer.toString(nextDirectory++));
+        if (!typeDirectory.mkdir())
+        {
+            throw new IOException("Could not create type directory " + typeDirectory);
+        }
+        Files.write(new File(typeDirectory, MappedPartition.TYPE_FILE).toPath(), type.getBytes(StandardCharsets.UTF_8));
+        return new MappedPartition(type, typeDirectory, segmentCapacity);
+    }
+}
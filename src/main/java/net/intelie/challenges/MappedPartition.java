@@ -0,0 +1,122 @@
+package net.intelie.challenges;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Segments holding the events of a single type, in the directory of
+ * that type. Only the last segment receives appends; once it is full a
+ * new one is created. Segments are only ever added at the end, so the
+ * (segment, record) position of an event never changes while the
+ * partition is alive.
+ * This class is not thread safe, the owning store is responsible for
+ * guarding every access.
+ */
+class MappedPartition
+{
+    static final String TYPE_FILE = "type";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    final String type;
+    private final File directory;
+    private final int segmentCapacity;
+    private final List<MappedSegment> segments = new ArrayList<MappedSegment>();
+    private boolean released = false;
+
+    /* Creates the partition over the given directory, mapping every
+     * segment already present there in order.
+     */
+    MappedPartition(String type, File directory, int segmentCapacity) throws IOException
+    {
+        this.type = type;
+        this.directory = directory;
+        this.segmentCapacity = segmentCapacity;
+        for (int index = 0; segmentFile(index).exists(); index++)
+        {
+            segments.add(MappedSegment.open(segmentFile(index)));
+        }
+    }
+
+    /* Appends a timestamp to the last segment, creating one when needed */
+    void append(long timestamp) throws IOException
+    {
+        if (segments.isEmpty() || segments.get(segments.size() - 1).isFull())
+        {
+            segments.add(MappedSegment.create(segmentFile(segments.size()), segmentCapacity));
+        }
+        segments.get(segments.size() - 1).append(timestamp);
+    }
+
+    MappedSegment segment(int index)
+    {
+        return segments.get(index);
+    }
+
+    int segmentCount()
+    {
+        return segments.size();
+    }
+
+    /* Whether the records of every segment, walked in order, are in
+     * timestamp order, so queries return them sorted
+     */
+    boolean isOrdered()
+    {
+        for (int index = 0; index < segments.size(); index++)
+        {
+            MappedSegment segment = segments.get(index);
+            if (!segment.isOrdered()
+                || (index > 0 && segment.count() > 0 && segment.minTimestamp() < segments.get(index - 1).maxTimestamp()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Number of records not removed */
+    long size()
+    {
+        long size = 0;
+        for (MappedSegment segment : segments)
+        {
+            size += segment.liveCount();
+        }
+        return size;
+    }
+
+    /* Writes every segment back to disk */
+    void force()
+    {
+        for (MappedSegment segment : segments)
+        {
+            segment.force();
+        }
+    }
+
+    /* Marks the partition as dropped and deletes its files */
+    void release()
+    {
+        released = true;
+        for (MappedSegment segment : segments)
+        {
+            segment.delete();
+        }
+        segments.clear();
+        new File(directory, TYPE_FILE).delete();
+        directory.delete();
+    }
+
+    boolean isReleased()
+    {
+        return released;
+    }
+
+    private File segmentFile(int index)
+    {
+        return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+}
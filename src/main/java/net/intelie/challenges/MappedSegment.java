@@ -0,0 +1,260 @@
+package net.intelie.challenges;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Append-only file holding the timestamps of events of a single type,
+ * mapped in memory for its whole length.
+ * Layout, in little endian byte order:
+ *   header  (64 bytes): magic, version, capacity, committed record count,
+ *                       min and max timestamp of the segment, count of
+ *                       removed records, whether every record was appended
+ *                       in timestamp order
+ *   index   (16 bytes per block of BLOCK_RECORDS records): min and max
+ *                       timestamp of every block, a sparse index that lets
+ *                       range scans skip whole blocks
+ *   removed (1 bit per record, in longs): set for removed records
+ *   records (8 bytes each): timestamps in insertion order
+ * A record is written before the count that makes it visible, so a
+ * reopened segment never exposes a partially written record. Removed
+ * records keep their timestamp and are marked in the removed bitmap, so
+ * every timestamp can be stored; block bounds are not shrunk on removal,
+ * they remain a valid (if loose) filter.
+ * This class is not thread safe, the owning store is responsible for
+ * guarding every access.
+ */
+class MappedSegment
+{
+    static final int BLOCK_RECORDS = 128;
+
+    private static final int MAGIC = 0x45565347;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int COUNT_OFFSET = 12;
+    private static final int MIN_OFFSET = 16;
+    private static final int MAX_OFFSET = 24;
+    private static final int REMOVED_OFFSET = 32;
+    private static final int ORDERED_OFFSET = 36;
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int removedOffset;
+    private final int recordsOffset;
+    private int count;
+
+    private MappedSegment(File file, MappedByteBuffer buffer, int capacity, int count)
+    {
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.removedOffset = HEADER_BYTES + blockCount(capacity) * 16;
+        this.recordsOffset = removedOffset + bitmapLongs(capacity) * 8;
+        this.count = count;
+    }
+
+    /* Creates a new, empty segment file able to hold capacity records */
+    static MappedSegment create(File file, int capacity) throws IOException
+    {
+        MappedByteBuffer buffer = map(file, HEADER_BYTES + blockCount(capacity) * 16L + bitmapLongs(capacity) * 8L + capacity * 8L);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(COUNT_OFFSET, 0);
+        buffer.putLong(MIN_OFFSET, Long.MAX_VALUE);
+        buffer.putLong(MAX_OFFSET, Long.MIN_VALUE);
+        buffer.putInt(REMOVED_OFFSET, 0);
+        buffer.putInt(ORDERED_OFFSET, 1);
+        return new MappedSegment(file, buffer, capacity, 0);
+    }
+
+    /* Maps an existing segment file, trusting its header */
+    static MappedSegment open(File file) throws IOException
+    {
+        MappedByteBuffer buffer = map(file, file.length());
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+        {
+            throw new IOException("Not an event segment file: " + file);
+        }
+        return new MappedSegment(file, buffer, buffer.getInt(CAPACITY_OFFSET), buffer.getInt(COUNT_OFFSET));
+    }
+
+    boolean isFull()
+    {
+        return count == capacity;
+    }
+
+    /* Appends a timestamp, updating the block and segment bounds,
+     * and only then the committed count.
+     */
+    void append(long timestamp)
+    {
+        int index = count;
+        buffer.putLong(recordsOffset + index * 8, timestamp);
+
+        int blockOffset = HEADER_BYTES + (index / BLOCK_RECORDS) * 16;
+        if (index % BLOCK_RECORDS == 0)
+        {
+            buffer.putLong(blockOffset, timestamp);
+            buffer.putLong(blockOffset + 8, timestamp);
+        }
+        else
+        {
+            buffer.putLong(blockOffset, Math.min(buffer.getLong(blockOffset), timestamp));
+            buffer.putLong(blockOffset + 8, Math.max(buffer.getLong(blockOffset + 8), timestamp));
+        }
+        if (timestamp < buffer.getLong(MAX_OFFSET))
+        {
+            buffer.putInt(ORDERED_OFFSET, 0);
+        }
+        buffer.putLong(MIN_OFFSET, Math.min(buffer.getLong(MIN_OFFSET), timestamp));
+        buffer.putLong(MAX_OFFSET, Math.max(buffer.getLong(MAX_OFFSET), timestamp));
+
+        count++;
+        buffer.putInt(COUNT_OFFSET, count);
+    }
+
+    /* Reads a timestamp straight from the mapped pages, whether the
+     * record was removed or not.
+     */
+    long timestampAt(int index)
+    {
+        return buffer.getLong(recordsOffset + index * 8);
+    }
+
+    boolean isRemoved(int index)
+    {
+        return (buffer.getLong(removedOffset + (index >>> 6) * 8) & (1L << index)) != 0;
+    }
+
+    /* Removes the record at the given index, if not removed yet */
+    void remove(int index)
+    {
+        if (isRemoved(index))
+        {
+            return;
+        }
+        int offset = removedOffset + (index >>> 6) * 8;
+        buffer.putLong(offset, buffer.getLong(offset) | (1L << index));
+        buffer.putInt(REMOVED_OFFSET, buffer.getInt(REMOVED_OFFSET) + 1);
+    }
+
+    /* Tells whether no record of the block can lie in [startTime, endTime) */
+    boolean skipBlock(int block, long startTime, long endTime)
+    {
+        int blockOffset = HEADER_BYTES + block * 16;
+        return buffer.getLong(blockOffset + 8) < startTime || buffer.getLong(blockOffset) >= endTime;
+    }
+
+    int blockCount()
+    {
+        return blockCount(count);
+    }
+
+    /* Lowest timestamp appended to the block, removed or not */
+    long blockMin(int block)
+    {
+        return buffer.getLong(HEADER_BYTES + block * 16);
+    }
+
+    /* Highest timestamp appended to the block, removed or not */
+    long blockMax(int block)
+    {
+        return buffer.getLong(HEADER_BYTES + block * 16 + 8);
+    }
+
+    /* Number of records appended to the block */
+    int blockRecords(int block)
+    {
+        return Math.min(BLOCK_RECORDS, count - block * BLOCK_RECORDS);
+    }
+
+    /* Number of removed records of the block, from the words of the
+     * removed bitmap covering it
+     */
+    int blockRemoved(int block)
+    {
+        int removed = 0;
+        int end = Math.min((block + 1) * BLOCK_RECORDS / 64, bitmapLongs(capacity));
+        for (int word = block * BLOCK_RECORDS / 64; word < end; word++)
+        {
+            removed += Long.bitCount(buffer.getLong(removedOffset + word * 8));
+        }
+        return removed;
+    }
+
+    /* Tells whether no record of the segment can lie in [startTime, endTime) */
+    boolean skip(long startTime, long endTime)
+    {
+        return count == 0 || buffer.getLong(MAX_OFFSET) < startTime || buffer.getLong(MIN_OFFSET) >= endTime;
+    }
+
+    int count()
+    {
+        return count;
+    }
+
+    /* Whether every record was appended in timestamp order */
+    boolean isOrdered()
+    {
+        return buffer.getInt(ORDERED_OFFSET) != 0;
+    }
+
+    long minTimestamp()
+    {
+        return buffer.getLong(MIN_OFFSET);
+    }
+
+    long maxTimestamp()
+    {
+        return buffer.getLong(MAX_OFFSET);
+    }
+
+    /* Number of records not removed */
+    int liveCount()
+    {
+        return count - buffer.getInt(REMOVED_OFFSET);
+    }
+
+    /* Writes the mapped pages back to the file */
+    void force()
+    {
+        buffer.force();
+    }
+
+    /* Deletes the segment file. The mapping stays valid until it is
+     * garbage collected, but it must not be used anymore.
+     */
+    boolean delete()
+    {
+        return file.delete();
+    }
+
+    private static int blockCount(int capacity)
+    {
+        return (capacity + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+    }
+
+    private static int bitmapLongs(int capacity)
+    {
+        return (capacity + 63) / 64;
+    }
+
+    /* Maps the file, which stays mapped after its channel is closed */
+    private static MappedByteBuffer map(File file, long length) throws IOException
+    {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"))
+        {
+            randomAccessFile.setLength(length);
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+}
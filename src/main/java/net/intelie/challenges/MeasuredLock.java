@@ -0,0 +1,67 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/*
+ * Store lock recording how long threads wait for it, wrapping the lock
+ * that actually guards the store (a ReentrantLock, or a view of the
+ * read or write side of a shard StampedLock).
+ * The lock is first tried without blocking, and the clock is only read
+ * when that fails, so an uncontended acquisition costs the same as on
+ * the plain lock and only actual waits are timed.
+ */
+class MeasuredLock implements Lock
+{
+    private final Lock lock;
+    private final EventStoreMetrics metrics;
+
+    MeasuredLock(Lock lock, EventStoreMetrics metrics)
+    {
+        this.lock = lock;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void lock()
+    {
+        if (lock.tryLock())
+        {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        metrics.recordLockWait(System.nanoTime() - start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException
+    {
+        lock.lockInterruptibly();
+    }
+
+    @Override
+    public boolean tryLock()
+    {
+        return lock.tryLock();
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException
+    {
+        return lock.tryLock(time, unit);
+    }
+
+    @Override
+    public void unlock()
+    {
+        lock.unlock();
+    }
+
+    @Override
+    public Condition newCondition()
+    {
+        return lock.newCondition();
+    }
+}
@@ -0,0 +1,178 @@
+package net.intelie.challenges;
+
+public class MergingEventIteratorClass implements EventIterator
+{
+    /* K-way merge of iterators that are each in timestamp order.
+     * The sources positioned on an event are kept in a binary min heap
+     * ordered by (timestamp, source index), with their timestamps cached
+     * so the heap never calls current on a source. moveNext pops the
+     * source with the smallest event, which becomes the current one, and
+     * only advances it on the following moveNext, so remove can still
+     * act on that event through its source. Every event costs
+     * O(log k) for k sources.
+     */
+    private EventIterator[] sources;
+    private final int[] heap;
+    private final long[] heads;
+    private int heapSize = 0;
+    private boolean started = false;
+    private int currentSource = -1;
+    private boolean hasCurrent = false;
+
+    /* Constructor of MergingEventIteratorClass, it takes the iterators to
+     * merge; on equal timestamps, events of earlier iterators come first.
+     */
+    public MergingEventIteratorClass(EventIterator... sources)
+    {
+        this.sources = sources;
+        this.heap = new int[sources.length];
+        this.heads = new long[sources.length];
+    }
+
+    @Override
+    public boolean moveNext()
+    {
+        if (sources == null)
+        {
+            return false;
+        }
+        if (!started)
+        {
+            started = true;
+            for (int source = 0; source < sources.length; source++)
+            {
+                advance(source);
+            }
+        }
+        else if (currentSource >= 0)
+        {
+            advance(currentSource);
+        }
+        if (heapSize == 0)
+        {
+            currentSource = -1;
+            hasCurrent = false;
+            return false;
+        }
+        currentSource = heap[0];
+        heap[0] = heap[--heapSize];
+        siftDown(0);
+        hasCurrent = true;
+        return true;
+    }
+
+    @Override
+    public Event current()
+    {
+        if (!hasCurrent)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        return sources[currentSource].current();
+    }
+
+    /* Removes the current event through the iterator it came from */
+    @Override
+    public void remove()
+    {
+        if (!hasCurrent)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        sources[currentSource].remove();
+        hasCurrent = false;
+    }
+
+    /* Closes every source, even if some of them fail to close */
+    @Override
+    public void close() throws Exception
+    {
+        if (sources == null)
+        {
+            return;
+        }
+        EventIterator[] closing = sources;
+        sources = null;
+        hasCurrent = false;
+        Exception failure = null;
+        for (EventIterator source : closing)
+        {
+            try
+            {
+                source.close();
+            }
+            catch (Exception e)
+            {
+                if (failure == null)
+                {
+                    failure = e;
+                }
+                else
+                {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /* Moves the source to its next event and pushes it on the heap,
+     * unless it is exhausted.
+     */
+    private void advance(int source)
+    {
+        if (!sources[source].moveNext())
+        {
+            return;
+        }
+        heads[source] = sources[source].current().timestamp();
+        int index = heapSize++;
+        while (index > 0)
+        {
+            int parent = (index - 1) >>> 1;
+            if (!before(source, heap[parent]))
+            {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = source;
+    }
+
+    private void siftDown(int index)
+    {
+        if (heapSize == 0)
+        {
+            return;
+        }
+        int source = heap[index];
+        while (true)
+        {
+            int child = 2 * index + 1;
+            if (child >= heapSize)
+            {
+                break;
+            }
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child]))
+            {
+                child++;
+            }
+            if (!before(heap[child], source))
+            {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = source;
+    }
+
+    private boolean before(int first, int second)
+    {
+        return heads[first] < heads[second] || (heads[first] == heads[second] && first < second);
+    }
+}
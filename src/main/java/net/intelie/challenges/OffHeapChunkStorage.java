@@ -0,0 +1,130 @@
+package net.intelie.challenges;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/*
+ * Chunk storage backed by direct ByteBuffers, outside the Java heap.
+ * Memory is allocated in fixed size slabs, each one carved into as many
+ * chunks as fit in it, and a chunk handle encodes its slab and its
+ * position inside the slab. Freed chunks go to a free list and are
+ * handed out again before any new slab is allocated, so the memory of
+ * types dropped by removeAll is recycled. Slabs are never given back to
+ * the operating system while the storage is alive.
+ * The heap only holds one ByteBuffer per slab and the free list, which
+ * does not grow with the number of stored events.
+ */
+class OffHeapChunkStorage implements ChunkStorage
+{
+    private static final int CHUNK_BYTES = ColumnarPartition.CHUNK_CAPACITY * 8;
+
+    private final int chunksPerSlab;
+    private ByteBuffer[] slabs = new ByteBuffer[4];
+    private int slabCount = 0;
+    private int[] freeHandles = new int[16];
+    private int freeCount = 0;
+
+    /* Creates the storage allocating slabs of the given size, which is
+     * rounded down to a whole number of chunks.
+     */
+    OffHeapChunkStorage(int slabBytes)
+    {
+        if (slabBytes < CHUNK_BYTES)
+        {
+            throw new IllegalArgumentException("Slab size must hold at least one chunk of " + CHUNK_BYTES + " bytes");
+        }
+        this.chunksPerSlab = slabBytes / CHUNK_BYTES;
+    }
+
+    @Override
+    public int allocate()
+    {
+        if (freeCount == 0)
+        {
+            addSlab();
+        }
+        return freeHandles[--freeCount];
+    }
+
+    @Override
+    public void free(int handle)
+    {
+        if (freeCount == freeHandles.length)
+        {
+            freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+        }
+        freeHandles[freeCount++] = handle;
+    }
+
+    @Override
+    public long get(int handle, int offset)
+    {
+        return slabs[handle / chunksPerSlab].getLong(position(handle, offset));
+    }
+
+    @Override
+    public void set(int handle, int offset, long value)
+    {
+        slabs[handle / chunksPerSlab].putLong(position(handle, offset), value);
+    }
+
+    @Override
+    public void copy(int sourceHandle, int sourceOffset, int targetHandle, int targetOffset, int length)
+    {
+        ByteBuffer source = slabs[sourceHandle / chunksPerSlab];
+        ByteBuffer target = slabs[targetHandle / chunksPerSlab];
+        int from = position(sourceHandle, sourceOffset);
+        int to = position(targetHandle, targetOffset);
+        if (source == target && from < to)
+        {
+            // Overlapping move towards the end, copying backwards
+            for (int index = (length - 1) * 8; index >= 0; index -= 8)
+            {
+                target.putLong(to + index, source.getLong(from + index));
+            }
+        }
+        else
+        {
+            for (int index = 0; index < length * 8; index += 8)
+            {
+                target.putLong(to + index, source.getLong(from + index));
+            }
+        }
+    }
+
+    /* Bytes of off-heap memory allocated so far */
+    long allocatedBytes()
+    {
+        return (long) slabCount * chunksPerSlab * CHUNK_BYTES;
+    }
+
+    /* Bytes of off-heap memory held by freed chunks, ready for reuse */
+    long freeBytes()
+    {
+        return (long) freeCount * CHUNK_BYTES;
+    }
+
+    private int position(int handle, int offset)
+    {
+        return (handle % chunksPerSlab) * CHUNK_BYTES + offset * 8;
+    }
+
+    /* Allocates a new slab and pushes all its chunks to the free list,
+     * in reverse so they are handed out in address order.
+     */
+    private void addSlab()
+    {
+        if (slabCount == slabs.length)
+        {
+            slabs = Arrays.copyOf(slabs, slabCount * 2);
+        }
+        slabs[slabCount] = ByteBuffer.allocateDirect(chunksPerSlab * CHUNK_BYTES).order(ByteOrder.nativeOrder());
+        int firstHandle = slabCount * chunksPerSlab;
+        slabCount++;
+        for (int chunk = chunksPerSlab - 1; chunk >= 0; chunk--)
+        {
+            free(firstHandle + chunk);
+        }
+    }
+}
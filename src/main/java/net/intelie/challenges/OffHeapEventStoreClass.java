@@ -0,0 +1,69 @@
+package net.intelie.challenges;
+
+public class OffHeapEventStoreClass extends ColumnarEventStoreClass
+{
+    /* Default size of the direct buffers allocated for event chunks */
+    public static final int DEFAULT_SLAB_BYTES = 1 << 20;
+
+    /*
+     * Columnar store whose timestamp chunks live off-heap, in direct
+     * ByteBuffer slabs managed by an OffHeapChunkStorage.
+     * The heap only holds the type dictionary, one int handle and one size
+     * per chunk of 1024 events, and one ByteBuffer per slab, so heap usage
+     * and GC work stay flat no matter how many events are stored.
+     * Chunks freed by removeAll, or by partitions draining through
+     * iterator removals, are recycled before any new slab is allocated.
+     * Behaves exactly as ColumnarEventStoreClass otherwise.
+     */
+    private final OffHeapChunkStorage offHeapStorage;
+
+    /* Creates a store allocating slabs of DEFAULT_SLAB_BYTES */
+    public OffHeapEventStoreClass()
+    {
+        this(DEFAULT_SLAB_BYTES);
+    }
+
+    /* Creates a store allocating slabs of the given size in bytes,
+     * rounded down to a whole number of 8KB chunks.
+     */
+    public OffHeapEventStoreClass(int slabBytes)
+    {
+        this(new OffHeapChunkStorage(slabBytes));
+    }
+
+    private OffHeapEventStoreClass(OffHeapChunkStorage storage)
+    {
+        super(storage);
+        this.offHeapStorage = storage;
+    }
+
+    /* Returns the bytes of off-heap memory allocated by the store */
+    public long offHeapAllocatedBytes()
+    {
+        lock.lock();
+        try
+        {
+            return offHeapStorage.allocatedBytes();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Returns the bytes of off-heap memory allocated but currently
+     * unused, waiting to be reused by new chunks.
+     */
+    public long offHeapFreeBytes()
+    {
+        lock.lock();
+        try
+        {
+            return offHeapStorage.freeBytes();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package net.intelie.challenges;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+public class PublishingEventStoreClass implements EventStore
+{
+    /* Default number of events buffered for a subscriber before it
+     * is considered too slow and dropped.
+     */
+    public static final int DEFAULT_BUFFER_CAPACITY = 1 << 16;
+
+    /* Default maximum number of events in a delivered batch */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+    /*
+     * Decorator adding push based subscriptions to any EventStore.
+     * Consumers tailing a type subscribe to it, optionally with a time
+     * filter, and receive the events inserted from then on, in insertion
+     * order, through a java.util.concurrent.Flow.Publisher of batches,
+     * instead of polling query with a moving startTime.
+     * Every operation is delegated to the wrapped store, and inserted
+     * events are then handed to the subscriptions of their type. With no
+     * subscriber for a type that is a single hash lookup; otherwise every
+     * subscription just buffers the event and delivers it later on the
+     * executor, see EventSubscription. Subscriptions of a type are kept
+     * in a copy-on-write list, as they change far less often than events
+     * are inserted.
+     */
+    private final EventStore store;
+    private final Executor executor;
+    private final int bufferCapacity;
+    private final int maxBatchSize;
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<EventSubscription>> subscriptions =
+        new ConcurrentHashMap<String, CopyOnWriteArrayList<EventSubscription>>();
+
+    /* Wraps the store, delivering events on the common ForkJoinPool */
+    public PublishingEventStoreClass(EventStore store)
+    {
+        this(store, ForkJoinPool.commonPool(), DEFAULT_BUFFER_CAPACITY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /* Wraps the store, delivering events on the given executor, with
+     * the given per subscriber buffer capacity and batch size.
+     */
+    public PublishingEventStoreClass(EventStore store, Executor executor, int bufferCapacity, int maxBatchSize)
+    {
+        if (bufferCapacity <= 0 || maxBatchSize <= 0)
+        {
+            throw new IllegalArgumentException("Buffer capacity and batch size must be positive, got "
+                + bufferCapacity + " and " + maxBatchSize);
+        }
+        this.store = store;
+        this.executor = executor;
+        this.bufferCapacity = bufferCapacity;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public void insert(Event event)
+    {
+        store.insert(event);
+        publish(event);
+    }
+
+    @Override
+    public void insertAll(Collection<Event> events)
+    {
+        store.insertAll(events);
+        for (Event event : events)
+        {
+            publish(event);
+        }
+    }
+
+    /* Removes the events from the store; subscriptions to the type
+     * are kept and keep receiving events inserted afterwards.
+     */
+    @Override
+    public void removeAll(String type)
+    {
+        store.removeAll(type);
+    }
+
+    @Override
+    public EventIterator query(String type, long startTime, long endTime)
+    {
+        return store.query(type, startTime, endTime);
+    }
+
+    @Override
+    public EventIterator query(Set<String> types, long startTime, long endTime)
+    {
+        return store.query(types, startTime, endTime);
+    }
+
+    @Override
+    public long count(String type, long startTime, long endTime)
+    {
+        return store.count(type, startTime, endTime);
+    }
+
+    @Override
+    public OptionalLong firstTimestamp(String type, long startTime, long endTime)
+    {
+        return store.firstTimestamp(type, startTime, endTime);
+    }
+
+    @Override
+    public OptionalLong lastTimestamp(String type, long startTime, long endTime)
+    {
+        return store.lastTimestamp(type, startTime, endTime);
+    }
+
+    @Override
+    public long[] histogram(String type, long startTime, long endTime, long interval)
+    {
+        return store.histogram(type, startTime, endTime, interval);
+    }
+
+    /* Returns a publisher of the events of the given type inserted after
+     * each of its subscribers subscribes.
+     */
+    public Flow.Publisher<List<Event>> subscribe(String type)
+    {
+        return subscribe(type, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /* Returns a publisher of the events of the given type, with timestamps
+     * in [startTime, endTime), inserted after each of its subscribers
+     * subscribes. Every subscriber gets a subscription of its own, and
+     * every unit of demand it requests is one batch of events.
+     * onSubscribe is called before the subscription is registered, so no
+     * insert can signal the subscriber before it returns; events inserted
+     * while it runs are not delivered. A subscription cancelled meanwhile
+     * is unregistered again right away.
+     */
+    public Flow.Publisher<List<Event>> subscribe(final String type, final long startTime, final long endTime)
+    {
+        return subscriber -> {
+            EventSubscription subscription = new EventSubscription(this, subscriber, type, startTime, endTime,
+                executor, bufferCapacity, maxBatchSize);
+            subscriber.onSubscribe(subscription);
+            subscriptions.computeIfAbsent(type, key -> new CopyOnWriteArrayList<EventSubscription>()).add(subscription);
+            if (subscription.isCancelled())
+            {
+                unregister(subscription);
+            }
+        };
+    }
+
+    /* Returns the number of active subscriptions to the given type */
+    public int subscriberCount(String type)
+    {
+        CopyOnWriteArrayList<EventSubscription> typeSubscriptions = subscriptions.get(type);
+        return typeSubscriptions == null ? 0 : typeSubscriptions.size();
+    }
+
+    /* Called by a subscription once it is cancelled */
+    void unregister(EventSubscription subscription)
+    {
+        CopyOnWriteArrayList<EventSubscription> typeSubscriptions = subscriptions.get(subscription.type);
+        if (typeSubscriptions != null)
+        {
+            typeSubscriptions.remove(subscription);
+        }
+    }
+
+    private void publish(Event event)
+    {
+        CopyOnWriteArrayList<EventSubscription> typeSubscriptions = subscriptions.get(event.type());
+        if (typeSubscriptions != null)
+        {
+            for (EventSubscription subscription : typeSubscriptions)
+            {
+                subscription.offer(event);
+            }
+        }
+    }
+}
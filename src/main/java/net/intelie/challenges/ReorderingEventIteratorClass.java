@@ -0,0 +1,86 @@
+package net.intelie.challenges;
+
+public class ReorderingEventIteratorClass implements EventIterator
+{
+    /* Iterator of a ReorderingEventStoreClass: walks the iterator of the
+     * wrapped store, covering the range below the watermark, and then the
+     * sorted copy of the buffered events of the range. Removing a
+     * buffered event takes it out of the buffer, or out of the store if
+     * it was flushed meanwhile.
+     */
+    private final ReorderingEventStoreClass store;
+    private EventIterator stored;
+    private Event[] buffered;
+    private int index = -1;
+
+    ReorderingEventIteratorClass(ReorderingEventStoreClass store, EventIterator stored, Event[] buffered)
+    {
+        this.store = store;
+        this.stored = stored;
+        this.buffered = buffered;
+    }
+
+    @Override
+    public boolean moveNext()
+    {
+        if (stored != null)
+        {
+            if (stored.moveNext())
+            {
+                return true;
+            }
+            try
+            {
+                stored.close();
+            }
+            catch (Exception e)
+            {
+                throw new IllegalStateException("Could not close the iterator of the wrapped store", e);
+            }
+            stored = null;
+        }
+        if (index < buffered.length)
+        {
+            index++;
+        }
+        return index < buffered.length;
+    }
+
+    @Override
+    public Event current()
+    {
+        if (stored != null)
+        {
+            return stored.current();
+        }
+        if (index < 0 || index >= buffered.length || buffered[index] == null)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        return buffered[index];
+    }
+
+    @Override
+    public void remove()
+    {
+        if (stored != null)
+        {
+            stored.remove();
+            return;
+        }
+        store.remove(current());
+        buffered[index] = null;
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        if (stored != null)
+        {
+            stored.close();
+            stored = null;
+        }
+        buffered = new Event[0];
+        index = 0;
+    }
+}
@@ -0,0 +1,382 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ReorderingEventStoreClass implements EventStore
+{
+    /*
+     * Ingestion stage absorbing out of order arrivals before they reach
+     * the wrapped store, so that a sorted store (EventStoreClass and the
+     * others indexing by timestamp) receives append-mostly runs instead
+     * of random inserts.
+     * Every type has a reorder buffer and a watermark, starting lateness
+     * before the first event of the type. Events at or above
+     * the watermark are appended to the buffer unsorted, in O(1). Once the
+     * newest buffered timestamp is two lateness windows past the watermark,
+     * the watermark moves to the newest timestamp minus the lateness: the
+     * buffer is sorted, and the events below the new watermark are handed
+     * to the wrapped store with one insertAll, in timestamp order, while
+     * the rest stay buffered. Every event is then sorted about twice, in
+     * small runs, and the store takes it as an append unless it is older
+     * than lateness. Events below the watermark are late; they skip the
+     * buffer and are inserted directly.
+     * The watermark splits every type exactly: the wrapped store only
+     * holds events below it and the buffer only events at or above it.
+     * Queries walk the store up to the watermark, then a sorted copy of
+     * the buffered events of the range, so buffered events are visible
+     * and no event is returned twice. Aggregations are split the same
+     * way: the wrapped store computes its part with its own index, and
+     * the buffered events of the range are added by a scan of the buffer.
+     * Each buffer is guarded by its own monitor, also held while it is
+     * flushed and while queries split at its watermark.
+     */
+    private final EventStore store;
+    private final long lateness;
+
+    /* Distance between the newest buffered timestamp and the watermark
+     * that triggers a flush, compared as unsigned
+     */
+    private final long flushDistance;
+    private final ConcurrentHashMap<String, Buffer> buffers = new ConcurrentHashMap<String, Buffer>();
+
+    /* Creates the stage in front of the given store, expecting events
+     * to arrive at most lateness after newer events of their type.
+     */
+    public ReorderingEventStoreClass(EventStore store, long lateness)
+    {
+        if (lateness < 0)
+        {
+            throw new IllegalArgumentException("Lateness must not be negative, got " + lateness);
+        }
+        this.store = store;
+        this.lateness = lateness;
+        this.flushDistance = lateness > (Long.MAX_VALUE - 1) / 2 ? Long.MAX_VALUE : 2 * lateness + 1;
+    }
+
+    @Override
+    public void insert(Event event)
+    {
+        Buffer buffer = buffers.computeIfAbsent(event.type(), type -> new Buffer(
+            event.timestamp() >= Long.MIN_VALUE + lateness ? event.timestamp() - lateness : Long.MIN_VALUE));
+        synchronized (buffer)
+        {
+            if (event.timestamp() < buffer.watermark)
+            {
+                store.insert(event);
+                return;
+            }
+            buffer.add(event);
+            if (Long.compareUnsigned(buffer.newest - buffer.watermark, flushDistance) > 0)
+            {
+                flush(buffer, buffer.newest - lateness);
+            }
+        }
+    }
+
+    /* Drops the buffered events of the type along with the stored ones.
+     * The watermark of the type is kept.
+     */
+    @Override
+    public void removeAll(String type)
+    {
+        Buffer buffer = buffers.get(type);
+        if (buffer == null)
+        {
+            store.removeAll(type);
+            return;
+        }
+        synchronized (buffer)
+        {
+            buffer.size = 0;
+            Arrays.fill(buffer.events, null);
+            store.removeAll(type);
+        }
+    }
+
+    /* Returns the stored events of the range below the watermark of the
+     * type, followed by the buffered ones, both in timestamp order.
+     * The store part is as live as the iterators of the wrapped store,
+     * the buffered part is a copy taken here.
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime)
+    {
+        Buffer buffer = buffers.get(type);
+        if (buffer == null)
+        {
+            return store.query(type, startTime, endTime);
+        }
+        synchronized (buffer)
+        {
+            long split = split(buffer, startTime, endTime);
+            Event[] buffered = new Event[buffer.size];
+            int count = 0;
+            for (int i = 0; i < buffer.size; i++)
+            {
+                long timestamp = buffer.events[i].timestamp();
+                if (timestamp >= split && timestamp < endTime)
+                {
+                    buffered[count++] = buffer.events[i];
+                }
+            }
+            buffered = Arrays.copyOf(buffered, count);
+            Arrays.sort(buffered, EventStoreClass.BY_TIMESTAMP);
+            return new ReorderingEventIteratorClass(this, store.query(type, startTime, split), buffered);
+        }
+    }
+
+    @Override
+    public long count(String type, long startTime, long endTime)
+    {
+        Buffer buffer = buffers.get(type);
+        if (buffer == null)
+        {
+            return store.count(type, startTime, endTime);
+        }
+        synchronized (buffer)
+        {
+            long split = split(buffer, startTime, endTime);
+            long count = store.count(type, startTime, split);
+            for (int i = 0; i < buffer.size; i++)
+            {
+                long timestamp = buffer.events[i].timestamp();
+                if (timestamp >= split && timestamp < endTime)
+                {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    @Override
+    public OptionalLong firstTimestamp(String type, long startTime, long endTime)
+    {
+        Buffer buffer = buffers.get(type);
+        if (buffer == null)
+        {
+            return store.firstTimestamp(type, startTime, endTime);
+        }
+        synchronized (buffer)
+        {
+            long split = split(buffer, startTime, endTime);
+            OptionalLong stored = store.firstTimestamp(type, startTime, split);
+            if (stored.isPresent())
+            {
+                return stored;
+            }
+            OptionalLong first = OptionalLong.empty();
+            for (int i = 0; i < buffer.size; i++)
+            {
+                long timestamp = buffer.events[i].timestamp();
+                if (timestamp >= split && timestamp < endTime && (!first.isPresent() || timestamp < first.getAsLong()))
+                {
+                    first = OptionalLong.of(timestamp);
+                }
+            }
+            return first;
+        }
+    }
+
+    @Override
+    public OptionalLong lastTimestamp(String type, long startTime, long endTime)
+    {
+        Buffer buffer = buffers.get(type);
+        if (buffer == null)
+        {
+            return store.lastTimestamp(type, startTime, endTime);
+        }
+        synchronized (buffer)
+        {
+            long split = split(buffer, startTime, endTime);
+            OptionalLong last = OptionalLong.empty();
+            for (int i = 0; i < buffer.size; i++)
+            {
+                long timestamp = buffer.events[i].timestamp();
+                if (timestamp >= split && timestamp < endTime && (!last.isPresent() || timestamp > last.getAsLong()))
+                {
+                    last = OptionalLong.of(timestamp);
+                }
+            }
+            return last.isPresent() ? last : store.lastTimestamp(type, startTime, split);
+        }
+    }
+
+    @Override
+    public long[] histogram(String type, long startTime, long endTime, long interval)
+    {
+        Buffer buffer = buffers.get(type);
+        if (buffer == null)
+        {
+            return store.histogram(type, startTime, endTime, interval);
+        }
+        long[] counts = new long[Aggregations.binCount(startTime, endTime, interval)];
+        synchronized (buffer)
+        {
+            long split = split(buffer, startTime, endTime);
+            long[] stored = store.histogram(type, startTime, split, interval);
+            for (int i = 0; i < stored.length; i++)
+            {
+                counts[i] += stored[i];
+            }
+            for (int i = 0; i < buffer.size; i++)
+            {
+                long timestamp = buffer.events[i].timestamp();
+                if (timestamp >= split && timestamp < endTime)
+                {
+                    counts[(int) Long.divideUnsigned(timestamp - startTime, interval)]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /* Hands every buffered event to the wrapped store, moving every
+     * watermark past the newest event of its type, so that the wrapped
+     * store holds everything inserted so far.
+     */
+    public void flush()
+    {
+        for (Buffer buffer : buffers.values())
+        {
+            synchronized (buffer)
+            {
+                if (buffer.size > 0)
+                {
+                    flush(buffer, buffer.newest == Long.MAX_VALUE ? Long.MAX_VALUE : buffer.newest + 1);
+                }
+            }
+        }
+    }
+
+    /* Returns the number of events currently buffered, over all types */
+    public int bufferedCount()
+    {
+        int count = 0;
+        for (Buffer buffer : buffers.values())
+        {
+            synchronized (buffer)
+            {
+                count += buffer.size;
+            }
+        }
+        return count;
+    }
+
+    /* Removes a buffered event returned by an iterator, or the stored
+     * event it became if it was flushed since. Called by
+     * ReorderingEventIteratorClass.
+     */
+    void remove(Event event)
+    {
+        Buffer buffer = buffers.get(event.type());
+        synchronized (buffer)
+        {
+            for (int i = 0; i < buffer.size; i++)
+            {
+                if (buffer.events[i] == event)
+                {
+                    buffer.events[i] = buffer.events[--buffer.size];
+                    buffer.events[buffer.size] = null;
+                    return;
+                }
+            }
+        }
+        removeStored(event);
+    }
+
+    /* Moves the buffered events below the new watermark to the store.
+     * Must be called while holding the monitor of the buffer.
+     */
+    private void flush(Buffer buffer, long watermark)
+    {
+        Arrays.sort(buffer.events, 0, buffer.size, EventStoreClass.BY_TIMESTAMP);
+        int flushed = 0;
+        while (flushed < buffer.size && buffer.events[flushed].timestamp() < watermark)
+        {
+            flushed++;
+        }
+        if (flushed > 0)
+        {
+            store.insertAll(Arrays.asList(buffer.events).subList(0, flushed));
+            System.arraycopy(buffer.events, flushed, buffer.events, 0, buffer.size - flushed);
+            Arrays.fill(buffer.events, buffer.size - flushed, buffer.size, null);
+            buffer.size -= flushed;
+        }
+        buffer.watermark = watermark;
+    }
+
+    /* Start of the part of [startTime, endTime) held by the buffer, the
+     * wrapped store holding the part before it. Must be called while
+     * holding the monitor of the buffer.
+     */
+    private static long split(Buffer buffer, long startTime, long endTime)
+    {
+        return Math.max(startTime, Math.min(endTime, buffer.watermark));
+    }
+
+    /* Removes the stored event with the same instance, or failing that
+     * the first one with the same type and timestamp as the given one,
+     * since stores creating their events on every read never return the
+     * instance that was buffered. Throws IllegalStateException if the
+     * store has no such event left.
+     */
+    private void removeStored(Event event)
+    {
+        if (event.timestamp() == Long.MAX_VALUE || (!removeFromStore(event, true) && !removeFromStore(event, false)))
+        {
+            throw new IllegalStateException("No event of type " + event.type() + " at " + event.timestamp() + " left to remove");
+        }
+    }
+
+    /* Removes the first stored event with the type and timestamp of the
+     * given one, if it is the same instance when sameInstance is set.
+     * Returns whether an event was removed.
+     */
+    private boolean removeFromStore(Event event, boolean sameInstance)
+    {
+        try (EventIterator iterator = store.query(event.type(), event.timestamp(), event.timestamp() + 1))
+        {
+            while (iterator.moveNext())
+            {
+                if (!sameInstance || iterator.current() == event)
+                {
+                    iterator.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Could not remove event of type " + event.type() + " at " + event.timestamp(), e);
+        }
+    }
+
+    /* Unsorted events of a type at or above its watermark */
+    private static final class Buffer
+    {
+        Event[] events = new Event[64];
+        int size = 0;
+        long watermark;
+        long newest = Long.MIN_VALUE;
+
+        /* The watermark of a type starts lateness before its first event */
+        Buffer(long watermark)
+        {
+            this.watermark = watermark;
+        }
+
+        void add(Event event)
+        {
+            if (size == events.length)
+            {
+                events = Arrays.copyOf(events, size * 2);
+            }
+            events[size++] = event;
+            newest = Math.max(newest, event.timestamp());
+        }
+    }
+}
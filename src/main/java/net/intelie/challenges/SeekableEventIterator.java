@@ -0,0 +1,34 @@
+package net.intelie.challenges;
+
+/**
+ * An {@link EventIterator} that can be repositioned inside its range, and
+ * whose position can be saved as a cursor to resume iterating later.
+ */
+public interface SeekableEventIterator extends EventIterator {
+    /**
+     * Repositions the iterator, so that the next {@link #moveNext} returns
+     * the first event of the range, in iteration order, that is not before
+     * the given timestamp: the first one with a timestamp greater than or
+     * equal to it when iterating in ascending order, or the first one with
+     * a timestamp lower than or equal to it when iterating in descending
+     * order. There is no current event until then.
+     *
+     * @param timestamp the timestamp to seek to.
+     */
+    void seek(long timestamp);
+
+    /**
+     * @return true if this iterator returns events in descending timestamp order.
+     */
+    boolean isDescending();
+
+    /**
+     * Returns an opaque token identifying the position right after the
+     * current event, or the position of the iterator if there is none, to
+     * resume iterating from there with a new iterator over the same type
+     * and range, see {@link EventStoreClass#resume}.
+     *
+     * @return the cursor token.
+     */
+    String cursor();
+}
@@ -0,0 +1,50 @@
+package net.intelie.challenges;
+
+/*
+ * Entry of the skip lists used by ConcurrentEventStoreClass.
+ * Events are ordered by timestamp, and events with the same timestamp
+ * by the sequence number assigned when they were inserted, so two
+ * distinct events never compare as equal and are never collapsed by
+ * the skip list.
+ * Entries holding a null event are only used as search bounds.
+ */
+final class SequencedEvent implements Comparable<SequencedEvent>
+{
+    final long timestamp;
+    final long sequence;
+    final Event event;
+
+    SequencedEvent(long timestamp, long sequence, Event event)
+    {
+        this.timestamp = timestamp;
+        this.sequence = sequence;
+        this.event = event;
+    }
+
+    /* Search bound placed before every event with the given timestamp,
+     * since real sequence numbers are never negative.
+     */
+    static SequencedEvent bound(long timestamp)
+    {
+        return new SequencedEvent(timestamp, Long.MIN_VALUE, null);
+    }
+
+    @Override
+    public int compareTo(SequencedEvent other)
+    {
+        int comparison = Long.compare(timestamp, other.timestamp);
+        return comparison != 0 ? comparison : Long.compare(sequence, other.sequence);
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        return other instanceof SequencedEvent && compareTo((SequencedEvent) other) == 0;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(timestamp) * 31 + Long.hashCode(sequence);
+    }
+}
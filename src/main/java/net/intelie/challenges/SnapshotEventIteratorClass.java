@@ -0,0 +1,142 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.locks.Lock;
+
+public class SnapshotEventIteratorClass implements EventIterator
+{
+    /* Iterator over a point-in-time snapshot of a partition.
+     * The snapshot arrays are never written again once shared, so
+     * moveNext and current read them without taking any lock, and
+     * writers are never stalled by a long iteration. The iterator
+     * sees exactly the events that were stored when the query was made.
+     * remove still targets the live partition, under the store lock.
+     * The slots walked and events returned are counted locally and added
+     * to the store metrics when the iteration ends or is closed.
+     */
+    private final Lock lock;
+    private final EventStoreMetrics metrics;
+    private EventPartition partition;
+    private EventPartition.Snapshot snapshot;
+    private int index;
+    private final int endIndex;
+    private Event currentEvent = null;
+    private int scannedUpTo;
+    private int returned = 0;
+
+    /* Constructor of SnapshotEventIteratorClass, it takes the live
+     * partition with the lock guarding it, the metrics of the store, the
+     * snapshot taken from the partition and the queried time range.
+     * A null partition means there are no events of the queried type.
+     */
+    SnapshotEventIteratorClass(Lock lock, EventStoreMetrics metrics, EventPartition partition, EventPartition.Snapshot snapshot, long startTime, long endTime)
+    {
+        this.lock = lock;
+        this.metrics = metrics;
+        this.partition = partition;
+        this.snapshot = snapshot;
+        if (snapshot == null || startTime >= endTime)
+        {
+            this.index = -1;
+            this.endIndex = 0;
+        }
+        else
+        {
+            this.index = snapshot.lowerBound(startTime) - 1;
+            this.endIndex = snapshot.lowerBound(endTime);
+        }
+        this.scannedUpTo = index + 1;
+    }
+
+    /* Moves to the next live event of the snapshot range,
+     * skipping tombstones. Returns false once the range is exhausted.
+     */
+    @Override
+    public boolean moveNext()
+    {
+        while (snapshot != null && ++index < endIndex)
+        {
+            Event event = snapshot.events[index];
+            if (event != null)
+            {
+                currentEvent = event;
+                returned++;
+                return true;
+            }
+        }
+        currentEvent = null;
+        recordScan();
+        return false;
+    }
+
+    /* Returns the event pointed by the last successful moveNext call,
+     * or throws IllegalStateException when there is none.
+     */
+    @Override
+    public Event current()
+    {
+        if (currentEvent == null)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        return currentEvent;
+    }
+
+    /* Removes the current event from the live partition.
+     * The snapshot slot is used as a direct handle while the live
+     * partition still holds this event instance there, otherwise the
+     * event is looked up by timestamp in O(log n). The snapshot itself
+     * is left untouched and keeps showing the removed event.
+     */
+    @Override
+    public void remove()
+    {
+        if (currentEvent == null)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        lock.lock();
+        try
+        {
+            int slot = index;
+            if (slot >= partition.slotCount() || partition.get(slot) != currentEvent)
+            {
+                slot = partition.indexOf(currentEvent, snapshot.generation);
+            }
+            if (slot >= 0)
+            {
+                partition.removeAt(slot);
+                partition.compactIfNeeded(-1);
+                metrics.recordRemove();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        currentEvent = null;
+    }
+
+    /* Releases the snapshot and the live partition */
+    @Override
+    public void close()
+    {
+        recordScan();
+        partition = null;
+        snapshot = null;
+        currentEvent = null;
+    }
+
+    /* Adds the slots walked and events returned since the last call
+     * to the store metrics.
+     */
+    private void recordScan()
+    {
+        int position = Math.min(index + 1, endIndex);
+        if (position > scannedUpTo)
+        {
+            metrics.recordScan(position - scannedUpTo, returned);
+            scannedUpTo = position;
+            returned = 0;
+        }
+    }
+}
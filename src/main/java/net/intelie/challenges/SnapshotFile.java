@@ -0,0 +1,409 @@
+package net.intelie.challenges;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/*
+ * Binary snapshot of the partitions of an EventStoreClass.
+ * Layout, big endian:
+ *   int magic, int format version, int number of types, then per type
+ *     int name length, UTF-8 name, int number of events,
+ *     long first timestamp, then the unsigned varint difference of every
+ *     following timestamp to the previous one
+ *   int CRC32 of everything before it.
+ * Timestamps of a partition are sorted, so differences are never negative
+ * and events arriving at a steady rate take one or two bytes each.
+ * Files are written next to their final name and atomically moved there
+ * once forced to disk, so a crash never leaves a partial snapshot behind.
+ * A spilled partition is already a snapshot of a single type, so its
+ * type section is copied as it is from the spill file, after checking
+ * the header and the checksum of that file, without decoding it.
+ * Both directions go through a single heap buffer and a FileChannel.
+ */
+final class SnapshotFile
+{
+    private static final int MAGIC = 0x45565350;
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /* Bound on the type name length, so a corrupt length
+     * is never taken for a huge allocation
+     */
+    private static final int MAX_NAME_BYTES = 1 << 16;
+
+    private SnapshotFile()
+    {
+    }
+
+    /* Writes the live events of the given snapshots, keyed by type, with
+     * the number of live events of each.
+     */
+    static void write(File file, Map<String, EventPartition.Snapshot> snapshots, Map<String, Integer> sizes) throws IOException
+    {
+        write(file, snapshots, sizes, Collections.<String, File>emptyMap());
+    }
+
+    /* Writes the live events of the given snapshots, as above, and of the
+     * given single type snapshot files, keyed by type. The temporary file
+     * is deleted if anything fails.
+     */
+    static void write(File file, Map<String, EventPartition.Snapshot> snapshots, Map<String, Integer> sizes,
+        Map<String, File> copied) throws IOException
+    {
+        File temporary = new File(file.getPath() + ".tmp");
+        try
+        {
+            writeTemporary(temporary, snapshots, sizes, copied);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            try
+            {
+                Files.deleteIfExists(temporary.toPath());
+            }
+            catch (IOException suppressed)
+            {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /* Writes and forces the snapshot in the given temporary file */
+    private static void writeTemporary(File temporary, Map<String, EventPartition.Snapshot> snapshots, Map<String, Integer> sizes,
+        Map<String, File> copied) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            Writer writer = new Writer(channel);
+            writer.ensure(12);
+            writer.buffer.putInt(MAGIC);
+            writer.buffer.putInt(FORMAT_VERSION);
+            writer.buffer.putInt(snapshots.size() + copied.size());
+            for (Map.Entry<String, EventPartition.Snapshot> entry : snapshots.entrySet())
+            {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                int size = sizes.get(entry.getKey());
+                writer.ensure(16 + name.length);
+                writer.buffer.putInt(name.length);
+                writer.buffer.put(name);
+                writer.buffer.putInt(size);
+
+                EventPartition.Snapshot snapshot = entry.getValue();
+                boolean first = true;
+                long previous = 0;
+                for (int index = 0; index < snapshot.slotCount; index++)
+                {
+                    if (snapshot.events[index] == null)
+                    {
+                        continue;
+                    }
+                    long timestamp = snapshot.timestamps[index];
+                    if (first)
+                    {
+                        writer.ensure(8);
+                        writer.buffer.putLong(timestamp);
+                        first = false;
+                    }
+                    else
+                    {
+                        writer.ensure(10);
+                        long delta = timestamp - previous;
+                        while ((delta & ~0x7FL) != 0)
+                        {
+                            writer.buffer.put((byte) ((delta & 0x7F) | 0x80));
+                            delta >>>= 7;
+                        }
+                        writer.buffer.put((byte) delta);
+                    }
+                    previous = timestamp;
+                }
+            }
+            for (File source : copied.values())
+            {
+                copySection(writer, source);
+            }
+            writer.flush();
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            trailer.putInt((int) writer.crc.getValue());
+            trailer.flip();
+            while (trailer.hasRemaining())
+            {
+                channel.write(trailer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /* Copies the type section of a snapshot of a single type to the
+     * writer, checking the checksum of the source as it is read.
+     */
+    private static void copySection(Writer writer, File source) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ))
+        {
+            long end = channel.size() - 4;
+            ByteBuffer header = ByteBuffer.allocate(12);
+            readFully(channel, header, 0);
+            header.flip();
+            if (end < 12 || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION || header.getInt() != 1)
+            {
+                throw new IOException("Not a snapshot of a single type: " + source);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, 12);
+            long position = 12;
+            while (position < end)
+            {
+                if (!writer.buffer.hasRemaining())
+                {
+                    writer.flush();
+                }
+                int from = writer.buffer.position();
+                writer.buffer.limit((int) Math.min(writer.buffer.capacity(), from + end - position));
+                int read = channel.read(writer.buffer, position);
+                writer.buffer.limit(writer.buffer.capacity());
+                if (read < 0)
+                {
+                    throw new EOFException("Truncated snapshot " + source);
+                }
+                crc.update(writer.buffer.array(), from, read);
+                position += read;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            readFully(channel, trailer, end);
+            trailer.flip();
+            if (trailer.getInt() != (int) crc.getValue())
+            {
+                throw new IOException("Checksum mismatch in snapshot " + source);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+            {
+                throw new EOFException("Truncated snapshot");
+            }
+            position += read;
+        }
+    }
+
+    /* Reads the partitions of a snapshot, keyed by type in file order.
+     * The events of every partition share a single String for the type.
+     */
+    static Map<String, EventPartition> read(File file) throws IOException
+    {
+        Map<String, EventPartition> partitions = new LinkedHashMap<String, EventPartition>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            Reader reader = new Reader(channel);
+            reader.require(12);
+            if (reader.buffer.getInt() != MAGIC)
+            {
+                throw new IOException("Not an event store snapshot: " + file);
+            }
+            int version = reader.buffer.getInt();
+            if (version != FORMAT_VERSION)
+            {
+                throw new IOException("Unsupported snapshot format version " + version + " in " + file);
+            }
+            int typeCount = reader.buffer.getInt();
+            for (int type = 0; type < typeCount; type++)
+            {
+                reader.require(4);
+                int nameLength = reader.buffer.getInt();
+                if (nameLength < 0 || nameLength > MAX_NAME_BYTES)
+                {
+                    throw new IOException("Corrupt snapshot " + file);
+                }
+                reader.require(nameLength + 4);
+                byte[] nameBytes = new byte[nameLength];
+                reader.buffer.get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+                int size = reader.buffer.getInt();
+                /* Every event takes at least one byte, so a count past the
+                 * data left is corrupt, and is rejected before allocating
+                 */
+                if (size < 0 || size > reader.available())
+                {
+                    throw new IOException("Corrupt snapshot " + file);
+                }
+
+                long[] timestamps = new long[Math.max(size, 1)];
+                Event[] events = new Event[timestamps.length];
+                long previous = 0;
+                for (int index = 0; index < size; index++)
+                {
+                    long timestamp;
+                    if (index == 0)
+                    {
+                        reader.require(8);
+                        timestamp = reader.buffer.getLong();
+                    }
+                    else
+                    {
+                        reader.require(Math.min(10, reader.available()));
+                        long delta = 0;
+                        int shift = 0;
+                        byte b;
+                        do
+                        {
+                            if (!reader.buffer.hasRemaining() || shift > 63)
+                            {
+                                throw new IOException("Corrupt snapshot " + file);
+                            }
+                            b = reader.buffer.get();
+                            delta |= (long) (b & 0x7F) << shift;
+                            shift += 7;
+                        }
+                        while (b < 0);
+                        timestamp = previous + delta;
+                    }
+                    timestamps[index] = timestamp;
+                    events[index] = new Event(name, timestamp);
+                    previous = timestamp;
+                }
+                partitions.put(name, new EventPartition(timestamps, events, size));
+            }
+            reader.finish(file);
+        }
+        return partitions;
+    }
+
+    /* Buffered output to a channel, checksumming what it writes */
+    private static final class Writer
+    {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        final CRC32 crc = new CRC32();
+
+        Writer(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        void ensure(int length) throws IOException
+        {
+            if (buffer.remaining() < length)
+            {
+                flush();
+            }
+        }
+
+        void flush() throws IOException
+        {
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /* Buffered input from a channel, checksumming what is consumed.
+     * The last four bytes of the file, the checksum itself, are held
+     * back from the data.
+     */
+    private static final class Reader
+    {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        final CRC32 crc = new CRC32();
+        private long unread;
+        private int checksummed = 0;
+
+        Reader(FileChannel channel) throws IOException
+        {
+            this.channel = channel;
+            this.unread = channel.size() - 4;
+            if (unread < 0)
+            {
+                throw new EOFException("Truncated snapshot");
+            }
+            buffer.limit(0);
+        }
+
+        /* Bytes of data left, buffered or not */
+        int available()
+        {
+            return (int) Math.min(Integer.MAX_VALUE, buffer.remaining() + unread);
+        }
+
+        /* Makes sure at least length bytes of data are buffered */
+        void require(int length) throws IOException
+        {
+            if (buffer.remaining() >= length)
+            {
+                return;
+            }
+            if (length > buffer.remaining() + unread)
+            {
+                throw new EOFException("Truncated snapshot");
+            }
+            crc.update(buffer.array(), checksummed, buffer.position() - checksummed);
+            buffer.compact();
+            checksummed = 0;
+            if (length > buffer.capacity())
+            {
+                throw new IOException("Corrupt snapshot, record of " + length + " bytes");
+            }
+            int target = (int) Math.min(buffer.capacity(), buffer.position() + unread);
+            buffer.limit(target);
+            while (buffer.hasRemaining())
+            {
+                int read = channel.read(buffer);
+                if (read < 0)
+                {
+                    throw new EOFException("Truncated snapshot");
+                }
+                unread -= read;
+            }
+            buffer.flip();
+        }
+
+        /* Checks that every byte of data was consumed and matches the
+         * checksum at the end of the file.
+         */
+        void finish(File file) throws IOException
+        {
+            if (buffer.hasRemaining() || unread > 0)
+            {
+                throw new IOException("Unexpected data at the end of snapshot " + file);
+            }
+            crc.update(buffer.array(), checksummed, buffer.position() - checksummed);
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            while (trailer.hasRemaining())
+            {
+                if (channel.read(trailer) < 0)
+                {
+                    throw new EOFException("Truncated snapshot");
+                }
+            }
+            trailer.flip();
+            if (trailer.getInt() != (int) crc.getValue())
+            {
+                throw new IOException("Checksum mismatch in snapshot " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package net.intelie.challenges;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/*
+ * Spliterator over the [startTime, endTime) range of one or more
+ * partition snapshots, merging them in timestamp order; on equal
+ * timestamps, events of earlier snapshots come first.
+ * Splitting cuts the time range in two at the timestamp in the middle
+ * of the largest remaining snapshot range, so the prefix keeps every
+ * event before that timestamp, of every snapshot, and the spliterator
+ * itself keeps the rest: each half is a contiguous slice of the merged
+ * order, which lets parallel streams keep the encounter order while
+ * they scan the halves on different threads. Ranges below
+ * MIN_SPLIT_SIZE slots are not worth splitting further.
+ * Snapshots are immutable, so no lock is ever taken. Picking the next
+ * event compares the head of every snapshot, which is cheap for the few
+ * types a query usually asks for.
+ */
+class SnapshotSpliterator implements Spliterator<Event>
+{
+    private static final int MIN_SPLIT_SIZE = 4096;
+
+    private final EventPartition.Snapshot[] snapshots;
+    private final int[] positions;
+    private final int[] ends;
+
+    SnapshotSpliterator(EventPartition.Snapshot[] snapshots, long startTime, long endTime)
+    {
+        this.snapshots = snapshots;
+        this.positions = new int[snapshots.length];
+        this.ends = new int[snapshots.length];
+        for (int source = 0; source < snapshots.length; source++)
+        {
+            positions[source] = snapshots[source].lowerBound(startTime);
+            ends[source] = Math.max(positions[source], snapshots[source].lowerBound(endTime));
+        }
+    }
+
+    private SnapshotSpliterator(EventPartition.Snapshot[] snapshots, int[] positions, int[] ends)
+    {
+        this.snapshots = snapshots;
+        this.positions = positions;
+        this.ends = ends;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Event> action)
+    {
+        int source = next();
+        if (source < 0)
+        {
+            return false;
+        }
+        action.accept(snapshots[source].events[positions[source]++]);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Event> action)
+    {
+        for (int source = next(); source >= 0; source = next())
+        {
+            action.accept(snapshots[source].events[positions[source]++]);
+        }
+    }
+
+    @Override
+    public Spliterator<Event> trySplit()
+    {
+        int largest = 0;
+        for (int source = 1; source < snapshots.length; source++)
+        {
+            if (ends[source] - positions[source] > ends[largest] - positions[largest])
+            {
+                largest = source;
+            }
+        }
+        if (snapshots.length == 0 || ends[largest] - positions[largest] < MIN_SPLIT_SIZE)
+        {
+            return null;
+        }
+        long splitTime = snapshots[largest].timestamps[(positions[largest] + ends[largest]) >>> 1];
+        int[] splits = new int[snapshots.length];
+        boolean emptyPrefix = true;
+        for (int source = 0; source < snapshots.length; source++)
+        {
+            int split = snapshots[source].lowerBound(splitTime);
+            splits[source] = Math.min(Math.max(split, positions[source]), ends[source]);
+            emptyPrefix &= splits[source] == positions[source];
+        }
+        if (emptyPrefix)
+        {
+            return null;
+        }
+        SnapshotSpliterator prefix = new SnapshotSpliterator(snapshots, positions.clone(), splits.clone());
+        System.arraycopy(splits, 0, positions, 0, splits.length);
+        return prefix;
+    }
+
+    /* Number of slots left, tombstones included, so only an estimate */
+    @Override
+    public long estimateSize()
+    {
+        long size = 0;
+        for (int source = 0; source < snapshots.length; source++)
+        {
+            size += ends[source] - positions[source];
+        }
+        return size;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    /* Skips the tombstones at the head of every snapshot and returns the
+     * snapshot holding the next event in merged order, or -1 when all of
+     * them are exhausted.
+     */
+    private int next()
+    {
+        int next = -1;
+        for (int source = 0; source < snapshots.length; source++)
+        {
+            Event[] events = snapshots[source].events;
+            while (positions[source] < ends[source] && events[positions[source]] == null)
+            {
+                positions[source]++;
+            }
+            if (positions[source] < ends[source]
+                && (next < 0 || snapshots[source].timestamps[positions[source]] < snapshots[next].timestamps[positions[next]]))
+            {
+                next = source;
+            }
+        }
+        return next;
+    }
+}
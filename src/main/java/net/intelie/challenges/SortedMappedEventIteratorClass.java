@@ -0,0 +1,100 @@
+package net.intelie.challenges;
+
+public class SortedMappedEventIteratorClass implements EventIterator
+{
+    /* Iterator over the events of several mapped partitions in timestamp
+     * order, for partitions whose records were not appended in order, so
+     * that their own iterators can not be merged.
+     * The records of the range are collected once, at query time, as
+     * (partition, segment, record) handles sorted by timestamp, keeping
+     * the order of the partitions and then the insertion order on equal
+     * timestamps. Records removed after the query are still returned.
+     * Positions of mapped records never change, so remove tombstones the
+     * record of the current handle in O(1), like MappedEventIteratorClass.
+     */
+    private final Object lock;
+    private MappedPartition[] partitions;
+    private long[] timestamps;
+    private int[] owners;
+    private int[] segments;
+    private int[] records;
+    private final int count;
+    private int index = -1;
+    private boolean hasCurrent = false;
+    private Event currentEvent = null;
+
+    /* Constructor of SortedMappedEventIteratorClass, it takes the lock
+     * guarding the partitions and count handles already sorted, owners
+     * being indexes into partitions.
+     */
+    SortedMappedEventIteratorClass(Object lock, MappedPartition[] partitions, long[] timestamps, int[] owners, int[] segments, int[] records, int count)
+    {
+        this.lock = lock;
+        this.partitions = partitions;
+        this.timestamps = timestamps;
+        this.owners = owners;
+        this.segments = segments;
+        this.records = records;
+        this.count = count;
+    }
+
+    @Override
+    public boolean moveNext()
+    {
+        currentEvent = null;
+        if (index < count)
+        {
+            index++;
+        }
+        hasCurrent = index < count;
+        return hasCurrent;
+    }
+
+    @Override
+    public Event current()
+    {
+        if (!hasCurrent)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        if (currentEvent == null)
+        {
+            currentEvent = new Event(partitions[owners[index]].type, timestamps[index]);
+        }
+        return currentEvent;
+    }
+
+    /* Tombstones the record of the current handle in its segment file */
+    @Override
+    public void remove()
+    {
+        if (!hasCurrent)
+        {
+            throw new IllegalStateException("Move function is not called to get the index or move function return false!!");
+        }
+        MappedPartition partition = partitions[owners[index]];
+        synchronized (lock)
+        {
+            if (!partition.isReleased())
+            {
+                partition.segment(segments[index]).remove(records[index]);
+            }
+        }
+        hasCurrent = false;
+        currentEvent = null;
+    }
+
+    /* Releases the partitions and the handles */
+    @Override
+    public void close()
+    {
+        partitions = new MappedPartition[0];
+        timestamps = new long[0];
+        owners = new int[0];
+        segments = new int[0];
+        records = new int[0];
+        index = count;
+        hasCurrent = false;
+        currentEvent = null;
+    }
+}
@@ -0,0 +1,381 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+
+public class StripedEventStoreClass implements EventStore
+{
+    /*
+     * Lock striped version of EventStoreClass.
+     * Event types are hashed to a fixed number of shards, and every shard
+     * keeps the sorted EventPartitions of its types guarded by a lock of
+     * its own, so writers of types living in different shards never wait
+     * for each other, while all the events of one type still live in a
+     * single ordered partition.
+     * The partitions map of a shard is a ConcurrentHashMap, which lets
+     * queries find their partition without any lock; only changes to the
+     * map take the shard write lock, together with every change to the
+     * partitions themselves.
+     * Shard locks are StampedLocks: iterators fetch their windows under an
+     * optimistic read stamp, taking no lock at all unless a writer of the
+     * same shard got in the way, in which case the window is fetched
+     * again under the shard read lock. Iterator removals take the shard
+     * write lock. A query and its iteration never touch more than one
+     * shard.
+     * The number of shards is a power of two, by default four per
+     * available processor, so that unrelated hot types rarely share one.
+     */
+    private final Shard[] shards;
+    private final int shardMask;
+
+    /* Counters and latencies of every operation, see metrics() */
+    private final EventStoreMetrics metrics = new EventStoreMetrics(new EventStoreMetrics.TypeStatistics()
+    {
+        @Override
+        public Map<String, Long> eventCounts()
+        {
+            Map<String, Long> counts = new TreeMap<String, Long>();
+            for (Shard shard : shards)
+            {
+                shard.readLock.lock();
+                try
+                {
+                    for (Map.Entry<String, EventPartition> partition : shard.partitions.entrySet())
+                    {
+                        counts.put(partition.getKey(), (long) partition.getValue().size());
+                    }
+                }
+                finally
+                {
+                    shard.readLock.unlock();
+                }
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Long> memoryEstimates()
+        {
+            Map<String, Long> estimates = new TreeMap<String, Long>();
+            for (Shard shard : shards)
+            {
+                shard.readLock.lock();
+                try
+                {
+                    for (Map.Entry<String, EventPartition> partition : shard.partitions.entrySet())
+                    {
+                        estimates.put(partition.getKey(), partition.getValue().memoryEstimate());
+                    }
+                }
+                finally
+                {
+                    shard.readLock.unlock();
+                }
+            }
+            return estimates;
+        }
+    });
+
+    /* Partitions of the types hashed to one shard, with their lock */
+    private static final class Shard
+    {
+        final ConcurrentHashMap<String, EventPartition> partitions = new ConcurrentHashMap<String, EventPartition>();
+        final StampedLock lock = new StampedLock();
+        final Lock readLock;
+        final Lock writeLock;
+
+        Shard(EventStoreMetrics metrics)
+        {
+            readLock = new MeasuredLock(lock.asReadLock(), metrics);
+            writeLock = new MeasuredLock(lock.asWriteLock(), metrics);
+        }
+
+        /* Returns the partition of the type, creating it if needed.
+         * Must be called while holding the write lock.
+         */
+        EventPartition partition(String type)
+        {
+            EventPartition partition = partitions.get(type);
+            if (partition == null)
+            {
+                partition = new EventPartition();
+                partitions.put(type, partition);
+            }
+            return partition;
+        }
+    }
+
+    /* Creates a store with four shards per available processor */
+    public StripedEventStoreClass()
+    {
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /* Creates a store with the given number of shards,
+     * rounded up to a power of two.
+     */
+    public StripedEventStoreClass(int shardCount)
+    {
+        if (shardCount < 1)
+        {
+            throw new IllegalArgumentException("The number of shards must be positive, got " + shardCount);
+        }
+        int size = Integer.highestOneBit(shardCount);
+        if (size < shardCount)
+        {
+            size <<= 1;
+        }
+        shards = new Shard[size];
+        for (int index = 0; index < size; index++)
+        {
+            shards[index] = new Shard(metrics);
+        }
+        shardMask = size - 1;
+    }
+
+    /* Adds the event to the partition of its type, under the write lock
+     * of its shard only.
+     */
+    @Override
+    public void insert(Event event)
+    {
+        long start = System.nanoTime();
+        Shard shard = shard(event.type());
+        shard.writeLock.lock();
+        try
+        {
+            shard.partition(event.type()).insert(event);
+        }
+        finally
+        {
+            shard.writeLock.unlock();
+        }
+        metrics.recordInsert(System.nanoTime() - start);
+    }
+
+    /* Groups and sorts the batch by type before taking any lock, like
+     * EventStoreClass.insertAll, then merges the groups of each shard
+     * under a single acquisition of its write lock.
+     */
+    @Override
+    public void insertAll(Collection<Event> events)
+    {
+        long start = System.nanoTime();
+        Map<String, List<Event>> batches = new HashMap<String, List<Event>>();
+        for (Event event : events)
+        {
+            List<Event> batch = batches.get(event.type());
+            if (batch == null)
+            {
+                batch = new ArrayList<Event>();
+                batches.put(event.type(), batch);
+            }
+            batch.add(event);
+        }
+        Map<Integer, Map<String, Event[]>> shardBatches = new HashMap<Integer, Map<String, Event[]>>();
+        for (Map.Entry<String, List<Event>> batch : batches.entrySet())
+        {
+            Event[] sorted = batch.getValue().toArray(new Event[0]);
+            Arrays.sort(sorted, EventStoreClass.BY_TIMESTAMP);
+            Map<String, Event[]> shardBatch = shardBatches.get(shardIndex(batch.getKey()));
+            if (shardBatch == null)
+            {
+                shardBatch = new HashMap<String, Event[]>();
+                shardBatches.put(shardIndex(batch.getKey()), shardBatch);
+            }
+            shardBatch.put(batch.getKey(), sorted);
+        }
+
+        for (Map.Entry<Integer, Map<String, Event[]>> shardBatch : shardBatches.entrySet())
+        {
+            Shard shard = shards[shardBatch.getKey()];
+            shard.writeLock.lock();
+            try
+            {
+                for (Map.Entry<String, Event[]> batch : shardBatch.getValue().entrySet())
+                {
+                    shard.partition(batch.getKey()).insertAll(batch.getValue());
+                }
+            }
+            finally
+            {
+                shard.writeLock.unlock();
+            }
+        }
+        metrics.recordInsertAll(events.size(), System.nanoTime() - start);
+    }
+
+    /* Drops the partition of the given type. Iterators already open over
+     * it keep walking the detached partition, as with EventStoreClass.
+     */
+    @Override
+    public void removeAll(String type)
+    {
+        long start = System.nanoTime();
+        Shard shard = shard(type);
+        int removed = 0;
+        shard.writeLock.lock();
+        try
+        {
+            EventPartition partition = shard.partitions.remove(type);
+            if (partition != null)
+            {
+                removed = partition.size();
+            }
+        }
+        finally
+        {
+            shard.writeLock.unlock();
+        }
+        metrics.recordRemoveAll(removed, System.nanoTime() - start);
+    }
+
+    /* Returns a lazy iterator over the [startTime, endTime) range of the
+     * partition of the given type. The partition is looked up without
+     * any lock, and the iterator only ever locks the shard of that type.
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime)
+    {
+        long start = System.nanoTime();
+        Shard shard = shard(type);
+        EventIterator iterator = new EventIteratorClass(shard.readLock, shard.writeLock, shard.lock, metrics,
+            shard.partitions.get(type), startTime, endTime);
+        metrics.recordQuery(System.nanoTime() - start);
+        return iterator;
+    }
+
+    /* Aggregations are computed from the partition index, as in
+     * EventStoreClass, under the read lock of the shard of the type.
+     */
+    @Override
+    public long count(String type, long startTime, long endTime)
+    {
+        Shard shard = shard(type);
+        shard.readLock.lock();
+        try
+        {
+            EventPartition partition = shard.partitions.get(type);
+            return partition == null ? 0 : partition.count(startTime, endTime);
+        }
+        finally
+        {
+            shard.readLock.unlock();
+        }
+    }
+
+    @Override
+    public OptionalLong firstTimestamp(String type, long startTime, long endTime)
+    {
+        Shard shard = shard(type);
+        shard.readLock.lock();
+        try
+        {
+            EventPartition partition = shard.partitions.get(type);
+            int index = partition == null ? -1 : partition.firstIndex(startTime, endTime);
+            return index < 0 ? OptionalLong.empty() : OptionalLong.of(partition.get(index).timestamp());
+        }
+        finally
+        {
+            shard.readLock.unlock();
+        }
+    }
+
+    @Override
+    public OptionalLong lastTimestamp(String type, long startTime, long endTime)
+    {
+        Shard shard = shard(type);
+        shard.readLock.lock();
+        try
+        {
+            EventPartition partition = shard.partitions.get(type);
+            int index = partition == null ? -1 : partition.lastIndex(startTime, endTime);
+            return index < 0 ? OptionalLong.empty() : OptionalLong.of(partition.get(index).timestamp());
+        }
+        finally
+        {
+            shard.readLock.unlock();
+        }
+    }
+
+    @Override
+    public long[] histogram(String type, long startTime, long endTime, long interval)
+    {
+        long[] counts = new long[Aggregations.binCount(startTime, endTime, interval)];
+        Shard shard = shard(type);
+        shard.readLock.lock();
+        try
+        {
+            EventPartition partition = shard.partitions.get(type);
+            if (partition != null)
+            {
+                partition.histogram(startTime, endTime, interval, counts);
+            }
+        }
+        finally
+        {
+            shard.readLock.unlock();
+        }
+        return counts;
+    }
+
+    /* Returns the number of events currently held by the store. Shards
+     * are read one at a time, so concurrent writes to other shards may
+     * or may not be counted.
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Shard shard : shards)
+        {
+            shard.readLock.lock();
+            try
+            {
+                for (EventPartition partition : shard.partitions.values())
+                {
+                    size += partition.size();
+                }
+            }
+            finally
+            {
+                shard.readLock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /* Returns the number of shards the types are spread over */
+    public int shardCount()
+    {
+        return shards.length;
+    }
+
+    /* Returns the metrics of this store, see EventStoreClass.metrics */
+    public EventStoreMetrics metrics()
+    {
+        return metrics;
+    }
+
+    private Shard shard(String type)
+    {
+        return shards[shardIndex(type)];
+    }
+
+    /* Spreads the high bits of the hash code over the low ones, which
+     * are the only ones used with few shards.
+     */
+    private int shardIndex(String type)
+    {
+        int hash = type.hashCode();
+        return (hash ^ (hash >>> 16)) & shardMask;
+    }
+}
@@ -0,0 +1,454 @@
+package net.intelie.challenges;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class TimeBucketedEventStoreClass implements EventStore
+{
+    /*
+     * Store for rolling windows of events.
+     * The events of every type are split in time buckets of a fixed
+     * width: the bucket starting at k * bucketWidth holds the events with
+     * timestamps in [k * bucketWidth, (k + 1) * bucketWidth), sorted in
+     * an EventPartition of their own. The buckets of a type are kept in a
+     * TreeMap by start time, so a query only walks the buckets that
+     * overlap its range, and dropping old data is dropping whole buckets:
+     * O(1) per bucket no matter how many events it holds, instead of one
+     * iterator removal per event.
+     * With a retention set, every time the newest timestamp seen by the
+     * store enters a new bucket, the buckets lying entirely before the
+     * newest timestamp minus the retention are dropped, inline and
+     * without any background thread. Events inserted late, with a
+     * timestamp before the start of the oldest retained bucket, are
+     * counted as removed right away instead of recreating an expired
+     * bucket. Buckets left empty, by iterator removals or by expireBefore
+     * trimming the boundary bucket, are dropped as soon as that happens,
+     * so churn does not pile up empty buckets. Timestamps have no unit here, so
+     * bucketWidth and retention are in whatever unit events use, e.g.
+     * 60000 for minute buckets of millisecond timestamps.
+     * Every access to the buckets is guarded by the store lock.
+     */
+    private final long bucketWidth;
+    private final long retention;
+    private final Map<String, TreeMap<Long, EventPartition>> types = new HashMap<String, TreeMap<Long, EventPartition>>();
+    private long newestBucket = Long.MIN_VALUE;
+    private long newestTimestamp = Long.MIN_VALUE;
+    private long retainedFrom = Long.MIN_VALUE;
+
+    /* Counters and latencies of every operation, see metrics() */
+    private final EventStoreMetrics metrics = new EventStoreMetrics(new EventStoreMetrics.TypeStatistics()
+    {
+        @Override
+        public Map<String, Long> eventCounts()
+        {
+            Map<String, Long> counts = new TreeMap<String, Long>();
+            lock.lock();
+            try
+            {
+                for (Map.Entry<String, TreeMap<Long, EventPartition>> type : types.entrySet())
+                {
+                    long count = 0;
+                    for (EventPartition bucket : type.getValue().values())
+                    {
+                        count += bucket.size();
+                    }
+                    counts.put(type.getKey(), count);
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Long> memoryEstimates()
+        {
+            Map<String, Long> estimates = new TreeMap<String, Long>();
+            lock.lock();
+            try
+            {
+                for (Map.Entry<String, TreeMap<Long, EventPartition>> type : types.entrySet())
+                {
+                    long estimate = 0;
+                    for (EventPartition bucket : type.getValue().values())
+                    {
+                        estimate += bucket.memoryEstimate();
+                    }
+                    estimates.put(type.getKey(), estimate);
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            return estimates;
+        }
+    });
+
+    private final MeasuredLock lock = new MeasuredLock(new ReentrantLock(), metrics);
+
+    /* Creates a store with buckets of the given width, keeping every
+     * event until it is expired with expireBefore.
+     */
+    public TimeBucketedEventStoreClass(long bucketWidth)
+    {
+        this(bucketWidth, Long.MAX_VALUE);
+    }
+
+    /* Creates a store with buckets of the given width, dropping the
+     * buckets older than retention, relative to the newest timestamp.
+     */
+    public TimeBucketedEventStoreClass(long bucketWidth, long retention)
+    {
+        if (bucketWidth <= 0)
+        {
+            throw new IllegalArgumentException("The bucket width must be positive, got " + bucketWidth);
+        }
+        if (retention <= 0)
+        {
+            throw new IllegalArgumentException("The retention must be positive, got " + retention);
+        }
+        this.bucketWidth = bucketWidth;
+        this.retention = retention;
+    }
+
+    /* Adds the event to the bucket of its timestamp, creating the
+     * bucket if needed. When the event is the first one of a bucket newer
+     * than any other, the retention is applied.
+     */
+    @Override
+    public void insert(Event event)
+    {
+        long start = System.nanoTime();
+        lock.lock();
+        try
+        {
+            if (event.timestamp() < retainedFrom)
+            {
+                metrics.recordRemoved(1);
+            }
+            else
+            {
+                bucket(event.type(), bucketStart(event.timestamp())).insert(event);
+                advance(event.timestamp());
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        metrics.recordInsert(System.nanoTime() - start);
+    }
+
+    @Override
+    public void removeAll(String type)
+    {
+        long start = System.nanoTime();
+        long removed = 0;
+        lock.lock();
+        try
+        {
+            TreeMap<Long, EventPartition> buckets = types.remove(type);
+            if (buckets != null)
+            {
+                for (EventPartition bucket : buckets.values())
+                {
+                    removed += bucket.size();
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        metrics.recordRemoveAll(removed, System.nanoTime() - start);
+    }
+
+    /* Returns a lazy iterator over the [startTime, endTime) range of the
+     * given type, walking only the buckets overlapping that range.
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime)
+    {
+        long start = System.nanoTime();
+        TreeMap<Long, EventPartition> buckets;
+        lock.lock();
+        try
+        {
+            buckets = types.get(type);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        EventIterator iterator = new BucketedEventIteratorClass(lock, metrics, buckets, bucketStart(startTime), startTime, endTime);
+        metrics.recordQuery(System.nanoTime() - start);
+        return iterator;
+    }
+
+    /* Removes every event with a timestamp before the given one, of every
+     * type. Buckets ending at or before it are dropped whole, and only
+     * the bucket it falls into has its older events removed one by one,
+     * with a single shift of its arrays, and dropped if that empties it.
+     * Returns the number of events removed. Iterators over a dropped bucket keep walking it, like
+     * iterators over a type removed by removeAll.
+     */
+    public long expireBefore(long timestamp)
+    {
+        long start = System.nanoTime();
+        long removed = 0;
+        lock.lock();
+        try
+        {
+            long boundary = bucketStart(timestamp);
+            Iterator<TreeMap<Long, EventPartition>> iterator = types.values().iterator();
+            while (iterator.hasNext())
+            {
+                TreeMap<Long, EventPartition> buckets = iterator.next();
+                removed += dropBuckets(buckets.headMap(boundary, false));
+                EventPartition bucket = buckets.get(boundary);
+                if (bucket != null)
+                {
+                    removed += bucket.removeBefore(timestamp);
+                    if (bucket.size() == 0)
+                    {
+                        buckets.remove(boundary);
+                    }
+                }
+                if (buckets.isEmpty())
+                {
+                    iterator.remove();
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        metrics.recordRemoveAll(removed, System.nanoTime() - start);
+        return removed;
+    }
+
+    /* Aggregations are computed from the index of every bucket overlapping
+     * the range, as in EventStoreClass, so they cost O(log n) per bucket.
+     */
+    @Override
+    public long count(String type, long startTime, long endTime)
+    {
+        lock.lock();
+        try
+        {
+            long count = 0;
+            for (EventPartition bucket : overlapping(type, startTime, endTime).values())
+            {
+                count += bucket.count(startTime, endTime);
+            }
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public OptionalLong firstTimestamp(String type, long startTime, long endTime)
+    {
+        lock.lock();
+        try
+        {
+            for (EventPartition bucket : overlapping(type, startTime, endTime).values())
+            {
+                int index = bucket.firstIndex(startTime, endTime);
+                if (index >= 0)
+                {
+                    return OptionalLong.of(bucket.get(index).timestamp());
+                }
+            }
+            return OptionalLong.empty();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public OptionalLong lastTimestamp(String type, long startTime, long endTime)
+    {
+        lock.lock();
+        try
+        {
+            for (EventPartition bucket : overlapping(type, startTime, endTime).descendingMap().values())
+            {
+                int index = bucket.lastIndex(startTime, endTime);
+                if (index >= 0)
+                {
+                    return OptionalLong.of(bucket.get(index).timestamp());
+                }
+            }
+            return OptionalLong.empty();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long[] histogram(String type, long startTime, long endTime, long interval)
+    {
+        long[] counts = new long[Aggregations.binCount(startTime, endTime, interval)];
+        lock.lock();
+        try
+        {
+            for (EventPartition bucket : overlapping(type, startTime, endTime).values())
+            {
+                bucket.histogram(startTime, endTime, interval, counts);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return counts;
+    }
+
+    /* Returns the number of events currently held by the store */
+    public long size()
+    {
+        lock.lock();
+        try
+        {
+            long size = 0;
+            for (TreeMap<Long, EventPartition> buckets : types.values())
+            {
+                for (EventPartition bucket : buckets.values())
+                {
+                    size += bucket.size();
+                }
+            }
+            return size;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Returns the number of buckets held for the given type */
+    public int bucketCount(String type)
+    {
+        lock.lock();
+        try
+        {
+            TreeMap<Long, EventPartition> buckets = types.get(type);
+            return buckets == null ? 0 : buckets.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /* Returns the metrics of this store, see EventStoreClass.metrics */
+    public EventStoreMetrics metrics()
+    {
+        return metrics;
+    }
+
+    /* Returns the buckets of the type overlapping [startTime, endTime).
+     * Must be called while holding the store lock.
+     */
+    private NavigableMap<Long, EventPartition> overlapping(String type, long startTime, long endTime)
+    {
+        TreeMap<Long, EventPartition> buckets = types.get(type);
+        if (buckets == null || startTime >= endTime)
+        {
+            return new TreeMap<Long, EventPartition>();
+        }
+        return buckets.subMap(bucketStart(startTime), true, endTime, false);
+    }
+
+    /* Start of the bucket holding the given timestamp. The first bucket
+     * would start before Long.MIN_VALUE unless the width divides it, so
+     * its start is clamped to Long.MIN_VALUE instead of overflowing.
+     */
+    private long bucketStart(long timestamp)
+    {
+        long index = Math.floorDiv(timestamp, bucketWidth);
+        return index < Long.MIN_VALUE / bucketWidth ? Long.MIN_VALUE : index * bucketWidth;
+    }
+
+    /* Returns the bucket of the type starting at the given time,
+     * creating it if needed. Must be called while holding the store lock.
+     */
+    private EventPartition bucket(String type, long bucketStart)
+    {
+        TreeMap<Long, EventPartition> buckets = types.get(type);
+        if (buckets == null)
+        {
+            buckets = new TreeMap<Long, EventPartition>();
+            types.put(type, buckets);
+        }
+        EventPartition bucket = buckets.get(bucketStart);
+        if (bucket == null)
+        {
+            bucket = new EventPartition();
+            buckets.put(bucketStart, bucket);
+        }
+        return bucket;
+    }
+
+    /* Tracks the newest timestamp, and drops the buckets out of the
+     * retention whenever it enters a new bucket. Must be called while
+     * holding the store lock.
+     */
+    private void advance(long timestamp)
+    {
+        newestTimestamp = Math.max(newestTimestamp, timestamp);
+        long bucket = bucketStart(timestamp);
+        if (bucket <= newestBucket)
+        {
+            return;
+        }
+        newestBucket = bucket;
+        if (retention == Long.MAX_VALUE || newestTimestamp - retention > newestTimestamp)
+        {
+            return;
+        }
+        long boundary = bucketStart(newestTimestamp - retention);
+        retainedFrom = boundary;
+        long removed = 0;
+        Iterator<TreeMap<Long, EventPartition>> iterator = types.values().iterator();
+        while (iterator.hasNext())
+        {
+            TreeMap<Long, EventPartition> buckets = iterator.next();
+            removed += dropBuckets(buckets.headMap(boundary, false));
+            if (buckets.isEmpty())
+            {
+                iterator.remove();
+            }
+        }
+        metrics.recordRemoved(removed);
+    }
+
+    /* Drops the given buckets, returning the number of events they held */
+    private static long dropBuckets(NavigableMap<Long, EventPartition> buckets)
+    {
+        long removed = 0;
+        for (EventPartition bucket : buckets.values())
+        {
+            removed += bucket.size();
+        }
+        buckets.clear();
+        return removed;
+    }
+}
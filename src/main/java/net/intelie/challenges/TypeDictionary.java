@@ -0,0 +1,70 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Concurrent dictionary assigning a small, dense int id to every
+ * distinct event type, starting at zero, so stores can index their
+ * partitions by id in a plain array and compare types as ints.
+ * Looking up a known type is a single lock free hash probe; only the
+ * first sighting of a type takes the dictionary lock to assign its id.
+ * Ids are never reused, the dictionary only grows.
+ */
+class TypeDictionary
+{
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+    /* Type names indexed by id. A name is written before its id is
+     * published in the map, so whoever reads an id from the map also
+     * sees the name.
+     */
+    private volatile String[] names = new String[16];
+    private int count = 0;
+
+    /* Returns the id of the type, assigning one if it is new */
+    int idOf(String type)
+    {
+        Integer id = ids.get(type);
+        return id != null ? id : register(type);
+    }
+
+    /* Returns the id of the type, or -1 if it was never seen */
+    int find(String type)
+    {
+        Integer id = ids.get(type);
+        return id != null ? id : -1;
+    }
+
+    /* Returns the type name of the given id. Every event created from
+     * the dictionary shares this single String instance.
+     */
+    String nameOf(int id)
+    {
+        return names[id];
+    }
+
+    /* Number of types registered so far */
+    int size()
+    {
+        return ids.size();
+    }
+
+    private synchronized int register(String type)
+    {
+        Integer id = ids.get(type);
+        if (id != null)
+        {
+            return id;
+        }
+        String[] current = names;
+        if (count == current.length)
+        {
+            current = Arrays.copyOf(current, count * 2);
+        }
+        current[count] = type;
+        names = current;
+        ids.put(type, count);
+        return count++;
+    }
+}
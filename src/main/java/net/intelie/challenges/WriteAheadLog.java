@@ -0,0 +1,316 @@
+package net.intelie.challenges;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only log of the write operations of a DurableEventStoreClass.
+ * Every record is framed by its payload length and a CRC32 of the payload,
+ * the payload being the operation code, the timestamp and the UTF-8 type
+ * name. A record torn by a crash fails its length or checksum check, so
+ * replay stops at the last complete record and the tail is cut off before
+ * anything is appended again.
+ * Appending only encodes the record into an in-memory buffer, under the
+ * monitor of the log. Writing the buffer out is done by commit, with group
+ * commit: the first writer to ask for a position that is not durable yet
+ * becomes the leader, swaps the buffer for an empty one, and writes and
+ * forces it outside the monitor, while writers arriving meanwhile keep
+ * appending to the new buffer and wait. When the leader is done, one of
+ * the waiters whose records are still not durable leads the next batch,
+ * covering all of them with a single FileChannel.force.
+ */
+class WriteAheadLog
+{
+    static final byte INSERT = 1;
+    static final byte REMOVE_ALL = 2;
+    static final byte REMOVE = 3;
+
+    /* Operation code and timestamp, before the type name */
+    private static final int PAYLOAD_HEADER = 9;
+
+    /* Payload length and checksum, before the payload */
+    private static final int FRAME_HEADER = 8;
+
+    /* Bound on the type name length, so a corrupt length
+     * is never taken for a huge record
+     */
+    private static final int MAX_PAYLOAD = PAYLOAD_HEADER + (1 << 20);
+
+    /* Receives the records read by replay, in log order */
+    interface Visitor
+    {
+        void visit(byte operation, String type, long timestamp);
+    }
+
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+
+    /* Guarded by the monitor of the log */
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private long appendedPosition;
+    private long writtenPosition;
+    private long forcedPosition;
+    private boolean committing = false;
+    private IOException failure = null;
+
+    /* Opens the log in the given file, creating it if needed, handing
+     * every record already in it to the visitor and cutting off a torn
+     * tail left by a crash.
+     */
+    WriteAheadLog(File file, Visitor visitor) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            long validPosition = replay(visitor);
+            if (validPosition < channel.size())
+            {
+                channel.truncate(validPosition);
+                channel.force(true);
+            }
+            channel.position(validPosition);
+            appendedPosition = validPosition;
+            writtenPosition = validPosition;
+            forcedPosition = validPosition;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /* Encodes a record into the buffer, returning the log position right
+     * after it, to be passed to commit. Fails if an earlier commit failed,
+     * as the log may have lost records since.
+     */
+    synchronized long append(byte operation, String type, long timestamp) throws IOException
+    {
+        if (failure != null)
+        {
+            throw new IOException("Write ahead log failed earlier", failure);
+        }
+        byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = PAYLOAD_HEADER + typeBytes.length;
+        if (payloadLength > MAX_PAYLOAD)
+        {
+            throw new IllegalArgumentException("Type name of " + typeBytes.length + " bytes is too long to be logged");
+        }
+        int recordLength = FRAME_HEADER + payloadLength;
+        if (buffer.remaining() < recordLength)
+        {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + recordLength));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        int start = buffer.position();
+        buffer.position(start + FRAME_HEADER);
+        buffer.put(operation);
+        buffer.putLong(timestamp);
+        buffer.put(typeBytes);
+        crc.reset();
+        crc.update(buffer.array(), start + FRAME_HEADER, payloadLength);
+        buffer.putInt(start, payloadLength);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        appendedPosition += recordLength;
+        return appendedPosition;
+    }
+
+    /* Returns once every record up to the given position is written to
+     * the file, and forced to the disk when force is set, leading or
+     * joining a group commit as described above.
+     */
+    void commit(long position, boolean force) throws IOException
+    {
+        while (true)
+        {
+            ByteBuffer batch;
+            long batchEnd;
+            synchronized (this)
+            {
+                while (committing && !isCommitted(position, force))
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the write ahead log");
+                    }
+                }
+                if (failure != null)
+                {
+                    throw new IOException("Write ahead log failed earlier", failure);
+                }
+                if (isCommitted(position, force))
+                {
+                    return;
+                }
+                committing = true;
+                batch = buffer;
+                batchEnd = appendedPosition;
+                buffer = spare;
+                spare = null;
+            }
+
+            IOException error = null;
+            try
+            {
+                batch.flip();
+                while (batch.hasRemaining())
+                {
+                    channel.write(batch);
+                }
+                if (force)
+                {
+                    channel.force(false);
+                }
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+            synchronized (this)
+            {
+                committing = false;
+                batch.clear();
+                spare = batch;
+                if (error == null)
+                {
+                    writtenPosition = batchEnd;
+                    if (force)
+                    {
+                        forcedPosition = batchEnd;
+                    }
+                }
+                else
+                {
+                    failure = error;
+                }
+                notifyAll();
+            }
+            if (error != null)
+            {
+                throw error;
+            }
+        }
+    }
+
+    /* Writes and forces everything appended so far */
+    void commitAll(boolean force) throws IOException
+    {
+        long position;
+        synchronized (this)
+        {
+            position = appendedPosition;
+        }
+        commit(position, force);
+    }
+
+    /* Size of the log in bytes, buffered records included */
+    synchronized long size()
+    {
+        return appendedPosition;
+    }
+
+    /* Forces everything appended and closes the file */
+    void close() throws IOException
+    {
+        try
+        {
+            commitAll(true);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private boolean isCommitted(long position, boolean force)
+    {
+        return (force ? forcedPosition : writtenPosition) >= position;
+    }
+
+    /* Hands every complete record to the visitor, returning the position
+     * right after the last one.
+     */
+    private long replay(Visitor visitor) throws IOException
+    {
+        ByteBuffer input = ByteBuffer.allocate(1 << 16);
+        input.limit(0);
+        long position = 0;
+        byte[] typeBytes = new byte[64];
+        while (true)
+        {
+            try
+            {
+                fill(input, FRAME_HEADER);
+                int payloadLength = input.getInt();
+                int checksum = input.getInt();
+                if (payloadLength < PAYLOAD_HEADER || payloadLength > MAX_PAYLOAD)
+                {
+                    return position;
+                }
+                if (payloadLength > input.capacity())
+                {
+                    ByteBuffer grown = ByteBuffer.allocate(payloadLength);
+                    grown.put(input);
+                    grown.flip();
+                    input = grown;
+                }
+                fill(input, payloadLength);
+                crc.reset();
+                crc.update(input.array(), input.position(), payloadLength);
+                if ((int) crc.getValue() != checksum)
+                {
+                    return position;
+                }
+                byte operation = input.get();
+                long timestamp = input.getLong();
+                int typeLength = payloadLength - PAYLOAD_HEADER;
+                if (typeBytes.length < typeLength)
+                {
+                    typeBytes = new byte[typeLength];
+                }
+                input.get(typeBytes, 0, typeLength);
+                visitor.visit(operation, new String(typeBytes, 0, typeLength, StandardCharsets.UTF_8), timestamp);
+                position += FRAME_HEADER + payloadLength;
+            }
+            catch (EOFException e)
+            {
+                return position;
+            }
+        }
+    }
+
+    /* Makes sure the input holds at least length unread bytes,
+     * reading more from the file if needed.
+     */
+    private void fill(ByteBuffer input, int length) throws IOException
+    {
+        if (input.remaining() >= length)
+        {
+            return;
+        }
+        input.compact();
+        while (input.position() < length)
+        {
+            if (channel.read(input) < 0)
+            {
+                throw new EOFException();
+            }
+        }
+        input.flip();
+    }
+}
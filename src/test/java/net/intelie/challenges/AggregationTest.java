@@ -0,0 +1,185 @@
+package net.intelie.challenges;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.OptionalLong;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * Checks the aggregations computed from the indexes of the stores
+ * against the ones computed by iterating, as the default methods of
+ * EventStore do.
+ */
+public class AggregationTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void indexedAggregationsMatchIteration() throws Exception
+    {
+        EventStore[] stores = {
+            new EventStoreClass(),
+            new StripedEventStoreClass(4),
+            new TimeBucketedEventStoreClass(1000),
+            new ColumnarEventStoreClass()
+        };
+        for (EventStore store : stores)
+        {
+            fill(store);
+            Random random = new Random(7);
+            for (int round = 0; round < 200; round++)
+            {
+                long start = random.nextInt(12000) - 1000;
+                long end = start + random.nextInt(round % 10 == 0 ? 12000 : 500);
+                long interval = 1 + random.nextInt(300);
+                String name = store.getClass().getSimpleName() + " [" + start + ", " + end + ")";
+
+                assertEquals(name, iteratedCount(store, start, end), store.count("A", start, end));
+                assertEquals(name, firstOf(store, start, end), store.firstTimestamp("A", start, end));
+                assertEquals(name, lastOf(store, start, end), store.lastTimestamp("A", start, end));
+                assertArrayEquals(name, histogramOf(store, start, end, interval), store.histogram("A", start, end, interval));
+            }
+            assertEquals(0, store.count("missing", 0, 10000));
+            assertFalse(store.firstTimestamp("missing", 0, 10000).isPresent());
+            assertEquals(0, store.histogram("missing", 0, 10, 1)[9]);
+        }
+    }
+
+    /* The mapped store returns events in insertion order, so the first
+     * and last timestamps are the lowest and highest of the range, not
+     * the ones of the first and last events its iterator returns.
+     */
+    @Test
+    public void mappedAggregationsHandleOutOfOrderSegments() throws Exception
+    {
+        MappedEventStoreClass store = new MappedEventStoreClass(folder.newFolder("mapped"), 1000);
+        fill(store);
+        store.insert(new Event("A", -500));
+        store.insert(new Event("A", 20000));
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++)
+        {
+            long start = random.nextInt(12000) - 1000;
+            long end = start + random.nextInt(round % 10 == 0 ? 12000 : 500);
+            long interval = 1 + random.nextInt(300);
+            String name = "[" + start + ", " + end + ")";
+
+            assertEquals(name, iteratedCount(store, start, end), store.count("A", start, end));
+            assertEquals(name, lowestOf(store, start, end), store.firstTimestamp("A", start, end));
+            assertEquals(name, highestOf(store, start, end), store.lastTimestamp("A", start, end));
+            assertArrayEquals(name, histogramOf(store, start, end, interval), store.histogram("A", start, end, interval));
+        }
+        assertEquals(OptionalLong.of(-500), store.firstTimestamp("A", Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(OptionalLong.of(20000), store.lastTimestamp("A", Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(0, store.count("missing", 0, 10000));
+        assertFalse(store.lastTimestamp("missing", 0, 10000).isPresent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void histogramRejectsNonPositiveInterval()
+    {
+        new EventStoreClass().histogram("A", 0, 10, 0);
+    }
+
+    @Test
+    public void histogramCutsTheLastBinAtEndTime()
+    {
+        EventStoreClass store = new EventStoreClass();
+        for (int i = 0; i < 100; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        assertArrayEquals(new long[]{30, 30, 30, 5}, store.histogram("A", 5, 100, 30));
+        assertArrayEquals(new long[]{0, 100, 0}, store.histogram("A", Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE));
+    }
+
+    /* Random, partly out of order, events with some removed through
+     * iterators, so the partitions hold shifted slots and tombstones
+     */
+    private static void fill(EventStore store) throws Exception
+    {
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++)
+        {
+            store.insert(new Event("A", i % 7 == 0 ? random.nextInt(10000) : i));
+            store.insert(new Event("B", i));
+        }
+        try (EventIterator iterator = store.query("A", 2000, 8000))
+        {
+            while (iterator.moveNext())
+            {
+                if (random.nextInt(3) == 0)
+                {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static long iteratedCount(EventStore store, long start, long end) throws Exception
+    {
+        long count = 0;
+        try (EventIterator iterator = store.query("A", start, end))
+        {
+            while (iterator.moveNext())
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static OptionalLong firstOf(EventStore store, long start, long end)
+    {
+        return Aggregations.firstTimestamp(store.query("A", start, end));
+    }
+
+    private static OptionalLong lastOf(EventStore store, long start, long end)
+    {
+        return Aggregations.lastTimestamp(store.query("A", start, end));
+    }
+
+    private static OptionalLong lowestOf(EventStore store, long start, long end) throws Exception
+    {
+        OptionalLong lowest = OptionalLong.empty();
+        try (EventIterator iterator = store.query("A", start, end))
+        {
+            while (iterator.moveNext())
+            {
+                if (!lowest.isPresent() || iterator.current().timestamp() < lowest.getAsLong())
+                {
+                    lowest = OptionalLong.of(iterator.current().timestamp());
+                }
+            }
+        }
+        return lowest;
+    }
+
+    private static OptionalLong highestOf(EventStore store, long start, long end) throws Exception
+    {
+        OptionalLong highest = OptionalLong.empty();
+        try (EventIterator iterator = store.query("A", start, end))
+        {
+            while (iterator.moveNext())
+            {
+                if (!highest.isPresent() || iterator.current().timestamp() > highest.getAsLong())
+                {
+                    highest = OptionalLong.of(iterator.current().timestamp());
+                }
+            }
+        }
+        return highest;
+    }
+
+    private static long[] histogramOf(EventStore store, long start, long end, long interval)
+    {
+        return Aggregations.histogram(store.query("A", start, end), start, end, interval);
+    }
+}
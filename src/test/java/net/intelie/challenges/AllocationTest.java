@@ -0,0 +1,163 @@
+package net.intelie.challenges;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Checks that the hot paths of EventStoreClass do not allocate once
+ * warmed up, with logging at its default level. Allocations are read
+ * from the per thread counter of the HotSpot ThreadMXBean, which is
+ * exact for the current thread; the tests are skipped on JVMs that do
+ * not provide it. Several rounds are run first so that class loading
+ * and JIT compilation do not count, and the bytes allocated over all
+ * the measured rounds must stay within a small fixed slack.
+ */
+public class AllocationTest
+{
+    private static final int BATCH = 10000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 10;
+
+    /* Bytes tolerated over all the measured rounds, for the odd object
+     * the JVM itself allocates on the thread, such as a deoptimization.
+     * It is a fixed total, so a single allocation per operation, of
+     * MEASURED_ROUNDS * BATCH objects, still fails.
+     */
+    private static final long ALLOCATION_SLACK_BYTES = 1024;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp()
+    {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /* Steady state of a store fed in timestamp order while its oldest
+     * events are removed: the partition arrays stop growing, so inserting
+     * is just writing two slots.
+     */
+    @Test
+    public void insertDoesNotAllocateInSteadyState() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        int rounds = WARMUP_ROUNDS + MEASURED_ROUNDS;
+        Event[] events = new Event[rounds * BATCH];
+        for (int i = 0; i < events.length; i++)
+        {
+            events[i] = new Event("type", i);
+        }
+
+        long allocated = 0;
+        for (int round = 0; round < rounds; round++)
+        {
+            long before = allocatedBytes();
+            for (int i = round * BATCH; i < (round + 1) * BATCH; i++)
+            {
+                store.insert(events[i]);
+            }
+            long after = allocatedBytes();
+            if (round >= WARMUP_ROUNDS)
+            {
+                allocated += after - before;
+            }
+
+            try (EventIterator iterator = store.query("type", 0, round * BATCH))
+            {
+                while (iterator.moveNext())
+                {
+                    iterator.remove();
+                }
+            }
+        }
+        assertEquals(BATCH, store.size());
+        assertTrue("Allocated " + allocated + " bytes", allocated <= ALLOCATION_SLACK_BYTES);
+    }
+
+    @Test
+    public void moveNextDoesNotAllocate() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        for (int i = 0; i < BATCH; i++)
+        {
+            store.insert(new Event("type", i));
+        }
+
+        long allocated = 0;
+        long checksum = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++)
+        {
+            try (EventIterator iterator = store.query("type", 0, BATCH))
+            {
+                long before = allocatedBytes();
+                while (iterator.moveNext())
+                {
+                    checksum += iterator.current().timestamp();
+                }
+                long after = allocatedBytes();
+                if (round >= WARMUP_ROUNDS)
+                {
+                    allocated += after - before;
+                }
+            }
+        }
+        assertEquals((long) BATCH * (BATCH - 1) / 2 * (WARMUP_ROUNDS + MEASURED_ROUNDS), checksum);
+        assertTrue("Allocated " + allocated + " bytes", allocated <= ALLOCATION_SLACK_BYTES);
+    }
+
+    /* Counting a range with tombstones in it reads the partition index
+     * and its tombstone tree, built once by the first count
+     */
+    @Test
+    public void countDoesNotAllocate() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        for (int i = 0; i < BATCH; i++)
+        {
+            store.insert(new Event("type", i));
+        }
+        try (EventIterator iterator = store.query("type", 0, BATCH))
+        {
+            while (iterator.moveNext())
+            {
+                if (iterator.current().timestamp() % 3 == 0)
+                {
+                    iterator.remove();
+                }
+            }
+        }
+
+        long allocated = 0;
+        long total = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++)
+        {
+            long before = allocatedBytes();
+            for (int i = 0; i < BATCH; i++)
+            {
+                total += store.count("type", i, i + 1000);
+            }
+            long after = allocatedBytes();
+            if (round >= WARMUP_ROUNDS)
+            {
+                allocated += after - before;
+            }
+        }
+        assertEquals(store.count("type", 0, BATCH), BATCH - (BATCH + 2) / 3);
+        assertTrue("Allocated " + allocated + " bytes", allocated <= ALLOCATION_SLACK_BYTES);
+        assertTrue(total > 0);
+    }
+
+    private long allocatedBytes()
+    {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,111 @@
+package net.intelie.challenges;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/*
+ * Checks hits, range scoped invalidation and weight bounded eviction
+ * of the query cache.
+ */
+public class CachingEventStoreTest
+{
+    @Test
+    public void repeatedRequestsHitUntilTheirRangeChanges() throws Exception
+    {
+        CachingEventStoreClass store = new CachingEventStoreClass(new EventStoreClass());
+        for (int i = 0; i < 1000; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        assertEquals(100, drain(store.query("A", 100, 200)));
+        assertEquals(100, drain(store.query("A", 100, 200)));
+        assertEquals(50, store.count("A", 0, 50));
+        assertEquals(50, store.count("A", 0, 50));
+        assertArrayEquals(new long[] {10, 10}, store.histogram("A", 0, 20, 10));
+        assertArrayEquals(new long[] {10, 10}, store.histogram("A", 0, 20, 10));
+        assertEquals(3, store.hitCount());
+        assertEquals(3, store.missCount());
+
+        // Appending at the head leaves the historical ranges cached
+        store.insert(new Event("A", 5000));
+        store.insert(new Event("B", 150));
+        assertEquals(3, store.size());
+        assertEquals(100, drain(store.query("A", 100, 200)));
+        assertEquals(4, store.hitCount());
+
+        store.insert(new Event("A", 150));
+        assertEquals(101, drain(store.query("A", 100, 200)));
+        assertEquals(50, store.count("A", 0, 50));
+        assertEquals(1, store.invalidationCount());
+
+        EventIterator iterator = store.query("A", 100, 200);
+        assertTrue(iterator.moveNext());
+        iterator.remove();
+        assertEquals(100, store.count("A", 100, 200));
+        assertEquals(100, drain(store.query("A", 100, 200)));
+
+        store.removeAll("A");
+        assertEquals(0, store.count("A", 0, 50));
+        assertFalse(store.query("A", 100, 200).moveNext());
+    }
+
+    @Test
+    public void leastRecentlyUsedResultsAreEvictedByWeight() throws Exception
+    {
+        CachingEventStoreClass store = new CachingEventStoreClass(new EventStoreClass(), 250);
+        for (int i = 0; i < 1000; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        drain(store.query("A", 0, 100));
+        drain(store.query("A", 100, 200));
+        drain(store.query("A", 0, 100));
+        drain(store.query("A", 200, 300));
+        assertEquals(200, store.weight());
+        assertEquals(1, store.evictionCount());
+
+        drain(store.query("A", 0, 100));
+        assertEquals(2, store.hitCount());
+        drain(store.query("A", 0, 1000));
+        assertEquals(200, store.weight());
+    }
+
+    /* Columnar stores create a new Event on every read, so a cached
+     * event is removed from them by type and timestamp.
+     */
+    @Test
+    public void cachedEventsAreRemovedFromStoresRecreatingEvents() throws Exception
+    {
+        ColumnarEventStoreClass wrapped = new ColumnarEventStoreClass();
+        CachingEventStoreClass store = new CachingEventStoreClass(wrapped);
+        for (int i = 0; i < 1000; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        assertEquals(100, drain(store.query("A", 100, 200)));
+
+        EventIterator iterator = store.query("A", 100, 200);
+        assertTrue(iterator.moveNext());
+        assertTrue(iterator.moveNext());
+        iterator.remove();
+        assertEquals(1, store.invalidationCount());
+        assertEquals(999, wrapped.count("A", 0, 1000));
+        assertFalse(wrapped.query("A", 101, 102).moveNext());
+        assertEquals(99, drain(store.query("A", 100, 200)));
+    }
+
+    private static int drain(EventIterator iterator) throws Exception
+    {
+        int count = 0;
+        while (iterator.moveNext())
+        {
+            count++;
+        }
+        iterator.close();
+        return count;
+    }
+}
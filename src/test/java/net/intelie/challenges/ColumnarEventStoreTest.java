@@ -0,0 +1,253 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarEventStoreTest {
+
+    /* Out of order inserts spanning many chunks, with repeated timestamps,
+     * are returned in timestamp order, and the created events share the
+     * interned type name.
+     */
+    @Test
+    public void queryReturnsSortedTimestampsAcrossChunks() throws Exception
+    {
+        ColumnarEventStoreClass eventStore = new ColumnarEventStoreClass();
+        List<Long> expected = new ArrayList<Long>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++)
+        {
+            long timestamp = random.nextInt(5000);
+            eventStore.insert(new Event("SENSOR_EVENT", timestamp));
+            if (timestamp >= 1000 && timestamp < 4000)
+            {
+                expected.add(timestamp);
+            }
+            eventStore.insert(new Event("OTHER_EVENT", timestamp));
+        }
+        Collections.sort(expected);
+        assertEquals(20000, eventStore.size());
+
+        EventIterator eventIteratorObj = eventStore.query(new String("SENSOR_EVENT"), 1000L, 4000L);
+        String type = null;
+        for (long timestamp : expected)
+        {
+            assertTrue(eventIteratorObj.moveNext());
+            assertEquals(timestamp, eventIteratorObj.current().timestamp());
+            assertSame(eventIteratorObj.current(), eventIteratorObj.current());
+            if (type != null)
+            {
+                assertSame(type, eventIteratorObj.current().type());
+            }
+            type = eventIteratorObj.current().type();
+        }
+        assertFalse(eventIteratorObj.moveNext());
+        assertThrows(IllegalStateException.class, eventIteratorObj::current);
+        eventIteratorObj.close();
+    }
+
+    /* Removing through the iterator, while events keep being inserted
+     * ahead of the cursor, removes exactly the visited events.
+     */
+    @Test
+    public void iteratorRemoveWhileInserting() throws Exception
+    {
+        ColumnarEventStoreClass eventStore = new ColumnarEventStoreClass();
+        for (int i = 0; i < 3000; i++)
+        {
+            eventStore.insert(new Event("SENSOR_EVENT", i / 3));
+        }
+
+        EventIterator eventIteratorObj = eventStore.query("SENSOR_EVENT", 0L, 2000L);
+        int visited = 0;
+        while (eventIteratorObj.moveNext())
+        {
+            if (visited % 100 == 0)
+            {
+                eventStore.insert(new Event("SENSOR_EVENT", 1500L));
+            }
+            if (eventIteratorObj.current().timestamp() < 1000L)
+            {
+                eventIteratorObj.remove();
+                assertThrows(IllegalStateException.class, eventIteratorObj::remove);
+            }
+            visited++;
+        }
+        eventIteratorObj.close();
+
+        assertEquals(3031, visited);
+        assertEquals(31, eventStore.size());
+
+        eventStore.removeAll("SENSOR_EVENT");
+        assertEquals(0, eventStore.size());
+        assertFalse(eventStore.query("SENSOR_EVENT", 0L, 2000L).moveNext());
+    }
+
+    /* An iterator left open over a type removed by removeAll stops */
+    @Test
+    public void removeAllStopsOpenIterators() throws Exception
+    {
+        ColumnarEventStoreClass eventStore = new ColumnarEventStoreClass();
+        for (int i = 0; i < 1000; i++)
+        {
+            eventStore.insert(new Event("SENSOR_EVENT", i));
+        }
+        EventIterator eventIteratorObj = eventStore.query("SENSOR_EVENT", 0L, 1000L);
+        assertTrue(eventIteratorObj.moveNext());
+        eventStore.removeAll("SENSOR_EVENT");
+
+        int remaining = 0;
+        while (eventIteratorObj.moveNext())
+        {
+            remaining++;
+        }
+        assertTrue(remaining < 64);
+        assertFalse(eventStore.query("UNKNOWN_EVENT", 0L, 1000L).moveNext());
+    }
+
+    /* A batch insert stores the same timestamps as one by one inserts */
+    @Test
+    public void insertAllMatchesOneByOneInserts() throws Exception
+    {
+        ColumnarEventStoreClass eventStore = new ColumnarEventStoreClass();
+        List<Event> batch = new ArrayList<Event>();
+        List<Long> expected = new ArrayList<Long>();
+        Random random = new Random(3);
+        for (int i = 0; i < 5000; i++)
+        {
+            long timestamp = random.nextInt(2000);
+            eventStore.insert(new Event("SENSOR_EVENT", timestamp));
+            batch.add(new Event(i % 2 == 0 ? "SENSOR_EVENT" : "OTHER_EVENT", timestamp));
+            expected.add(timestamp);
+            if (i % 2 == 0)
+            {
+                expected.add(timestamp);
+            }
+        }
+        eventStore.insertAll(batch);
+        Collections.sort(expected);
+        assertEquals(10000, eventStore.size());
+
+        EventIterator eventIteratorObj = eventStore.query("SENSOR_EVENT", 0L, 2000L);
+        for (long timestamp : expected)
+        {
+            assertTrue(eventIteratorObj.moveNext());
+            assertEquals(timestamp, eventIteratorObj.current().timestamp());
+        }
+        assertFalse(eventIteratorObj.moveNext());
+    }
+
+    /* Old chunks are sealed into compressed blocks taking a fraction of
+     * the memory, and stay readable, removable and insertable into.
+     */
+    @Test
+    public void sealedChunksAreCompressedAndStayWritable() throws Exception
+    {
+        ColumnarEventStoreClass eventStore = new ColumnarEventStoreClass(1);
+        List<Long> expected = new ArrayList<Long>();
+        Random random = new Random(11);
+        long timestamp = 1_600_000_000_000L;
+        for (int i = 0; i < 20000; i++)
+        {
+            timestamp += 1000 + random.nextInt(20);
+            eventStore.insert(new Event("SENSOR_EVENT", timestamp));
+            expected.add(timestamp);
+        }
+        assertEquals(19, eventStore.sealedChunkCount());
+        long estimate = eventStore.metrics().getMemoryEstimatesByType().get("SENSOR_EVENT");
+        assertTrue("Estimated " + estimate + " bytes", estimate < 20000 * 8 / 3);
+
+        // Out of order inserts and removals landing on sealed chunks
+        for (int i = 0; i < 50; i++)
+        {
+            long old = expected.get(random.nextInt(15000));
+            eventStore.insert(new Event("SENSOR_EVENT", old));
+            expected.add(old);
+        }
+        EventIterator eventIteratorObj = eventStore.query("SENSOR_EVENT", expected.get(3000), expected.get(4000));
+        while (eventIteratorObj.moveNext())
+        {
+            if (eventIteratorObj.current().timestamp() % 3 == 0)
+            {
+                expected.remove(eventIteratorObj.current().timestamp());
+                eventIteratorObj.remove();
+            }
+        }
+        Collections.sort(expected);
+        assertEquals(expected.size(), eventStore.size());
+
+        for (int round = 0; round < 20; round++)
+        {
+            int from = random.nextInt(expected.size() - 1);
+            int to = from + random.nextInt(Math.min(3000, expected.size() - from));
+            eventIteratorObj = eventStore.query("SENSOR_EVENT", expected.get(from), expected.get(to));
+            int index = expected.indexOf(expected.get(from));
+            while (eventIteratorObj.moveNext())
+            {
+                assertEquals(expected.get(index++), (Long) eventIteratorObj.current().timestamp());
+            }
+            assertEquals(expected.indexOf(expected.get(to)), index);
+        }
+    }
+
+    /* Chunks unsealed by out of order inserts and removals are sealed
+     * again by the next compaction pass.
+     */
+    @Test
+    public void unsealedChunksAreSealedAgainUnderChurn() throws Exception
+    {
+        ColumnarEventStoreClass eventStore = new ColumnarEventStoreClass(1);
+        for (int i = 0; i < 20000; i++)
+        {
+            eventStore.insert(new Event("SENSOR_EVENT", i * 10L));
+        }
+        assertEquals(19, eventStore.sealedChunkCount());
+
+        // 2048 modifications, so the churn ends right after a compaction pass
+        Random random = new Random(13);
+        for (int i = 0; i < 1024; i++)
+        {
+            eventStore.insert(new Event("SENSOR_EVENT", random.nextInt(19000) * 10L + 5));
+            EventIterator eventIteratorObj = eventStore.query("SENSOR_EVENT", random.nextInt(19000) * 10L, 200000L);
+            assertTrue(eventIteratorObj.moveNext());
+            eventIteratorObj.remove();
+        }
+        assertEquals(20000, eventStore.size());
+        assertTrue(eventStore.sealedChunkCount() >= 19);
+        assertEquals(20000, eventStore.count("SENSOR_EVENT", 0L, 200000L));
+    }
+
+    /* Draining a type releases the chunks freed beyond the pool cap, and
+     * the store keeps working on the released handles.
+     */
+    @Test
+    public void freedChunksBeyondThePoolAreReleased() throws Exception
+    {
+        HeapChunkStorage storage = new HeapChunkStorage();
+        ColumnarEventStoreClass eventStore = new ColumnarEventStoreClass(storage);
+        int events = 2 * HeapChunkStorage.MAX_POOLED_CHUNKS * ColumnarPartition.CHUNK_CAPACITY;
+        for (int i = 0; i < events; i++)
+        {
+            eventStore.insert(new Event("SENSOR_EVENT", i));
+        }
+        eventStore.removeAll("SENSOR_EVENT");
+        assertEquals(HeapChunkStorage.MAX_POOLED_CHUNKS, storage.pooledChunkCount());
+
+        for (int i = 0; i < events; i++)
+        {
+            eventStore.insert(new Event("SENSOR_EVENT", i));
+        }
+        assertEquals(0, storage.pooledChunkCount());
+        assertEquals(events, eventStore.count("SENSOR_EVENT", 0L, events));
+    }
+}
@@ -0,0 +1,150 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentEventStoreTest {
+    private static final int THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 10000;
+
+    /* Query returns events of the requested type in timestamp order,
+     * keeps events with the same timestamp and honours the exclusive endTime.
+     */
+    @Test
+    public void queryReturnsOrderedRange() throws Exception
+    {
+        ConcurrentEventStoreClass eventStore = new ConcurrentEventStoreClass();
+        eventStore.insert(new Event("READ_EVENT", 30L));
+        eventStore.insert(new Event("READ_EVENT", 10L));
+        eventStore.insert(new Event("READ_EVENT", 10L));
+        eventStore.insert(new Event("WRITE_EVENT", 20L));
+        eventStore.insert(new Event("READ_EVENT", 40L));
+
+        EventIterator eventIteratorObj = eventStore.query("READ_EVENT", 10L, 40L);
+        long[] expectedTimestamps = {10L, 10L, 30L};
+        for (long expectedTimestamp : expectedTimestamps)
+        {
+            assertTrue(eventIteratorObj.moveNext());
+            assertEquals(expectedTimestamp, eventIteratorObj.current().timestamp());
+        }
+        assertFalse(eventIteratorObj.moveNext());
+        assertThrows(IllegalStateException.class, eventIteratorObj::current);
+        eventIteratorObj.close();
+    }
+
+    /* Removing through the iterator deletes the event from the store */
+    @Test
+    public void iteratorRemoveDeletesFromStore() throws Exception
+    {
+        ConcurrentEventStoreClass eventStore = new ConcurrentEventStoreClass();
+        for (int i = 0; i < 10; i++)
+        {
+            eventStore.insert(new Event("READ_EVENT", i));
+        }
+        EventIterator eventIteratorObj = eventStore.query("READ_EVENT", 0L, 5L);
+        while (eventIteratorObj.moveNext())
+        {
+            eventIteratorObj.remove();
+            assertThrows(IllegalStateException.class, eventIteratorObj::remove);
+        }
+        eventIteratorObj.close();
+
+        assertEquals(5, eventStore.size());
+        assertFalse(eventStore.query("READ_EVENT", 0L, 5L).moveNext());
+        eventStore.removeAll("READ_EVENT");
+        assertEquals(0, eventStore.size());
+    }
+
+    /* Evidence of thread safety: several threads insert events of a
+     * shared type and of their own type while other threads query and
+     * remove, and no event is lost or duplicated.
+     */
+    @Test
+    public void concurrentInsertsQueriesAndRemovals() throws Exception
+    {
+        final ConcurrentEventStoreClass eventStore = new ConcurrentEventStoreClass();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS * 2);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for (int t = 0; t < THREADS; t++)
+        {
+            final String ownType = "TYPE_" + t;
+            futures.add(executor.submit((Callable<Void>) () -> {
+                for (int i = 0; i < EVENTS_PER_THREAD; i++)
+                {
+                    eventStore.insert(new Event("SHARED_EVENT", i));
+                    eventStore.insert(new Event(ownType, i));
+                }
+                return null;
+            }));
+            futures.add(executor.submit((Callable<Void>) () -> {
+                /* Removes events of a type that is never inserted
+                 * and iterates the shared type while it grows
+                 */
+                for (int i = 0; i < 100; i++)
+                {
+                    eventStore.removeAll("UNUSED_EVENT");
+                    EventIterator eventIteratorObj = eventStore.query("SHARED_EVENT", 0L, EVENTS_PER_THREAD);
+                    long previous = Long.MIN_VALUE;
+                    while (eventIteratorObj.moveNext())
+                    {
+                        long timestamp = eventIteratorObj.current().timestamp();
+                        assertTrue(timestamp >= previous);
+                        previous = timestamp;
+                    }
+                    eventIteratorObj.close();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(2 * THREADS * EVENTS_PER_THREAD, eventStore.size());
+
+        /* Concurrently removing the even timestamps of the shared type
+         * through iterators removes each event exactly once
+         */
+        executor = Executors.newFixedThreadPool(THREADS);
+        futures.clear();
+        for (int t = 0; t < THREADS; t++)
+        {
+            futures.add(executor.submit((Callable<Void>) () -> {
+                EventIterator eventIteratorObj = eventStore.query("SHARED_EVENT", 0L, EVENTS_PER_THREAD);
+                while (eventIteratorObj.moveNext())
+                {
+                    if (eventIteratorObj.current().timestamp() % 2 == 0)
+                    {
+                        eventIteratorObj.remove();
+                    }
+                }
+                eventIteratorObj.close();
+                return null;
+            }));
+        }
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(THREADS * EVENTS_PER_THREAD + THREADS * EVENTS_PER_THREAD / 2, eventStore.size());
+    }
+}
@@ -0,0 +1,209 @@
+package net.intelie.challenges;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DurableEventStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Inserts, removeAll and iterator removals are replayed in order
+     * into a new store when the log is opened again.
+     */
+    @Test
+    public void replayRestoresEveryOperation() throws Exception
+    {
+        File logFile = new File(folder.getRoot(), "events.wal");
+        DurableEventStoreClass eventStore = new DurableEventStoreClass(new EventStoreClass(), logFile);
+        for (int i = 0; i < 1000; i++)
+        {
+            eventStore.insert(new Event("DISK_EVENT", i));
+            eventStore.insert(new Event("NET_EVENT", i));
+        }
+        eventStore.removeAll("NET_EVENT");
+        eventStore.insert(new Event("NET_EVENT", 5000L));
+        EventIterator eventIteratorObj = eventStore.query("DISK_EVENT", 100L, 200L);
+        while (eventIteratorObj.moveNext())
+        {
+            eventIteratorObj.remove();
+        }
+        eventStore.close();
+
+        EventStoreClass restored = new EventStoreClass();
+        DurableEventStoreClass reopened = new DurableEventStoreClass(restored, logFile);
+        assertEquals(901, restored.size());
+        assertEquals(0, restored.count("DISK_EVENT", 100L, 200L));
+        assertEquals(1, restored.count("NET_EVENT", 0L, 10000L));
+        reopened.insert(new Event("NET_EVENT", 6000L));
+        reopened.close();
+
+        restored = new EventStoreClass();
+        new DurableEventStoreClass(restored, logFile).close();
+        assertEquals(902, restored.size());
+    }
+
+    /* A record torn by a crash is dropped on replay and cut off the log,
+     * keeping every complete record before it.
+     */
+    @Test
+    public void tornTailIsDiscarded() throws Exception
+    {
+        File logFile = new File(folder.getRoot(), "events.wal");
+        DurableEventStoreClass eventStore = new DurableEventStoreClass(new EventStoreClass(), logFile,
+            DurableEventStoreClass.SyncPolicy.ASYNC, 0);
+        for (int i = 0; i < 100; i++)
+        {
+            eventStore.insert(new Event("DISK_EVENT", i));
+        }
+        eventStore.close();
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw"))
+        {
+            file.setLength(file.length() - 3);
+        }
+
+        EventStoreClass restored = new EventStoreClass();
+        DurableEventStoreClass reopened = new DurableEventStoreClass(restored, logFile);
+        assertEquals(99, restored.size());
+        assertFalse(restored.query("DISK_EVENT", 99L, 100L).moveNext());
+        reopened.insert(new Event("DISK_EVENT", 200L));
+        reopened.close();
+
+        restored = new EventStoreClass();
+        new DurableEventStoreClass(restored, logFile).close();
+        assertEquals(100, restored.size());
+        assertTrue(restored.query("DISK_EVENT", 200L, 201L).moveNext());
+    }
+
+    /* Concurrent writers all get their records forced and replayed,
+     * whatever the policy.
+     */
+    @Test
+    public void concurrentWritersAreAllDurable() throws Exception
+    {
+        for (DurableEventStoreClass.SyncPolicy policy : DurableEventStoreClass.SyncPolicy.values())
+        {
+            File logFile = new File(folder.getRoot(), policy + ".wal");
+            final DurableEventStoreClass eventStore = new DurableEventStoreClass(new StripedEventStoreClass(), logFile, policy, 1);
+            Thread[] writers = new Thread[8];
+            for (int w = 0; w < writers.length; w++)
+            {
+                final String type = "TYPE_" + (w % 3);
+                final int offset = w * 1000;
+                writers[w] = new Thread(() -> {
+                    for (int i = 0; i < 1000; i++)
+                    {
+                        eventStore.insert(new Event(type, offset + i));
+                    }
+                });
+                writers[w].start();
+            }
+            for (Thread writer : writers)
+            {
+                writer.join();
+            }
+            eventStore.close();
+
+            EventStoreClass restored = new EventStoreClass();
+            new DurableEventStoreClass(restored, logFile).close();
+            assertEquals(policy.toString(), 8000, restored.size());
+        }
+    }
+
+    /* A checkpoint shrinks the log to the events left in the store,
+     * which replay brings back, and writes keep being logged after it.
+     */
+    @Test
+    public void checkpointCompactsTheLog() throws Exception
+    {
+        File logFile = new File(folder.getRoot(), "events.wal");
+        DurableEventStoreClass eventStore = new DurableEventStoreClass(new EventStoreClass(), logFile);
+        for (int i = 0; i < 1000; i++)
+        {
+            eventStore.insert(new Event("DISK_EVENT", i));
+            eventStore.insert(new Event("NET_EVENT", i));
+        }
+        eventStore.insert(new Event("DISK_EVENT", Long.MAX_VALUE));
+        eventStore.removeAll("NET_EVENT");
+        EventIterator eventIteratorObj = eventStore.query("DISK_EVENT", 0L, 900L);
+        while (eventIteratorObj.moveNext())
+        {
+            eventIteratorObj.remove();
+        }
+        long logSize = eventStore.logSize();
+        eventStore.checkpoint();
+        assertTrue(eventStore.logSize() < logSize / 10);
+        eventStore.insert(new Event("NET_EVENT", 7L));
+        eventStore.close();
+
+        EventStoreClass restored = new EventStoreClass();
+        new DurableEventStoreClass(restored, logFile).close();
+        assertEquals(102, restored.size());
+        assertEquals(100, restored.count("DISK_EVENT", 0L, 1000L));
+        assertEquals(1, restored.count("NET_EVENT", 0L, 1000L));
+    }
+
+    /* A write that cannot be logged is not applied to the store */
+    @Test
+    public void writesFailingToReachTheLogAreNotApplied() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        DurableEventStoreClass eventStore = new DurableEventStoreClass(store, new File(folder.getRoot(), "events.wal"));
+        eventStore.insert(new Event("DISK_EVENT", 1L));
+        eventStore.close();
+        try
+        {
+            eventStore.insert(new Event("DISK_EVENT", 2L));
+            fail();
+        }
+        catch (UncheckedIOException e)
+        {
+            assertEquals(1, store.size());
+            assertEquals(1, eventStore.count("DISK_EVENT", 0L, 10L));
+        }
+    }
+
+    /* Removals that took no event out of the store, because another
+     * iterator or a removeAll got it first, do not take events on replay.
+     */
+    @Test
+    public void removalsOfEventsAlreadyGoneAreNotReplayed() throws Exception
+    {
+        File logFile = new File(folder.getRoot(), "events.wal");
+        DurableEventStoreClass eventStore = new DurableEventStoreClass(new EventStoreClass(), logFile);
+        eventStore.insert(new Event("DISK_EVENT", 1));
+        eventStore.insert(new Event("DISK_EVENT", 1));
+        eventStore.insert(new Event("DISK_EVENT", 2));
+
+        EventIterator first = eventStore.query("DISK_EVENT", 1, 2);
+        EventIterator second = eventStore.query("DISK_EVENT", 1, 2);
+        assertTrue(first.moveNext());
+        assertTrue(second.moveNext());
+        first.remove();
+        second.remove();
+        assertEquals(1, eventStore.count("DISK_EVENT", 1, 2));
+
+        EventIterator detached = eventStore.query("DISK_EVENT", 2, 3);
+        assertTrue(detached.moveNext());
+        eventStore.removeAll("DISK_EVENT");
+        eventStore.insert(new Event("DISK_EVENT", 2));
+        detached.remove();
+        assertEquals(1, eventStore.count("DISK_EVENT", 2, 3));
+        eventStore.close();
+
+        EventStoreClass restored = new EventStoreClass();
+        new DurableEventStoreClass(restored, logFile).close();
+        assertEquals(0, restored.count("DISK_EVENT", 1, 2));
+        assertEquals(1, restored.count("DISK_EVENT", 2, 3));
+        assertEquals(1, restored.size());
+    }
+}
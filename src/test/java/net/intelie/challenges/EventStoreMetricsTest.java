@@ -0,0 +1,117 @@
+package net.intelie.challenges;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+
+public class EventStoreMetricsTest
+{
+    @Test
+    public void countsOperationsAndEvents() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        for (int i = 0; i < 100; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        store.insert(new Event("B", 1));
+        try (EventIterator iterator = store.query("A", 10, 20))
+        {
+            while (iterator.moveNext())
+            {
+                if (iterator.current().timestamp() % 2 == 0)
+                {
+                    iterator.remove();
+                }
+            }
+        }
+        store.removeAll("B");
+
+        EventStoreMetrics metrics = store.metrics();
+        assertEquals(101, metrics.getInserts());
+        assertEquals(1, metrics.getQueries());
+        assertEquals(1, metrics.getRemoveAlls());
+        assertEquals(6, metrics.getRemovedEvents());
+        assertEquals(10, metrics.getEventsScanned());
+        assertEquals(10, metrics.getEventsReturned());
+        assertEquals(Long.valueOf(101), metrics.getInsertLatency().get("count"));
+        assertTrue(metrics.getFetchLatency().get("count") >= 1);
+        assertEquals(Long.valueOf(95), metrics.getEventCountsByType().get("A"));
+        assertTrue(metrics.getMemoryEstimatesByType().get("A") >= 95 * 36);
+    }
+
+    @Test
+    public void snapshotAndColumnarIteratorsCountScannedEvents() throws Exception
+    {
+        EventStoreClass snapshotStore = new EventStoreClass(EventStoreClass.QueryMode.SNAPSHOT);
+        ColumnarEventStoreClass columnarStore = new ColumnarEventStoreClass();
+        for (int i = 0; i < 200; i++)
+        {
+            snapshotStore.insert(new Event("A", i));
+            columnarStore.insert(new Event("A", i));
+        }
+        for (EventStore store : new EventStore[]{snapshotStore, columnarStore})
+        {
+            try (EventIterator iterator = store.query("A", 50, 150))
+            {
+                while (iterator.moveNext())
+                {
+                    iterator.current();
+                }
+            }
+        }
+        assertEquals(100, snapshotStore.metrics().getEventsScanned());
+        assertEquals(100, snapshotStore.metrics().getEventsReturned());
+        assertEquals(100, columnarStore.metrics().getEventsReturned());
+        assertEquals(Long.valueOf(200), columnarStore.metrics().getEventCountsByType().get("A"));
+    }
+
+    @Test
+    public void histogramPercentilesAreWithinBucketPrecision()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10000; value++)
+        {
+            histogram.record(value * 1000);
+        }
+        Map<String, Long> summary = histogram.summary();
+        assertEquals(Long.valueOf(10000), summary.get("count"));
+        assertWithinPrecision(5000000, summary.get("p50"));
+        assertWithinPrecision(9900000, summary.get("p99"));
+        assertWithinPrecision(10000000, summary.get("max"));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void metricsAreReadableThroughJmx() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        store.insert(new Event("A", 1));
+        ObjectName name = store.metrics().register("metricsAreReadableThroughJmx");
+        try
+        {
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Inserts"));
+            TabularData counts = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "EventCountsByType");
+            CompositeData row = counts.get(new Object[]{"A"});
+            assertEquals(1L, row.get("value"));
+        }
+        finally
+        {
+            EventStoreMetrics.unregister(name);
+        }
+    }
+
+    private static void assertWithinPrecision(long expected, long actual)
+    {
+        assertTrue("expected about " + expected + " but was " + actual,
+            actual >= expected && actual <= expected + expected / 8);
+    }
+}
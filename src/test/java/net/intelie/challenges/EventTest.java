@@ -10,9 +10,18 @@ import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
@@ -295,4 +304,288 @@ public class EventTest {
 
         eventIteratorObj.close();
     }
-}
\ No newline at end of file
+
+    /* This test case checks that query only returns events of the
+     * requested type, in timestamp order even when they were inserted
+     * out of order, and that endTime is exclusive.
+     */
+    @Test
+    public void queryReturnsSortedEventsOfRequestedTypeOnly() throws Exception
+    {
+        EventStoreClass eventStore = new EventStoreClass();
+        eventStore.insert(new Event("CLICK_EVENT", 30L));
+        eventStore.insert(new Event("SCROLL_EVENT", 15L));
+        eventStore.insert(new Event("CLICK_EVENT", 10L));
+        eventStore.insert(new Event("CLICK_EVENT", 20L));
+        eventStore.insert(new Event("CLICK_EVENT", 40L));
+        eventStore.insert(new Event("SCROLL_EVENT", 25L));
+
+        /* Using a type string that is equal but not the same instance
+         * as the inserted ones
+         */
+        EventIterator eventIteratorObj = eventStore.query(new String("CLICK_EVENT"), 10L, 40L);
+        long[] expectedTimestamps = {10L, 20L, 30L};
+        for (long expectedTimestamp : expectedTimestamps)
+        {
+            assertTrue(eventIteratorObj.moveNext());
+            assertEquals("CLICK_EVENT", eventIteratorObj.current().type());
+            assertEquals(expectedTimestamp, eventIteratorObj.current().timestamp());
+        }
+        assertFalse(eventIteratorObj.moveNext());
+        eventIteratorObj.close();
+
+        // Removing one type keeps the other partition untouched
+        eventStore.removeAll("CLICK_EVENT");
+        assertEquals(2, eventStore.size());
+        assertFalse(eventStore.query("CLICK_EVENT", 0L, 100L).moveNext());
+        assertTrue(eventStore.query("SCROLL_EVENT", 0L, 100L).moveNext());
+    }
+
+    /* This test case checks that query returns a lazy cursor over the
+     * store: events inserted after the query but ahead of the cursor
+     * are seen, iterating crosses several fetch windows, and removing
+     * through the iterator deletes the events from the store itself.
+     */
+    @Test
+    public void queryIteratesStoreLazily() throws Exception
+    {
+        EventStoreClass eventStore = new EventStoreClass();
+        for (int i = 0; i < 500; i++)
+        {
+            eventStore.insert(new Event("KEY_EVENT", i * 2));
+        }
+
+        EventIterator eventIteratorObj = eventStore.query("KEY_EVENT", 0L, 2000L);
+        assertTrue(eventIteratorObj.moveNext());
+        assertEquals(0L, eventIteratorObj.current().timestamp());
+
+        /* Inserting after the query, one event at the end of the range
+         * and one out of order event ahead of the cursor
+         */
+        eventStore.insert(new Event("KEY_EVENT", 1500L));
+        eventStore.insert(new Event("KEY_EVENT", 801L));
+
+        int count = 1;
+        long previous = 0L;
+        while (eventIteratorObj.moveNext())
+        {
+            long timestamp = eventIteratorObj.current().timestamp();
+            assertTrue(timestamp >= previous);
+            previous = timestamp;
+            if (timestamp % 2 == 1)
+            {
+                eventIteratorObj.remove();
+            }
+            count++;
+        }
+        eventIteratorObj.close();
+
+        assertEquals(502, count);
+        assertEquals(501, eventStore.size());
+        assertFalse(eventStore.query("KEY_EVENT", 801L, 802L).moveNext());
+    }
+
+    /* This test case removes most events of a type through an iterator,
+     * many of them sharing timestamps, which compacts the partition while
+     * the iterator is open, and checks that every event is visited once
+     * and that exactly the kept events remain in the store.
+     */
+    @Test
+    public void iteratorRemoveDeletesFromStoreWhileIterating() throws Exception
+    {
+        EventStoreClass eventStore = new EventStoreClass();
+        for (int i = 0; i < 3000; i++)
+        {
+            eventStore.insert(new Event("MOVE_EVENT", i / 3));
+        }
+
+        EventIterator eventIteratorObj = eventStore.query("MOVE_EVENT", 0L, 1000L);
+        int visited = 0;
+        while (eventIteratorObj.moveNext())
+        {
+            if (visited % 10 != 0)
+            {
+                eventIteratorObj.remove();
+            }
+            visited++;
+        }
+        eventIteratorObj.close();
+
+        assertEquals(3000, visited);
+        assertEquals(300, eventStore.size());
+        EventIterator remaining = eventStore.query("MOVE_EVENT", 0L, 1000L);
+        int count = 0;
+        while (remaining.moveNext())
+        {
+            count++;
+        }
+        assertEquals(300, count);
+    }
+
+    /* Evidence of thread safety of iterator removal: writer threads keep
+     * inserting events of a type while other threads iterate the same type.
+     * Each remover only removes the events whose timestamp belongs to its
+     * own writer, so every removal is counted once, and the removed events
+     * plus the ones left in the store must add up to the inserted ones.
+     */
+    @Test
+    public void concurrentInsertsAndIteratorRemovals() throws Exception
+    {
+        final EventStoreClass eventStore = new EventStoreClass();
+        final int writers = 4;
+        final int eventsPerWriter = 5000;
+        final AtomicInteger removed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(writers * 2);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for (int t = 0; t < writers; t++)
+        {
+            final int offset = t;
+            futures.add(executor.submit((Callable<Void>) () -> {
+                for (int i = 0; i < eventsPerWriter; i++)
+                {
+                    eventStore.insert(new Event("DRAG_EVENT", (i * 7 % 250) * writers + offset));
+                }
+                return null;
+            }));
+            futures.add(executor.submit((Callable<Void>) () -> {
+                for (int pass = 0; pass < 20; pass++)
+                {
+                    EventIterator eventIteratorObj = eventStore.query("DRAG_EVENT", 0L, 1000L);
+                    while (eventIteratorObj.moveNext())
+                    {
+                        if (eventIteratorObj.current().timestamp() % writers == offset)
+                        {
+                            eventIteratorObj.remove();
+                            removed.incrementAndGet();
+                        }
+                    }
+                    eventIteratorObj.close();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(writers * eventsPerWriter, removed.get() + eventStore.size());
+    }
+
+    /* This test case checks that a snapshot iterator keeps seeing the
+     * events stored when the query was made, while inserts, removals and
+     * compactions happen on the live store, and that removing through it
+     * removes from the live store.
+     */
+    @Test
+    public void snapshotQueryIsIsolatedFromWriters() throws Exception
+    {
+        EventStoreClass eventStore = new EventStoreClass(EventStoreClass.QueryMode.SNAPSHOT);
+        for (int i = 0; i < 100; i++)
+        {
+            eventStore.insert(new Event("PAINT_EVENT", i));
+        }
+
+        EventIterator snapshotObj = eventStore.query("PAINT_EVENT", 0L, 100L);
+
+        // Changing the live store after the snapshot was taken
+        eventStore.insert(new Event("PAINT_EVENT", 50L));
+        eventStore.insert(new Event("PAINT_EVENT", 150L));
+        EventIterator liveObj = eventStore.queryWithoutEventIteratorMethods("PAINT_EVENT", 0L, 100L);
+        while (liveObj.moveNext())
+        {
+            if (liveObj.current().timestamp() < 80L)
+            {
+                liveObj.remove();
+            }
+        }
+        liveObj.close();
+        assertEquals(21, eventStore.size());
+
+        int count = 0;
+        while (snapshotObj.moveNext())
+        {
+            assertEquals(count, snapshotObj.current().timestamp());
+            if (count == 90)
+            {
+                snapshotObj.remove();
+            }
+            count++;
+        }
+        snapshotObj.close();
+        assertEquals(100, count);
+        assertEquals(20, eventStore.size());
+        assertFalse(eventStore.query("PAINT_EVENT", 90L, 91L).moveNext());
+    }
+
+    /* This test case inserts batches mixing types, out of order within
+     * the batch and older than the stored events, and checks the store
+     * ends up exactly as if the events were inserted one by one.
+     */
+    @Test
+    public void insertAllMatchesOneByOneInserts() throws Exception
+    {
+        EventStoreClass batchStore = new EventStoreClass();
+        EventStoreClass singleStore = new EventStoreClass();
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++)
+        {
+            List<Event> batch = new ArrayList<Event>();
+            for (int i = 0; i < 500; i++)
+            {
+                String type = random.nextBoolean() ? "BATCH_EVENT" : "OTHER_EVENT";
+                batch.add(new Event(type, round * 100 + random.nextInt(300)));
+            }
+            batchStore.insertAll(batch);
+            for (Event event : batch)
+            {
+                singleStore.insert(event);
+            }
+        }
+        assertEquals(10000, batchStore.size());
+
+        for (String type : new String[] {"BATCH_EVENT", "OTHER_EVENT"})
+        {
+            EventIterator batchObj = batchStore.query(type, 0L, 5000L);
+            EventIterator singleObj = singleStore.query(type, 0L, 5000L);
+            while (singleObj.moveNext())
+            {
+                assertTrue(batchObj.moveNext());
+                // Same instances in the same order, ties included
+                assertSame(singleObj.current(), batchObj.current());
+            }
+            assertFalse(batchObj.moveNext());
+        }
+
+        batchStore.insertAll(new Event[] {new Event("ARRAY_EVENT", 2L), new Event("ARRAY_EVENT", 1L)});
+        EventIterator arrayObj = batchStore.query("ARRAY_EVENT", 0L, 5L);
+        assertTrue(arrayObj.moveNext());
+        assertEquals(1L, arrayObj.current().timestamp());
+    }
+
+    @Test
+    public void typesAreMatchedByValueNotIdentity() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        for (int i = 0; i < 40; i++)
+        {
+            // Distinct String instances for every event and query
+            store.insert(new Event(new String("TYPE_" + (i % 20)), i));
+        }
+        EventIterator obj = store.query(new StringBuilder("TYPE_").append(7).toString(), 0L, 100L);
+        assertTrue(obj.moveNext());
+        assertEquals(7L, obj.current().timestamp());
+        assertTrue(obj.moveNext());
+        assertEquals(27L, obj.current().timestamp());
+        assertFalse(obj.moveNext());
+
+        store.removeAll(new String("TYPE_7"));
+        assertEquals(38, store.size());
+        assertFalse(store.query("TYPE_7", 0L, 100L).moveNext());
+        store.insert(new Event("TYPE_7", 50L));
+        assertEquals(1, store.count("TYPE_7", 0L, 100L));
+        assertEquals(0, store.count("UNKNOWN", 0L, 100L));
+    }
+}
@@ -0,0 +1,152 @@
+package net.intelie.challenges;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class MappedEventStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Events spanning several segments are returned in insertion order,
+     * filtered by the queried range.
+     */
+    @Test
+    public void queryAcrossSegments() throws Exception
+    {
+        MappedEventStoreClass eventStore = new MappedEventStoreClass(folder.getRoot(), 1000);
+        for (int i = 0; i < 5000; i++)
+        {
+            eventStore.insert(new Event("DISK_EVENT", i));
+            eventStore.insert(new Event("NET_EVENT", 5000 - i));
+        }
+        assertEquals(10000, eventStore.size());
+
+        EventIterator eventIteratorObj = eventStore.query("DISK_EVENT", 1500L, 3500L);
+        for (long expected = 1500L; expected < 3500L; expected++)
+        {
+            assertTrue(eventIteratorObj.moveNext());
+            assertEquals(expected, eventIteratorObj.current().timestamp());
+            assertEquals("DISK_EVENT", eventIteratorObj.current().type());
+        }
+        assertFalse(eventIteratorObj.moveNext());
+        eventIteratorObj.close();
+
+        // Out of order events come back in insertion order
+        eventIteratorObj = eventStore.query("NET_EVENT", 10L, 13L);
+        long[] expectedTimestamps = {12L, 11L, 10L};
+        for (long expected : expectedTimestamps)
+        {
+            assertTrue(eventIteratorObj.moveNext());
+            assertEquals(expected, eventIteratorObj.current().timestamp());
+        }
+        assertFalse(eventIteratorObj.moveNext());
+
+        // Removed records are flagged, so every timestamp can be stored
+        eventStore.insert(new Event("DISK_EVENT", Long.MIN_VALUE));
+        eventIteratorObj = eventStore.query("DISK_EVENT", Long.MIN_VALUE, 0L);
+        assertTrue(eventIteratorObj.moveNext());
+        assertEquals(Long.MIN_VALUE, eventIteratorObj.current().timestamp());
+        eventIteratorObj.remove();
+        assertFalse(eventStore.query("DISK_EVENT", Long.MIN_VALUE, 0L).moveNext());
+        assertEquals(10000, eventStore.size());
+    }
+
+    /* Querying several types returns their events in timestamp order,
+     * even when they were inserted out of order.
+     */
+    @Test
+    public void queryOfSeveralTypesIsInTimestampOrder() throws Exception
+    {
+        MappedEventStoreClass eventStore = new MappedEventStoreClass(folder.getRoot(), 100);
+        for (int i = 0; i < 500; i++)
+        {
+            eventStore.insert(new Event("DISK_EVENT", 2 * i));
+            eventStore.insert(new Event("NET_EVENT", 999 - 2 * i));
+        }
+        Set<String> types = new LinkedHashSet<String>(Arrays.asList("DISK_EVENT", "NET_EVENT"));
+        EventIterator eventIteratorObj = eventStore.query(types, 100L, 900L);
+        for (long expected = 100L; expected < 900L; expected++)
+        {
+            assertTrue(eventIteratorObj.moveNext());
+            assertEquals(expected, eventIteratorObj.current().timestamp());
+            assertEquals(expected % 2 == 0 ? "DISK_EVENT" : "NET_EVENT", eventIteratorObj.current().type());
+            if (expected % 3 == 0)
+            {
+                eventIteratorObj.remove();
+            }
+        }
+        assertFalse(eventIteratorObj.moveNext());
+        eventIteratorObj.close();
+        assertEquals(1000 - 266, eventStore.size());
+        assertFalse(eventStore.query("NET_EVENT", 501L, 502L).moveNext());
+    }
+
+    /* Reopening the directory maps the existing segments, keeping
+     * inserts, iterator removals and removeAll made before the restart.
+     */
+    @Test
+    public void reopenRemapsExistingSegments() throws Exception
+    {
+        File directory = folder.newFolder("store");
+        MappedEventStoreClass eventStore = new MappedEventStoreClass(directory, 100);
+        for (int i = 0; i < 1000; i++)
+        {
+            eventStore.insert(new Event("DISK_EVENT", i));
+            eventStore.insert(new Event("TEMP_EVENT", i));
+        }
+        EventIterator eventIteratorObj = eventStore.query("DISK_EVENT", 0L, 500L);
+        while (eventIteratorObj.moveNext())
+        {
+            eventIteratorObj.remove();
+            assertThrows(IllegalStateException.class, eventIteratorObj::remove);
+        }
+        eventIteratorObj.close();
+        eventStore.removeAll("TEMP_EVENT");
+        eventStore.flush();
+
+        MappedEventStoreClass reopened = new MappedEventStoreClass(directory, 100);
+        assertEquals(500, reopened.size());
+        assertFalse(reopened.query("DISK_EVENT", 0L, 500L).moveNext());
+        assertFalse(reopened.query("TEMP_EVENT", 0L, 1000L).moveNext());
+
+        // Appending after the restart continues the last segment
+        reopened.insert(new Event("DISK_EVENT", 2000L));
+        reopened.insert(new Event("TEMP_EVENT", 2000L));
+        eventIteratorObj = reopened.query("DISK_EVENT", 999L, 3000L);
+        assertTrue(eventIteratorObj.moveNext());
+        assertEquals(999L, eventIteratorObj.current().timestamp());
+        assertTrue(eventIteratorObj.moveNext());
+        assertEquals(2000L, eventIteratorObj.current().timestamp());
+        assertFalse(eventIteratorObj.moveNext());
+        assertEquals(502, reopened.size());
+    }
+
+    /* Segment files of any other format version are not opened */
+    @Test
+    public void segmentsOfOtherVersionsAreRejected() throws Exception
+    {
+        File file = new File(folder.getRoot(), "segment");
+        MappedSegment.create(file, 100).append(1L);
+        MappedSegment.open(file);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"))
+        {
+            // The version is the little endian int right after the magic
+            randomAccessFile.seek(4);
+            randomAccessFile.write(new byte[]{1, 0, 0, 0});
+        }
+        assertThrows(IOException.class, () -> MappedSegment.open(file));
+    }
+}
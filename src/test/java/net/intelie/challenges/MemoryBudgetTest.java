@@ -0,0 +1,177 @@
+package net.intelie.challenges;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryBudgetTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Filling more types than fit in the budget spills the cold ones,
+     * which are paged back in with all their events when queried.
+     */
+    @Test
+    public void coldPartitionsAreSpilledAndPagedBackIn() throws Exception
+    {
+        File directory = folder.newFolder("spill");
+        EventStoreClass eventStore = new EventStoreClass(EventStoreClass.QueryMode.LIVE, 100000, directory);
+        for (int type = 0; type < 10; type++)
+        {
+            for (int i = 0; i < 5000; i++)
+            {
+                eventStore.insert(new Event("type" + type, i));
+            }
+        }
+        assertTrue(eventStore.spilledTypeCount() > 0);
+        assertTrue(eventStore.spillCount() > 0);
+        assertEquals(50000, eventStore.size());
+
+        for (int type = 0; type < 10; type++)
+        {
+            assertEquals(5000, count(eventStore, "type" + type, 0, 5000));
+            assertTrue(eventStore.memoryUsage() <= 2 * eventStore.memoryBudget());
+        }
+        assertTrue(eventStore.spilledTypeCount() > 0);
+
+        eventStore.removeAll("type0");
+        eventStore.removeAll("type9");
+        assertEquals(40000, eventStore.size());
+        assertEquals(0, count(eventStore, "type0", 0, 5000));
+        // Spill files go to a directory of the store inside the given one
+        assertEquals(1, directory.list().length);
+        assertEquals(directory.listFiles()[0].list().length, eventStore.spilledTypeCount());
+    }
+
+    /* An iterator keeps walking and removing from a partition that was
+     * spilled and paged back in while it was open.
+     */
+    @Test
+    public void iteratorsSurviveSpills() throws Exception
+    {
+        EventStoreClass eventStore = new EventStoreClass(EventStoreClass.QueryMode.LIVE, 50000, folder.newFolder("spill"));
+        for (int i = 0; i < 3000; i++)
+        {
+            eventStore.insert(new Event("A", i / 2));
+        }
+
+        int seen = 0;
+        try (EventIterator iterator = eventStore.query("A", 0, 1500))
+        {
+            while (iterator.moveNext())
+            {
+                assertEquals(seen / 2, iterator.current().timestamp());
+                if (seen % 2 == 1)
+                {
+                    iterator.remove();
+                }
+                if (seen % 500 == 0)
+                {
+                    for (int type = 0; type < 5; type++)
+                    {
+                        for (int i = 0; i < 3000; i++)
+                        {
+                            eventStore.insert(new Event("filler" + type, i));
+                        }
+                    }
+                }
+                seen++;
+            }
+        }
+        assertEquals(3000, seen);
+        assertTrue(eventStore.spillCount() > 0);
+        assertEquals(1500, count(eventStore, "A", 0, 1500));
+        assertFalse(eventStore.query("A", 1500, 2000).moveNext());
+    }
+
+    /* Stores sharing a spill directory keep their spilled events apart,
+     * and a snapshot copies spilled partitions without paging them in.
+     */
+    @Test
+    public void storesSharingADirectoryAndSnapshotsKeepSpilledEvents() throws Exception
+    {
+        File directory = folder.newFolder("spill");
+        EventStoreClass first = new EventStoreClass(EventStoreClass.QueryMode.LIVE, 50000, directory);
+        EventStoreClass second = new EventStoreClass(EventStoreClass.QueryMode.LIVE, 50000, directory);
+        for (int type = 0; type < 6; type++)
+        {
+            for (int i = 0; i < 3000; i++)
+            {
+                first.insert(new Event("type" + type, i));
+                second.insert(new Event("type" + type, -i));
+            }
+        }
+        int spilled = first.spilledTypeCount();
+        assertTrue(spilled > 0);
+        assertTrue(second.spilledTypeCount() > 0);
+
+        File snapshot = new File(folder.getRoot(), "store.snapshot");
+        first.writeSnapshot(snapshot);
+        assertEquals(spilled, first.spilledTypeCount());
+        EventStoreClass restored = EventStoreClass.restore(snapshot);
+        assertEquals(18000, restored.size());
+
+        for (int type = 0; type < 6; type++)
+        {
+            assertEquals(3000, restored.count("type" + type, 0, 3000));
+            assertEquals(3000, count(first, "type" + type, 0, 3000));
+            assertEquals(3000, count(second, "type" + type, -3000, 1));
+        }
+    }
+
+    /* An iterator over a partition that was spilled and then removed
+     * finds no more events past the ones it already fetched.
+     */
+    @Test
+    public void iteratorsSurviveRemovalOfSpilledPartitions() throws Exception
+    {
+        EventStoreClass eventStore = new EventStoreClass(EventStoreClass.QueryMode.LIVE, 50000, folder.newFolder("spill"));
+        for (int i = 0; i < 3000; i++)
+        {
+            eventStore.insert(new Event("A", i));
+        }
+
+        try (EventIterator iterator = eventStore.query("A", 0, 3000))
+        {
+            assertTrue(iterator.moveNext());
+            assertEquals(0, iterator.current().timestamp());
+            for (int type = 0; type < 5; type++)
+            {
+                for (int i = 0; i < 3000; i++)
+                {
+                    eventStore.insert(new Event("filler" + type, i));
+                }
+            }
+            assertTrue(eventStore.spilledTypeCount() > 0);
+            eventStore.removeAll("A");
+            // Only the events already fetched in its window are left
+            int left = 0;
+            while (iterator.moveNext())
+            {
+                left++;
+            }
+            assertTrue(left < 3000 - 1);
+        }
+        assertEquals(15000, eventStore.size());
+        assertFalse(eventStore.query("A", 0, 3000).moveNext());
+    }
+
+    private static int count(EventStore eventStore, String type, long start, long end) throws Exception
+    {
+        int count = 0;
+        try (EventIterator iterator = eventStore.query(type, start, end))
+        {
+            while (iterator.moveNext())
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+}
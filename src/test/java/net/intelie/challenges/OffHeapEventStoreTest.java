@@ -0,0 +1,84 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapEventStoreTest {
+
+    /* Events stored off-heap are queried in order, across several slabs,
+     * including out of order inserts that split chunks.
+     */
+    @Test
+    public void queryAcrossSlabs() throws Exception
+    {
+        OffHeapEventStoreClass eventStore = new OffHeapEventStoreClass(64 * 1024);
+        for (int i = 0; i < 20000; i += 2)
+        {
+            eventStore.insert(new Event("METRIC_EVENT", i));
+        }
+        for (int i = 19999; i > 0; i -= 2)
+        {
+            eventStore.insert(new Event("METRIC_EVENT", i));
+        }
+        assertEquals(20000, eventStore.size());
+        assertTrue(eventStore.offHeapAllocatedBytes() >= 20000 * 8);
+
+        EventIterator eventIteratorObj = eventStore.query("METRIC_EVENT", 5000L, 15000L);
+        for (long expected = 5000L; expected < 15000L; expected++)
+        {
+            assertTrue(eventIteratorObj.moveNext());
+            assertEquals(expected, eventIteratorObj.current().timestamp());
+            assertEquals("METRIC_EVENT", eventIteratorObj.current().type());
+        }
+        assertFalse(eventIteratorObj.moveNext());
+        eventIteratorObj.close();
+    }
+
+    /* Slabs freed by removeAll are reused by later inserts instead of
+     * allocating more off-heap memory.
+     */
+    @Test
+    public void removeAllRecyclesSlabs() throws Exception
+    {
+        OffHeapEventStoreClass eventStore = new OffHeapEventStoreClass(64 * 1024);
+        for (int round = 0; round < 10; round++)
+        {
+            String type = "ROUND_" + round;
+            for (int i = 0; i < 50000; i++)
+            {
+                eventStore.insert(new Event(type, i));
+            }
+            eventStore.removeAll(type);
+        }
+        long allocated = eventStore.offHeapAllocatedBytes();
+        assertEquals(allocated, eventStore.offHeapFreeBytes());
+        assertTrue(allocated <= 2 * 50000 * 8 + 64 * 1024);
+        assertEquals(0, eventStore.size());
+    }
+
+    /* Removing through the iterator drains chunks back to the free list */
+    @Test
+    public void iteratorRemoveFreesChunks() throws Exception
+    {
+        OffHeapEventStoreClass eventStore = new OffHeapEventStoreClass(64 * 1024);
+        for (int i = 0; i < 4096; i++)
+        {
+            eventStore.insert(new Event("METRIC_EVENT", i));
+        }
+        EventIterator eventIteratorObj = eventStore.query("METRIC_EVENT", 0L, 4096L);
+        while (eventIteratorObj.moveNext())
+        {
+            eventIteratorObj.remove();
+        }
+        assertThrows(IllegalStateException.class, eventIteratorObj::remove);
+        eventIteratorObj.close();
+
+        assertEquals(0, eventStore.size());
+        assertEquals(eventStore.offHeapAllocatedBytes(), eventStore.offHeapFreeBytes());
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapEventStoreClass(1024));
+    }
+}
@@ -0,0 +1,115 @@
+package net.intelie.challenges;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class ParallelQueryTest
+{
+    @Test
+    public void parallelQueryKeepsTimestampOrder() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++)
+        {
+            store.insert(new Event("A", random.nextInt(100000)));
+        }
+        try (EventIterator iterator = store.query("A", 1000, 90000))
+        {
+            int removed = 0;
+            while (iterator.moveNext() && removed < 5000)
+            {
+                iterator.remove();
+                removed++;
+            }
+        }
+
+        List<Event> expected = new ArrayList<Event>();
+        try (EventIterator iterator = store.query("A", 1000, 90000))
+        {
+            while (iterator.moveNext())
+            {
+                expected.add(iterator.current());
+            }
+        }
+        List<Event> actual = store.parallelQuery("A", 1000, 90000).collect(Collectors.toList());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertSame(expected.get(i), actual.get(i));
+        }
+        assertEquals(0, store.parallelQuery("missing", 0, 100).count());
+    }
+
+    @Test
+    public void multiTypeParallelQueryMergesInOrder()
+    {
+        EventStoreClass store = new EventStoreClass();
+        for (int i = 0; i < 30000; i++)
+        {
+            store.insert(new Event("A", i * 3));
+            store.insert(new Event("B", i * 2));
+            store.insert(new Event("C", i));
+        }
+        Set<String> types = new LinkedHashSet<String>(Arrays.asList("B", "A", "missing"));
+        List<Event> merged = store.parallelQuery(types, 300, 60000).collect(Collectors.toList());
+
+        assertEquals(59700 / 3 + 59700 / 2, merged.size());
+        for (int i = 1; i < merged.size(); i++)
+        {
+            Event previous = merged.get(i - 1);
+            Event event = merged.get(i);
+            assertTrue(previous.timestamp() <= event.timestamp());
+            if (previous.timestamp() == event.timestamp())
+            {
+                assertEquals("B", previous.type());
+                assertEquals("A", event.type());
+            }
+        }
+    }
+
+    @Test
+    public void multiTypeQueryMergesIteratorsOfAnyStore() throws Exception
+    {
+        EventStore store = new ColumnarEventStoreClass();
+        for (int i = 0; i < 100; i++)
+        {
+            store.insert(new Event("A", i * 2));
+            store.insert(new Event("B", i * 3));
+        }
+        Set<String> types = new LinkedHashSet<String>(Arrays.asList("A", "B"));
+        long previous = -1;
+        int count = 0;
+        try (EventIterator iterator = store.query(types, 0, 60))
+        {
+            while (iterator.moveNext())
+            {
+                assertTrue(iterator.current().timestamp() >= previous);
+                previous = iterator.current().timestamp();
+                count++;
+                if ("B".equals(iterator.current().type()))
+                {
+                    iterator.remove();
+                }
+            }
+            assertFalse(iterator.moveNext());
+        }
+        assertEquals(30 + 20, count);
+        try (EventIterator iterator = store.query("B", 0, 60))
+        {
+            assertFalse(iterator.moveNext());
+        }
+    }
+}
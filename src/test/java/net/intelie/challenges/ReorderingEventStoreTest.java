@@ -0,0 +1,116 @@
+package net.intelie.challenges;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/*
+ * Checks that the reorder stage hands sorted runs to the wrapped store
+ * while queries keep seeing every event exactly once.
+ */
+public class ReorderingEventStoreTest
+{
+    @Test
+    public void queriesSeeStoredAndBufferedEventsInOrder() throws Exception
+    {
+        EventStoreClass wrapped = new EventStoreClass();
+        ReorderingEventStoreClass store = new ReorderingEventStoreClass(wrapped, 100);
+        List<Long> expected = new ArrayList<Long>();
+        Random random = new Random(5);
+        for (int i = 0; i < 10000; i++)
+        {
+            // Mostly slightly out of order, a few very late
+            long timestamp = i % 500 == 0 ? random.nextInt(Math.max(1, i)) : i + random.nextInt(80);
+            store.insert(new Event("A", timestamp));
+            expected.add(timestamp);
+        }
+        Collections.sort(expected);
+        assertTrue(store.bufferedCount() > 0);
+        assertTrue(wrapped.size() > 9000);
+
+        for (long[] range : new long[][] {{0, 20000}, {5000, 6000}, {9950, 10100}, {-10, 3}})
+        {
+            List<Long> returned = new ArrayList<Long>();
+            try (EventIterator iterator = store.query("A", range[0], range[1]))
+            {
+                while (iterator.moveNext())
+                {
+                    returned.add(iterator.current().timestamp());
+                }
+            }
+            List<Long> inRange = new ArrayList<Long>();
+            for (long timestamp : expected)
+            {
+                if (timestamp >= range[0] && timestamp < range[1])
+                {
+                    inRange.add(timestamp);
+                }
+            }
+            assertEquals(inRange, returned);
+        }
+        assertEquals(10000, store.count("A", 0, 20000));
+
+        store.flush();
+        assertEquals(0, store.bufferedCount());
+        assertEquals(10000, wrapped.size());
+    }
+
+    @Test
+    public void removeReachesBufferedAndFlushedEvents() throws Exception
+    {
+        EventStoreClass wrapped = new EventStoreClass();
+        ReorderingEventStoreClass store = new ReorderingEventStoreClass(wrapped, 1000);
+        for (int i = 0; i < 100; i++)
+        {
+            store.insert(new Event("A", 100 - i));
+        }
+        assertEquals(100, store.bufferedCount());
+
+        EventIterator iterator = store.query("A", 0, 1000);
+        assertTrue(iterator.moveNext());
+        iterator.remove();
+        assertTrue(iterator.moveNext());
+        store.flush();
+        iterator.remove();
+        assertEquals(98, wrapped.size());
+        assertEquals(3, store.firstTimestamp("A", 0, 1000).getAsLong());
+
+        store.insert(new Event("A", 50));
+        store.removeAll("A");
+        assertEquals(0, store.count("A", 0, 1000));
+    }
+
+    /* Columnar stores create a new Event on every read, so a flushed
+     * event is removed by type and timestamp, and the aggregations of
+     * the wrapped store are combined with the buffered events.
+     */
+    @Test
+    public void removeAndAggregationsWorkOverStoresRecreatingEvents() throws Exception
+    {
+        ColumnarEventStoreClass wrapped = new ColumnarEventStoreClass();
+        ReorderingEventStoreClass store = new ReorderingEventStoreClass(wrapped, 50);
+        for (int i = 0; i < 1000; i++)
+        {
+            store.insert(new Event("A", i ^ 7));
+        }
+        assertTrue(store.bufferedCount() > 0);
+        assertEquals(1000, store.count("A", 0, 1000));
+        assertEquals(0, store.firstTimestamp("A", 0, 1000).getAsLong());
+        assertEquals(999, store.lastTimestamp("A", 0, 1000).getAsLong());
+        assertEquals(100, store.histogram("A", 0, 1000, 100)[9]);
+        assertEquals(Aggregations.count(store.query("A", 900, 1000)), store.count("A", 900, 1000));
+
+        EventIterator iterator = store.query("A", 990, 1000);
+        assertTrue(iterator.moveNext());
+        store.flush();
+        iterator.remove();
+        assertEquals(999, wrapped.count("A", 0, 1000));
+        assertEquals(9, store.count("A", 990, 1000));
+    }
+}
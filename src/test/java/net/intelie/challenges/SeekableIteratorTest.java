@@ -0,0 +1,109 @@
+package net.intelie.challenges;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/*
+ * Checks descending iteration, seek and cursor based paging of the
+ * iterators of EventStoreClass.
+ */
+public class SeekableIteratorTest
+{
+    @Test
+    public void descendingIteratorReturnsLatestFirst() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        for (int i = 0; i < 1000; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        SeekableEventIterator iterator = store.queryDescending("A", 100, 900);
+        assertTrue(iterator.isDescending());
+        for (long expected = 899; expected > 799; expected--)
+        {
+            assertTrue(iterator.moveNext());
+            assertEquals(expected, iterator.current().timestamp());
+        }
+        iterator.seek(150);
+        for (long expected = 150; expected >= 100; expected--)
+        {
+            assertTrue(iterator.moveNext());
+            assertEquals(expected, iterator.current().timestamp());
+        }
+        assertFalse(iterator.moveNext());
+
+        iterator.seek(5000);
+        assertTrue(iterator.moveNext());
+        assertEquals(899, iterator.current().timestamp());
+        iterator.remove();
+        assertTrue(iterator.moveNext());
+        assertEquals(898, iterator.current().timestamp());
+        assertEquals(999, store.size());
+    }
+
+    @Test
+    public void seekMovesForwardAndBackward() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        for (int i = 0; i < 1000; i += 2)
+        {
+            store.insert(new Event("A", i));
+        }
+        SeekableEventIterator iterator = store.querySeekable("A", 0, 1000);
+        iterator.seek(501);
+        assertTrue(iterator.moveNext());
+        assertEquals(502, iterator.current().timestamp());
+        iterator.seek(-50);
+        assertTrue(iterator.moveNext());
+        assertEquals(0, iterator.current().timestamp());
+        iterator.seek(999);
+        assertFalse(iterator.moveNext());
+    }
+
+    @Test
+    public void cursorsPageThroughRunsOfEqualTimestamps() throws Exception
+    {
+        EventStoreClass store = new EventStoreClass();
+        List<Event> inserted = new ArrayList<Event>();
+        for (int i = 0; i < 500; i++)
+        {
+            Event event = new Event("A", i / 7);
+            store.insert(event);
+            inserted.add(event);
+        }
+        for (boolean descending : new boolean[] {false, true})
+        {
+            List<Event> paged = new ArrayList<Event>();
+            SeekableEventIterator iterator = descending ? store.queryDescending("A", 0, 1000) : store.querySeekable("A", 0, 1000);
+            while (true)
+            {
+                int count = 0;
+                while (count < 10 && iterator.moveNext())
+                {
+                    paged.add(iterator.current());
+                    count++;
+                }
+                if (count < 10)
+                {
+                    break;
+                }
+                iterator = store.resume("A", 0, 1000, iterator.cursor());
+            }
+            assertEquals(500, paged.size());
+            for (int i = 0; i < 500; i++)
+            {
+                assertEquals(inserted.get(descending ? 499 - i : i).timestamp(), paged.get(i).timestamp());
+            }
+            if (!descending)
+            {
+                assertEquals(inserted, paged);
+            }
+        }
+    }
+}
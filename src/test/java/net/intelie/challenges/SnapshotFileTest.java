@@ -0,0 +1,118 @@
+package net.intelie.challenges;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* A restored store holds the live events of the snapshot, in the
+     * same order, and keeps working as a regular store.
+     */
+    @Test
+    public void restoreReturnsTheSnapshottedEvents() throws Exception
+    {
+        EventStoreClass eventStore = new EventStoreClass();
+        Random random = new Random(9);
+        for (int i = 0; i < 50000; i++)
+        {
+            eventStore.insert(new Event(i % 3 == 0 ? "DISK_EVENT" : "NET_EVENT", random.nextInt(100000) - 50000));
+        }
+        eventStore.insert(new Event("EDGE_EVENT", Long.MIN_VALUE));
+        eventStore.insert(new Event("EDGE_EVENT", Long.MAX_VALUE));
+        EventIterator eventIteratorObj = eventStore.query("NET_EVENT", -1000L, 1000L);
+        while (eventIteratorObj.moveNext())
+        {
+            eventIteratorObj.remove();
+        }
+        File file = new File(folder.getRoot(), "store.snapshot");
+        eventStore.writeSnapshot(file);
+        // Written after the snapshot, so not part of it
+        eventStore.insert(new Event("NET_EVENT", 0L));
+        assertTrue(file.length() < 50002L * 3);
+
+        EventStoreClass restored = EventStoreClass.restore(file);
+        assertEquals(eventStore.size() - 1, restored.size());
+        for (String type : new String[] {"DISK_EVENT", "NET_EVENT", "EDGE_EVENT"})
+        {
+            EventIterator expected = eventStore.query(type, Long.MIN_VALUE, Long.MAX_VALUE);
+            EventIterator actual = restored.query(type, Long.MIN_VALUE, Long.MAX_VALUE);
+            while (actual.moveNext())
+            {
+                assertTrue(expected.moveNext());
+                if (expected.current().timestamp() == 0L && type.equals("NET_EVENT"))
+                {
+                    assertTrue(expected.moveNext());
+                }
+                assertEquals(expected.current().timestamp(), actual.current().timestamp());
+                assertEquals(type, actual.current().type());
+            }
+            assertFalse(expected.moveNext());
+        }
+        assertEquals(1, restored.count("EDGE_EVENT", Long.MIN_VALUE, 0L));
+
+        restored.insert(new Event("DISK_EVENT", 10L));
+        restored.insert(new Event("NEW_EVENT", 10L));
+        assertEquals(eventStore.size() + 1, restored.size());
+    }
+
+    /* A damaged snapshot is rejected rather than partially restored */
+    @Test
+    public void corruptSnapshotIsRejected() throws Exception
+    {
+        EventStoreClass eventStore = new EventStoreClass();
+        for (int i = 0; i < 1000; i++)
+        {
+            eventStore.insert(new Event("DISK_EVENT", i * 10L));
+        }
+        File file = new File(folder.getRoot(), "store.snapshot");
+        eventStore.writeSnapshot(file);
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw"))
+        {
+            raw.seek(500);
+            int value = raw.read();
+            raw.seek(500);
+            raw.write(value ^ 0x01);
+        }
+        assertThrows(IOException.class, () -> EventStoreClass.restore(file));
+    }
+
+    /* A corrupt event count fails as an IOException, before anything
+     * is allocated for it, and a failed write leaves no temporary file.
+     */
+    @Test
+    public void corruptCountIsRejectedAndFailedWritesLeaveNoTemporaryFile() throws Exception
+    {
+        EventStoreClass eventStore = new EventStoreClass();
+        for (int i = 0; i < 1000; i++)
+        {
+            eventStore.insert(new Event("DISK_EVENT", i * 10L));
+        }
+        File file = new File(folder.getRoot(), "store.snapshot");
+        eventStore.writeSnapshot(file);
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw"))
+        {
+            // After the header, the name length and the name
+            raw.seek(12 + 4 + "DISK_EVENT".length());
+            raw.writeInt(Integer.MAX_VALUE - 8);
+        }
+        assertThrows(IOException.class, () -> EventStoreClass.restore(file));
+
+        File directory = folder.newFolder("occupied");
+        new File(directory, "child").createNewFile();
+        assertThrows(IOException.class, () -> eventStore.writeSnapshot(directory));
+        assertFalse(new File(directory.getPath() + ".tmp").exists());
+    }
+}
@@ -0,0 +1,134 @@
+package net.intelie.challenges;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class StripedEventStoreTest
+{
+    @Test
+    public void shardCountIsRoundedUpToPowerOfTwo()
+    {
+        assertEquals(1, new StripedEventStoreClass(1).shardCount());
+        assertEquals(8, new StripedEventStoreClass(5).shardCount());
+        assertEquals(16, new StripedEventStoreClass(16).shardCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveShardCount()
+    {
+        new StripedEventStoreClass(0);
+    }
+
+    @Test
+    public void queryReturnsSortedEventsOfEveryTypeAcrossShards() throws Exception
+    {
+        StripedEventStoreClass store = new StripedEventStoreClass(4);
+        for (int i = 99; i >= 0; i--)
+        {
+            for (int type = 0; type < 10; type++)
+            {
+                store.insert(new Event("type" + type, i));
+            }
+        }
+        assertEquals(1000, store.size());
+        for (int type = 0; type < 10; type++)
+        {
+            try (EventIterator iterator = store.query("type" + type, 10, 20))
+            {
+                for (long timestamp = 10; timestamp < 20; timestamp++)
+                {
+                    assertTrue(iterator.moveNext());
+                    assertEquals("type" + type, iterator.current().type());
+                    assertEquals(timestamp, iterator.current().timestamp());
+                    if (timestamp % 2 == 0)
+                    {
+                        iterator.remove();
+                    }
+                }
+                assertFalse(iterator.moveNext());
+            }
+        }
+        store.removeAll("type0");
+        assertEquals(1000 - 10 * 5 - 95, store.size());
+    }
+
+    /* Readers iterate a type while writers keep inserting late events into
+     * the same shard, forcing the optimistic fetches to fail and retry.
+     * Every iteration must still see the events present from the start,
+     * in order.
+     */
+    @Test
+    public void readersSeeOrderedEventsWhileShardIsWritten() throws Exception
+    {
+        final StripedEventStoreClass store = new StripedEventStoreClass(1);
+        for (int i = 0; i < 10000; i++)
+        {
+            store.insert(new Event("read", i * 2));
+        }
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int writer = 0; writer < 2; writer++)
+            {
+                final int offset = writer;
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    for (int i = 0; i < 20000; i++)
+                    {
+                        store.insert(new Event(i % 2 == 0 ? "read" : "write" + offset, (i * 7919L) % 20000 * 2 + 1));
+                    }
+                    return null;
+                }));
+            }
+            for (int reader = 0; reader < 2; reader++)
+            {
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    while (writing.get())
+                    {
+                        int even = 0;
+                        long previous = -1;
+                        try (EventIterator iterator = store.query("read", 0, 20000))
+                        {
+                            while (iterator.moveNext())
+                            {
+                                long timestamp = iterator.current().timestamp();
+                                assertTrue(timestamp >= previous);
+                                previous = timestamp;
+                                if (timestamp % 2 == 0)
+                                {
+                                    even++;
+                                }
+                            }
+                        }
+                        assertEquals(10000, even);
+                    }
+                    return null;
+                }));
+            }
+            futures.get(0).get();
+            futures.get(1).get();
+            writing.set(false);
+            for (Future<Void> future : futures)
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        assertEquals(50000, store.size());
+    }
+}
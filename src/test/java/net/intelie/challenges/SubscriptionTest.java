@@ -0,0 +1,196 @@
+package net.intelie.challenges;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/*
+ * Checks delivery, batching, backpressure and overflow of the
+ * subscriptions of PublishingEventStoreClass.
+ */
+public class SubscriptionTest
+{
+    @Test
+    public void deliversInsertedEventsInBatchesOnDemand()
+    {
+        PublishingEventStoreClass store = new PublishingEventStoreClass(new EventStoreClass(), Runnable::run, 1000, 10);
+        store.insert(new Event("A", 1));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        store.subscribe("A", 100, 200).subscribe(subscriber);
+
+        for (int i = 0; i < 300; i++)
+        {
+            store.insert(new Event(i % 2 == 0 ? "A" : "B", i));
+        }
+        assertEquals(0, subscriber.batches.size());
+
+        subscriber.subscription.request(2);
+        assertEquals(2, subscriber.batches.size());
+        assertEquals(10, subscriber.batches.get(0).size());
+        assertEquals(100, subscriber.batches.get(0).get(0).timestamp());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(50, subscriber.events().size());
+        store.insert(new Event("A", 150));
+        assertEquals(51, subscriber.events().size());
+        assertEquals(152, store.count("A", 0, 1000));
+
+        subscriber.subscription.cancel();
+        assertEquals(0, store.subscriberCount("A"));
+        store.insert(new Event("A", 160));
+        assertEquals(51, subscriber.events().size());
+    }
+
+    @Test
+    public void slowSubscriberIsDroppedOnOverflow()
+    {
+        PublishingEventStoreClass store = new PublishingEventStoreClass(new EventStoreClass(), Runnable::run, 16, 4);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        store.subscribe("A").subscribe(subscriber);
+
+        for (int i = 0; i < 100; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        assertTrue(subscriber.error instanceof IllegalStateException);
+        assertEquals(0, store.subscriberCount("A"));
+        assertEquals(100, store.count("A", 0, 100));
+    }
+
+    @Test
+    public void deliversEveryEventFromConcurrentInserts() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            PublishingEventStoreClass store = new PublishingEventStoreClass(new EventStoreClass(), executor, 100000, 64);
+            final CountDownLatch done = new CountDownLatch(4000);
+            RecordingSubscriber subscriber = new RecordingSubscriber()
+            {
+                @Override
+                public void onNext(List<Event> batch)
+                {
+                    super.onNext(batch);
+                    for (int i = 0; i < batch.size(); i++)
+                    {
+                        done.countDown();
+                    }
+                }
+            };
+            store.subscribe("A").subscribe(subscriber);
+            subscriber.subscription.request(Long.MAX_VALUE);
+
+            Thread[] writers = new Thread[4];
+            for (int w = 0; w < writers.length; w++)
+            {
+                final int offset = w * 1000;
+                writers[w] = new Thread(() -> {
+                    for (int i = 0; i < 1000; i++)
+                    {
+                        store.insert(new Event("A", offset + i));
+                    }
+                });
+                writers[w].start();
+            }
+            for (Thread writer : writers)
+            {
+                writer.join();
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(4000, subscriber.events().size());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /* Inserts overflowing the buffer while onSubscribe runs must not
+     * signal the subscriber before onSubscribe returns.
+     */
+    @Test
+    public void onSubscribeComesFirstAndCancelInsideItUnregisters()
+    {
+        final PublishingEventStoreClass store = new PublishingEventStoreClass(new EventStoreClass(), Runnable::run, 2, 1);
+        RecordingSubscriber subscriber = new RecordingSubscriber()
+        {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription)
+            {
+                for (int i = 0; i < 10; i++)
+                {
+                    store.insert(new Event("A", i));
+                }
+                assertEquals(null, error);
+                super.onSubscribe(subscription);
+            }
+        };
+        store.subscribe("A").subscribe(subscriber);
+        assertEquals(null, subscriber.error);
+        assertEquals(1, store.subscriberCount("A"));
+        subscriber.subscription.request(1);
+        store.insert(new Event("A", 10));
+        assertEquals(1, subscriber.events().size());
+
+        RecordingSubscriber cancelling = new RecordingSubscriber()
+        {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription)
+            {
+                subscription.cancel();
+            }
+        };
+        store.subscribe("A").subscribe(cancelling);
+        assertEquals(1, store.subscriberCount("A"));
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<List<Event>>
+    {
+        final List<List<Event>> batches = new CopyOnWriteArrayList<List<Event>>();
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(List<Event> batch)
+        {
+            batches.add(batch);
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete()
+        {
+        }
+
+        List<Event> events()
+        {
+            List<Event> events = new ArrayList<Event>();
+            for (List<Event> batch : batches)
+            {
+                events.addAll(batch);
+            }
+            return events;
+        }
+    }
+}
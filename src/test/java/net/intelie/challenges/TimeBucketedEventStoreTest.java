@@ -0,0 +1,193 @@
+package net.intelie.challenges;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TimeBucketedEventStoreTest
+{
+    @Test
+    public void queryWalksOverlappingBucketsInOrder() throws Exception
+    {
+        TimeBucketedEventStoreClass store = new TimeBucketedEventStoreClass(100);
+        for (int i = 999; i >= -100; i--)
+        {
+            store.insert(new Event("A", i));
+            store.insert(new Event("B", i));
+        }
+        assertEquals(11, store.bucketCount("A"));
+        try (EventIterator iterator = store.query("A", -50, 650))
+        {
+            for (long timestamp = -50; timestamp < 650; timestamp++)
+            {
+                assertTrue(iterator.moveNext());
+                assertEquals("A", iterator.current().type());
+                assertEquals(timestamp, iterator.current().timestamp());
+                if (timestamp % 100 != 0)
+                {
+                    iterator.remove();
+                }
+            }
+            assertFalse(iterator.moveNext());
+        }
+        assertEquals(2200 - 693, store.size());
+    }
+
+    @Test
+    public void expireBeforeDropsOlderBucketsAndTrimsTheBoundaryOne() throws Exception
+    {
+        TimeBucketedEventStoreClass store = new TimeBucketedEventStoreClass(100);
+        for (int i = 0; i < 1000; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        store.insert(new Event("B", 10));
+
+        assertEquals(451, store.expireBefore(450));
+        assertEquals(6, store.bucketCount("A"));
+        assertEquals(0, store.bucketCount("B"));
+        assertEquals(550, store.size());
+        try (EventIterator iterator = store.query("A", 0, 1000))
+        {
+            assertTrue(iterator.moveNext());
+            assertEquals(450, iterator.current().timestamp());
+        }
+        assertEquals(0, store.expireBefore(450));
+    }
+
+    @Test
+    public void retentionDropsBucketsOutOfTheWindowAsTimeAdvances() throws Exception
+    {
+        TimeBucketedEventStoreClass store = new TimeBucketedEventStoreClass(100, 300);
+        for (int i = 0; i < 1000; i++)
+        {
+            store.insert(new Event("A", i));
+            if (i % 10 == 0)
+            {
+                store.insert(new Event("B", i));
+            }
+        }
+        /* The newest timestamp is 999 and its bucket was entered at 900,
+         * when buckets before the one of 900 - 300 were dropped
+         */
+        assertEquals(4, store.bucketCount("A"));
+        assertEquals(4, store.bucketCount("B"));
+        assertEquals(400 + 40, store.size());
+        assertEquals(600 + 60, store.metrics().getRemovedEvents());
+        try (EventIterator iterator = store.query("A", 0, 1000))
+        {
+            assertTrue(iterator.moveNext());
+            assertEquals(600, iterator.current().timestamp());
+        }
+    }
+
+    @Test
+    public void openIteratorSkipsBucketsExpiredMeanwhile() throws Exception
+    {
+        TimeBucketedEventStoreClass store = new TimeBucketedEventStoreClass(100);
+        for (int i = 0; i < 1000; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        try (EventIterator iterator = store.query("A", 0, 1000))
+        {
+            assertTrue(iterator.moveNext());
+            store.expireBefore(500);
+            int count = 1;
+            while (iterator.moveNext())
+            {
+                count++;
+            }
+            /* The first bucket was already being walked */
+            assertEquals(100 + 500, count);
+        }
+    }
+
+    /* The bucket of the lowest timestamps starts at Long.MIN_VALUE
+     * whatever the width, so full range queries reach every bucket
+     */
+    @Test
+    public void fullRangeQueriesMatchTheBaselineStore() throws Exception
+    {
+        TimeBucketedEventStoreClass store = new TimeBucketedEventStoreClass(60000);
+        EventStoreClass baseline = new EventStoreClass();
+        for (long timestamp : new long[]{1000, Long.MIN_VALUE, Long.MIN_VALUE + 1, -1, Long.MAX_VALUE - 1})
+        {
+            store.insert(new Event("x", timestamp));
+            baseline.insert(new Event("x", timestamp));
+        }
+        long[][] ranges = {{Long.MIN_VALUE, 5000}, {Long.MIN_VALUE, Long.MAX_VALUE}, {Long.MIN_VALUE + 1, 0}};
+        for (long[] range : ranges)
+        {
+            assertEquals(baseline.count("x", range[0], range[1]), store.count("x", range[0], range[1]));
+            assertEquals(baseline.firstTimestamp("x", range[0], range[1]), store.firstTimestamp("x", range[0], range[1]));
+            assertEquals(baseline.lastTimestamp("x", range[0], range[1]), store.lastTimestamp("x", range[0], range[1]));
+            int count = 0;
+            try (EventIterator iterator = store.query("x", range[0], range[1]))
+            {
+                while (iterator.moveNext())
+                {
+                    count++;
+                }
+            }
+            assertEquals(baseline.count("x", range[0], range[1]), count);
+        }
+        assertArrayEquals(baseline.histogram("x", Long.MIN_VALUE, 5000, Long.MAX_VALUE), store.histogram("x", Long.MIN_VALUE, 5000, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void lateEventsDoNotRecreateExpiredBuckets() throws Exception
+    {
+        TimeBucketedEventStoreClass store = new TimeBucketedEventStoreClass(100, 300);
+        for (int i = 0; i < 1000; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        store.insert(new Event("A", 10));
+        store.insert(new Event("A", 650));
+        assertEquals(4, store.bucketCount("A"));
+        assertEquals(401, store.size());
+        assertEquals(601, store.metrics().getRemovedEvents());
+    }
+
+    /* Buckets emptied by iterator removals or by expireBefore are dropped,
+     * and inserting into their range again creates a new one
+     */
+    @Test
+    public void emptiedBucketsAreDropped() throws Exception
+    {
+        TimeBucketedEventStoreClass store = new TimeBucketedEventStoreClass(100);
+        for (int i = 0; i < 1000; i++)
+        {
+            store.insert(new Event("A", i));
+        }
+        try (EventIterator iterator = store.query("A", 150, 500))
+        {
+            while (iterator.moveNext())
+            {
+                iterator.remove();
+            }
+        }
+        assertEquals(7, store.bucketCount("A"));
+
+        store.insert(new Event("A", 250));
+        assertEquals(8, store.bucketCount("A"));
+        assertEquals(1, store.count("A", 200, 300));
+
+        try (EventIterator iterator = store.query("A", 550, 600))
+        {
+            while (iterator.moveNext())
+            {
+                iterator.remove();
+            }
+        }
+        assertEquals(8, store.bucketCount("A"));
+        // Trimming the boundary bucket leaves it empty
+        assertEquals(150 + 1 + 50, store.expireBefore(550));
+        assertEquals(4, store.bucketCount("A"));
+        assertEquals(400, store.size());
+    }
+}
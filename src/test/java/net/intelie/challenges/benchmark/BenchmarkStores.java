@@ -0,0 +1,117 @@
+package net.intelie.challenges.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import net.intelie.challenges.ColumnarEventStoreClass;
+import net.intelie.challenges.ConcurrentEventStoreClass;
+import net.intelie.challenges.Event;
+import net.intelie.challenges.EventStore;
+import net.intelie.challenges.EventStoreClass;
+import net.intelie.challenges.MappedEventStoreClass;
+import net.intelie.challenges.OffHeapEventStoreClass;
+import net.intelie.challenges.StripedEventStoreClass;
+
+/*
+ * Creates the EventStore implementations compared by the benchmarks,
+ * by the name given in the "store" JMH parameter, and fills them with
+ * the same data set: one hot type holding most events, and many cold
+ * types holding a few events each.
+ */
+final class BenchmarkStores
+{
+    static final String HOT_TYPE = "HOT_EVENT";
+    static final int COLD_TYPES = 100;
+    static final int COLD_EVENTS = 100;
+
+    private BenchmarkStores()
+    {
+    }
+
+    /* Store under benchmark, along with the directory it was
+     * created in, for the stores that need one.
+     */
+    static final class Instance
+    {
+        final EventStore store;
+        private final File directory;
+
+        private Instance(EventStore store, File directory)
+        {
+            this.store = store;
+            this.directory = directory;
+        }
+
+        /* Deletes the files written by the store, if any */
+        void dispose()
+        {
+            if (directory != null)
+            {
+                delete(directory);
+            }
+        }
+    }
+
+    static Instance create(String name) throws IOException
+    {
+        switch (name)
+        {
+            case "EventStoreClass":
+                return new Instance(new EventStoreClass(), null);
+            case "EventStoreClassSnapshot":
+                return new Instance(new EventStoreClass(EventStoreClass.QueryMode.SNAPSHOT), null);
+            case "StripedEventStoreClass":
+                return new Instance(new StripedEventStoreClass(), null);
+            case "ConcurrentEventStoreClass":
+                return new Instance(new ConcurrentEventStoreClass(), null);
+            case "ColumnarEventStoreClass":
+                return new Instance(new ColumnarEventStoreClass(), null);
+            case "OffHeapEventStoreClass":
+                return new Instance(new OffHeapEventStoreClass(), null);
+            case "MappedEventStoreClass":
+                File directory = Files.createTempDirectory("eventstore-benchmark").toFile();
+                return new Instance(new MappedEventStoreClass(directory), directory);
+            default:
+                throw new IllegalArgumentException("Unknown store " + name);
+        }
+    }
+
+    /* Inserts hotEvents events of the hot type, with timestamps 0 to
+     * hotEvents - 1, and COLD_EVENTS events of each cold type spread
+     * over the same time span.
+     */
+    static void fill(EventStore store, int hotEvents)
+    {
+        for (int i = 0; i < hotEvents; i++)
+        {
+            store.insert(new Event(HOT_TYPE, i));
+        }
+        long step = Math.max(1, hotEvents / COLD_EVENTS);
+        for (int type = 0; type < COLD_TYPES; type++)
+        {
+            for (int i = 0; i < COLD_EVENTS; i++)
+            {
+                store.insert(new Event(coldType(type), i * step));
+            }
+        }
+    }
+
+    static String coldType(int type)
+    {
+        return "COLD_EVENT_" + type;
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,111 @@
+package net.intelie.challenges.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.intelie.challenges.Event;
+
+/*
+ * Insert throughput and latency, run with any number of threads (-t).
+ * Every thread inserts increasing timestamps, either into a type of its
+ * own (no contention by design) or into a type shared by all threads.
+ * The store is recreated on every iteration so it does not grow
+ * without bound during long runs.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertBenchmark
+{
+    private static final int BATCH_SIZE = 1000;
+
+    @State(Scope.Benchmark)
+    public static class StoreState
+    {
+        @Param({"EventStoreClass", "StripedEventStoreClass", "ConcurrentEventStoreClass", "ColumnarEventStoreClass", "OffHeapEventStoreClass", "MappedEventStoreClass"})
+        public String store;
+
+        BenchmarkStores.Instance instance;
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Iteration)
+        public void setup() throws Exception
+        {
+            instance = BenchmarkStores.create(store);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown()
+        {
+            instance.dispose();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState
+    {
+        String ownType;
+        long timestamp = 0;
+        List<Event> batch = new ArrayList<Event>(BATCH_SIZE);
+
+        @Setup(Level.Trial)
+        public void setup(StoreState storeState)
+        {
+            ownType = "THREAD_EVENT_" + storeState.threads.getAndIncrement();
+        }
+    }
+
+    @Benchmark
+    public void insertOwnType(StoreState storeState, ThreadState threadState)
+    {
+        storeState.instance.store.insert(new Event(threadState.ownType, threadState.timestamp++));
+    }
+
+    @Benchmark
+    public void insertSharedType(StoreState storeState, ThreadState threadState)
+    {
+        storeState.instance.store.insert(new Event(BenchmarkStores.HOT_TYPE, threadState.timestamp++));
+    }
+
+    /* Events arriving up to 1000 time units late */
+    @Benchmark
+    public void insertOutOfOrder(StoreState storeState, ThreadState threadState)
+    {
+        long timestamp = threadState.timestamp++ - ThreadLocalRandom.current().nextInt(1000);
+        storeState.instance.store.insert(new Event(threadState.ownType, timestamp));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insertAllBatch(StoreState storeState, ThreadState threadState)
+    {
+        List<Event> batch = threadState.batch;
+        batch.clear();
+        for (int i = 0; i < BATCH_SIZE; i++)
+        {
+            long timestamp = threadState.timestamp++ - ThreadLocalRandom.current().nextInt(100);
+            batch.add(new Event(threadState.ownType, timestamp));
+        }
+        storeState.instance.store.insertAll(batch);
+    }
+}
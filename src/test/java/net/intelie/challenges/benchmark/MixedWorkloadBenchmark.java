@@ -0,0 +1,91 @@
+package net.intelie.challenges.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.intelie.challenges.Event;
+
+/*
+ * Concurrent readers and writers on the same store: writers append to
+ * the hot type while readers run narrow queries over its recent events,
+ * and a type reader scans cold types. The share of each role is set by
+ * the group threads, 1 writer and 3 readers by default, and can be
+ * changed with the -tg option (e.g. -tg 4,4,0).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class MixedWorkloadBenchmark
+{
+    private static final int NARROW_RANGE = 100;
+
+    @Param({"EventStoreClass", "EventStoreClassSnapshot", "StripedEventStoreClass", "ConcurrentEventStoreClass", "ColumnarEventStoreClass", "OffHeapEventStoreClass"})
+    public String store;
+
+    @Param({"100000"})
+    public int events;
+
+    private BenchmarkStores.Instance instance;
+    private final AtomicLong clock = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception
+    {
+        instance = BenchmarkStores.create(store);
+        BenchmarkStores.fill(instance.store, events);
+        clock.set(events);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown()
+    {
+        instance.dispose();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void writer()
+    {
+        instance.store.insert(new Event(BenchmarkStores.HOT_TYPE, clock.getAndIncrement()));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public int recentReader(Blackhole blackhole) throws Exception
+    {
+        long end = clock.get();
+        return QueryBenchmark.consume(instance.store, BenchmarkStores.HOT_TYPE, end - NARROW_RANGE, end, blackhole);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(0)
+    public int coldReader(Blackhole blackhole) throws Exception
+    {
+        String type = BenchmarkStores.coldType(ThreadLocalRandom.current().nextInt(BenchmarkStores.COLD_TYPES));
+        return QueryBenchmark.consume(instance.store, type, 0, events, blackhole);
+    }
+}
@@ -0,0 +1,86 @@
+package net.intelie.challenges.benchmark;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.intelie.challenges.Event;
+import net.intelie.challenges.EventIterator;
+import net.intelie.challenges.EventStoreClass;
+
+/*
+ * Wide analytical scans over EventStoreClass, filtering the events of a
+ * whole range, run sequentially through query and in parallel through
+ * parallelQuery. The parallel variants should scale with the size of the
+ * common ForkJoinPool, which can be set with
+ * -jvmArgs -Djava.util.concurrent.ForkJoinPool.common.parallelism=N
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelQueryBenchmark
+{
+    @Param({"1000000"})
+    public int events;
+
+    private EventStoreClass store;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        store = new EventStoreClass();
+        BenchmarkStores.fill(store, events);
+    }
+
+    @Benchmark
+    public long sequentialScan() throws Exception
+    {
+        long matches = 0;
+        try (EventIterator iterator = store.query(BenchmarkStores.HOT_TYPE, 0, events))
+        {
+            while (iterator.moveNext())
+            {
+                if (matches(iterator.current()))
+                {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public long parallelScan()
+    {
+        return store.parallelQuery(BenchmarkStores.HOT_TYPE, 0, events).filter(ParallelQueryBenchmark::matches).count();
+    }
+
+    @Benchmark
+    public long parallelMultiTypeScan()
+    {
+        return store.parallelQuery(new HashSet<String>(Arrays.asList(BenchmarkStores.HOT_TYPE, BenchmarkStores.coldType(0))), 0, events)
+            .filter(ParallelQueryBenchmark::matches).count();
+    }
+
+    /* Some per event work for the scan to do */
+    private static boolean matches(Event event)
+    {
+        return Long.bitCount(event.timestamp() * 0x9E3779B97F4A7C15L) > 32;
+    }
+}
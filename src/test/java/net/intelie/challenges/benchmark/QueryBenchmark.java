@@ -0,0 +1,109 @@
+package net.intelie.challenges.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.intelie.challenges.EventIterator;
+import net.intelie.challenges.EventStore;
+
+/*
+ * Query latency and throughput over a prefilled store, iterating every
+ * returned event through moveNext and current. Covers narrow (100
+ * events) and wide (whole store) ranges on the hot type, a cold type,
+ * and reading only the first event of a wide range.
+ * Queries do not modify the store, so it is filled once per trial and
+ * can be shared by any number of threads (-t).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark
+{
+    private static final int NARROW_RANGE = 100;
+
+    @Param({"EventStoreClass", "EventStoreClassSnapshot", "StripedEventStoreClass", "ConcurrentEventStoreClass", "ColumnarEventStoreClass", "OffHeapEventStoreClass", "MappedEventStoreClass"})
+    public String store;
+
+    @Param({"100000"})
+    public int events;
+
+    private BenchmarkStores.Instance instance;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        instance = BenchmarkStores.create(store);
+        BenchmarkStores.fill(instance.store, events);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        instance.dispose();
+    }
+
+    @Benchmark
+    public int queryNarrowHot(Blackhole blackhole) throws Exception
+    {
+        long start = ThreadLocalRandom.current().nextInt(events - NARROW_RANGE);
+        return consume(instance.store, BenchmarkStores.HOT_TYPE, start, start + NARROW_RANGE, blackhole);
+    }
+
+    @Benchmark
+    public int queryWideHot(Blackhole blackhole) throws Exception
+    {
+        return consume(instance.store, BenchmarkStores.HOT_TYPE, 0, events, blackhole);
+    }
+
+    @Benchmark
+    public int queryCold(Blackhole blackhole) throws Exception
+    {
+        String type = BenchmarkStores.coldType(ThreadLocalRandom.current().nextInt(BenchmarkStores.COLD_TYPES));
+        return consume(instance.store, type, 0, events, blackhole);
+    }
+
+    /* A dashboard reading only the first page of a wide range */
+    @Benchmark
+    public void queryWideFirstEvent(Blackhole blackhole) throws Exception
+    {
+        try (EventIterator iterator = instance.store.query(BenchmarkStores.HOT_TYPE, 0, events))
+        {
+            if (iterator.moveNext())
+            {
+                blackhole.consume(iterator.current());
+            }
+        }
+    }
+
+    static int consume(EventStore store, String type, long start, long end, Blackhole blackhole) throws Exception
+    {
+        int count = 0;
+        try (EventIterator iterator = store.query(type, start, end))
+        {
+            while (iterator.moveNext())
+            {
+                blackhole.consume(iterator.current());
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,91 @@
+package net.intelie.challenges.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.intelie.challenges.Event;
+import net.intelie.challenges.EventIterator;
+
+/*
+ * Cost of removing events, either a whole type with removeAll or one by
+ * one through EventIterator.remove. Both destroy the data they work on,
+ * so every invocation gets a freshly filled type and runs once
+ * (single shot), which is the JMH pattern for such operations.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(1)
+@State(Scope.Thread)
+public class RemoveBenchmark
+{
+    private static final String REMOVED_TYPE = "REMOVED_EVENT";
+
+    @Param({"EventStoreClass", "StripedEventStoreClass", "ConcurrentEventStoreClass", "ColumnarEventStoreClass", "OffHeapEventStoreClass", "MappedEventStoreClass"})
+    public String store;
+
+    @Param({"10000"})
+    public int events;
+
+    private BenchmarkStores.Instance instance;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception
+    {
+        instance = BenchmarkStores.create(store);
+        BenchmarkStores.fill(instance.store, events);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation()
+    {
+        for (int i = 0; i < events; i++)
+        {
+            instance.store.insert(new Event(REMOVED_TYPE, i));
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation()
+    {
+        instance.store.removeAll(REMOVED_TYPE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial()
+    {
+        instance.dispose();
+    }
+
+    @Benchmark
+    public void removeAll()
+    {
+        instance.store.removeAll(REMOVED_TYPE);
+    }
+
+    @Benchmark
+    public void iteratorRemove() throws Exception
+    {
+        try (EventIterator iterator = instance.store.query(REMOVED_TYPE, 0, events))
+        {
+            while (iterator.moveNext())
+            {
+                iterator.remove();
+            }
+        }
+    }
+}